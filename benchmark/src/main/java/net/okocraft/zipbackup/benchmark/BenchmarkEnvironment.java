@@ -0,0 +1,98 @@
+package net.okocraft.zipbackup.benchmark;
+
+import net.okocraft.zipbackup.archive.ArchiveFactory;
+import net.okocraft.zipbackup.archive.ArchiveFormat;
+import net.okocraft.zipbackup.archive.ArchiveWriter;
+import net.okocraft.zipbackup.archive.CompressionPolicy;
+import net.okocraft.zipbackup.archive.ParallelZipWriter;
+import net.okocraft.zipbackup.archive.TarArchiveWriter;
+import net.okocraft.zipbackup.metrics.JobMetrics;
+import net.okocraft.zipbackup.scan.TreeScanner;
+import net.okocraft.zipbackup.throttle.IoThrottle;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The temporary directory and the worker pools that the plugin would otherwise provide.
+ */
+final class BenchmarkEnvironment implements Closeable {
+
+    private static final Map<String, Integer> LEVELS_BY_EXTENSION = Map.of("mca", CompressionPolicy.STORE, "mcc", CompressionPolicy.STORE);
+
+    private final Path directory;
+    private final int workers = Runtime.getRuntime().availableProcessors();
+    private final ExecutorService compressionPool = Executors.newFixedThreadPool(workers);
+    private final ForkJoinPool scanPool = new ForkJoinPool(workers);
+    private final AtomicInteger archiveCounter = new AtomicInteger();
+
+    BenchmarkEnvironment() throws IOException {
+        this.directory = Files.createTempDirectory("zipbackup-benchmark");
+    }
+
+    @NotNull Path getDirectory() {
+        return directory;
+    }
+
+    @NotNull TreeScanner createScanner() {
+        return new TreeScanner(scanPool);
+    }
+
+    /**
+     * Creates an archive factory with the default per-extension levels of the plugin.
+     *
+     * @param level the deflate level for zip archives, or the zstd level for {@link ArchiveFormat#TAR_ZSTD}
+     */
+    @NotNull ArchiveFactory createArchiveFactory(@NotNull ArchiveFormat format, int level) {
+        var policy = new CompressionPolicy(level, LEVELS_BY_EXTENSION, true);
+
+        return backupDir -> createArchive(backupDir, format, level, policy);
+    }
+
+    private @NotNull ArchiveWriter createArchive(@NotNull Path directory, @NotNull ArchiveFormat format,
+                                                 int level, @NotNull CompressionPolicy policy) throws IOException {
+        // several archives are created within a second, so they cannot be named after the time like the plugin does
+        var file = directory.resolve("benchmark-" + archiveCounter.incrementAndGet() + format.getExtension());
+
+        if (format == ArchiveFormat.ZIP) {
+            return new ParallelZipWriter(file, policy, compressionPool, workers);
+        }
+
+        return new TarArchiveWriter(file, format, Math.max(1, level), workers, IoThrottle.UNLIMITED, JobMetrics.untracked());
+    }
+
+    @Override
+    public void close() throws IOException {
+        compressionPool.shutdownNow();
+        scanPool.shutdownNow();
+        deleteRecursively(directory);
+    }
+
+    static void deleteRecursively(@NotNull Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+
+        try (var walk = Files.walk(path)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(file -> {
+                try {
+                    Files.delete(file);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+}
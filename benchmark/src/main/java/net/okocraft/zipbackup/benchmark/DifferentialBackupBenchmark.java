@@ -0,0 +1,116 @@
+package net.okocraft.zipbackup.benchmark;
+
+import net.okocraft.zipbackup.archive.ArchiveFactory;
+import net.okocraft.zipbackup.archive.ArchiveFormat;
+import net.okocraft.zipbackup.manifest.ContentDigest;
+import net.okocraft.zipbackup.metrics.JobMetrics;
+import net.okocraft.zipbackup.throttle.IoThrottle;
+import net.okocraft.zipbackup.type.BackupType;
+import net.okocraft.zipbackup.type.BaseCopyMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates a differential backup of the generated tree after a part of it has been modified.
+ * <p>
+ * The base of the day is created again before each iteration, so that the changes do not pile up
+ * over the whole run. The throughput is that of the whole tree, since every file is checked against the base.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 20)
+@Fork(1)
+public class DifferentialBackupBenchmark {
+
+    @Param({"small"})
+    public String shape;
+
+    @Param({"zip"})
+    public String format;
+
+    @Param({"0", "1", "6", "9"})
+    public int level;
+
+    @Param({"false", "true"})
+    public boolean regionDelta;
+
+    @Param({"0.05"})
+    public double changedFraction;
+
+    private BenchmarkEnvironment environment;
+    private WorldGenerator generator;
+    private ArchiveFactory archiveFactory;
+    private Path source;
+    private Path backupDir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        environment = new BenchmarkEnvironment();
+        generator = new WorldGenerator(shape.hashCode());
+        source = environment.getDirectory().resolve("source");
+        backupDir = environment.getDirectory().resolve("backups");
+        archiveFactory = environment.createArchiveFactory(ArchiveFormat.fromName(format), level);
+
+        generator.generate(source, WorldGenerator.Shape.fromName(shape));
+    }
+
+    @Setup(Level.Iteration)
+    public void createBase() throws Exception {
+        BenchmarkEnvironment.deleteRecursively(backupDir);
+        // the first differential backup of the day creates the base
+        createBackupType().backup(source, backupDir);
+    }
+
+    @Setup(Level.Invocation)
+    public void modify() throws IOException {
+        generator.modify(changedFraction);
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteArchives() throws IOException {
+        try (var list = Files.list(backupDir)) {
+            for (var path : (Iterable<Path>) list::iterator) {
+                if (Files.isRegularFile(path)) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        environment.close();
+    }
+
+    @Benchmark
+    public void differential(Throughput throughput) throws Exception {
+        createBackupType().backup(source, backupDir);
+        throughput.record(generator.getTotalBytes(), generator.getTotalFiles());
+    }
+
+    private BackupType createBackupType() {
+        return BackupType.differential(
+                archiveFactory, environment.createScanner(), path -> false,
+                false, regionDelta, ContentDigest.CRC32C, BaseCopyMode.COPY,
+                IoThrottle.UNLIMITED, JobMetrics.untracked()
+        );
+    }
+}
@@ -0,0 +1,82 @@
+package net.okocraft.zipbackup.benchmark;
+
+import net.okocraft.zipbackup.archive.ArchiveFactory;
+import net.okocraft.zipbackup.archive.ArchiveFormat;
+import net.okocraft.zipbackup.metrics.JobMetrics;
+import net.okocraft.zipbackup.type.BackupType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Backs up the whole generated tree into a new archive on each invocation.
+ * <p>
+ * The level is the deflate level for zip and the zstd level for {@code tar.zst}, for example
+ * {@code -p format=tar.zst -p level=1,3,9}. Region files are always stored in zip archives, as with the default config.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 20)
+@Fork(1)
+public class FullBackupBenchmark {
+
+    @Param({"small"})
+    public String shape;
+
+    @Param({"zip"})
+    public String format;
+
+    @Param({"0", "1", "6", "9"})
+    public int level;
+
+    private BenchmarkEnvironment environment;
+    private WorldGenerator generator;
+    private ArchiveFactory archiveFactory;
+    private Path source;
+    private Path backupDir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        environment = new BenchmarkEnvironment();
+        generator = new WorldGenerator(shape.hashCode());
+        source = environment.getDirectory().resolve("source");
+        backupDir = environment.getDirectory().resolve("backups");
+        archiveFactory = environment.createArchiveFactory(ArchiveFormat.fromName(format), level);
+
+        generator.generate(source, WorldGenerator.Shape.fromName(shape));
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteBackups() throws IOException {
+        BenchmarkEnvironment.deleteRecursively(backupDir);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        environment.close();
+    }
+
+    @Benchmark
+    public void full(Throughput throughput) throws Exception {
+        BackupType.full(archiveFactory, environment.createScanner(), path -> false, JobMetrics.untracked())
+                .backup(source, backupDir);
+
+        throughput.record(generator.getTotalBytes(), generator.getTotalFiles());
+    }
+}
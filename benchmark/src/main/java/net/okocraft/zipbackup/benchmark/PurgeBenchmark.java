@@ -0,0 +1,157 @@
+package net.okocraft.zipbackup.benchmark;
+
+import net.okocraft.zipbackup.catalog.BackupCatalog;
+import net.okocraft.zipbackup.core.ExpiredBackupDeleter;
+import net.okocraft.zipbackup.util.FilePathFactory;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Purges a backup directory that holds the archives of several targets over two weeks, together with
+ * the daily {@code full-backup-<date>} bases of differential backups.
+ * <p>
+ * {@link #walk} only checks the backups in the catalog, since none of them has expired. {@link #purge} deletes
+ * the backups of the first week, which moves them to the trash; emptying the trash in the background is not measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 20)
+@Fork(1)
+public class PurgeBenchmark {
+
+    private static final int DAYS = 14;
+    private static final int ARCHIVE_SIZE = 16 * 1024;
+    private static final int BASE_FILE_SIZE = 4 * 1024;
+    private static final Logger LOGGER = Logger.getLogger("ZipBackup");
+
+    @Param({"8"})
+    public int targets;
+
+    @Param({"24"})
+    public int backupsPerDay;
+
+    @Param({"500"})
+    public int filesPerBase;
+
+    private BenchmarkEnvironment environment;
+    private BackupCatalog catalog;
+    private Layout layout;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        environment = new BenchmarkEnvironment();
+        var backupDir = environment.getDirectory().resolve("backups");
+        layout = createBackups(backupDir);
+        catalog = BackupCatalog.open(backupDir, LOGGER);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        catalog.close();
+        environment.close();
+    }
+
+    @Benchmark
+    public int walk(Throughput throughput) throws IOException {
+        int deleted = new ExpiredBackupDeleter(Integer.MAX_VALUE, true).deleteExpired(catalog);
+        throughput.record(layout.bytes(), layout.files());
+        return deleted;
+    }
+
+    @Benchmark
+    public int purge(ExpiredBackups backups, Throughput throughput) throws IOException {
+        int deleted = new ExpiredBackupDeleter(DAYS / 2, true).deleteExpired(backups.catalog);
+        throughput.record(backups.layout.bytes(), backups.layout.files());
+        return deleted;
+    }
+
+    /**
+     * A copy of the backup directory that is created again before each invocation, since the purge deletes half of it.
+     */
+    @State(Scope.Thread)
+    public static class ExpiredBackups {
+
+        private BackupCatalog catalog;
+        private Layout layout;
+
+        @Setup(Level.Invocation)
+        public void create(PurgeBenchmark benchmark) throws IOException {
+            var directory = benchmark.environment.getDirectory().resolve("expired");
+            BenchmarkEnvironment.deleteRecursively(directory);
+            layout = benchmark.createBackups(directory);
+            catalog = BackupCatalog.open(directory, LOGGER);
+        }
+
+        @TearDown(Level.Invocation)
+        public void close() throws InterruptedException {
+            catalog.close();
+            catalog.awaitDeletions();
+        }
+    }
+
+    private record Layout(long bytes, long files) {
+    }
+
+    private @NotNull Layout createBackups(@NotNull Path directory) throws IOException {
+        var archive = new byte[ARCHIVE_SIZE];
+        var baseFile = new byte[BASE_FILE_SIZE];
+        var today = LocalDate.now();
+        long files = 0;
+
+        for (int target = 0; target < targets; target++) {
+            var targetDir = Files.createDirectories(directory.resolve("target-" + target));
+
+            for (int day = 0; day < DAYS; day++) {
+                var date = today.minusDays(day);
+
+                for (int i = 0; i < backupsPerDay; i++) {
+                    var time = date.atStartOfDay().plusMinutes(i * 24L * 60 / backupsPerDay);
+                    writeFile(targetDir.resolve(FilePathFactory.FILENAME_FORMAT.format(time) + ".zip"), archive, time);
+                }
+
+                var base = targetDir.resolve("full-backup-" + DateTimeFormatter.ISO_LOCAL_DATE.format(date));
+
+                for (int i = 0; i < filesPerBase; i++) {
+                    // spread over directories like the region, playerdata and plugin folders of a real base
+                    var file = base.resolve("dir-" + (i % 16)).resolve("file-" + i + ".dat");
+                    Files.createDirectories(file.getParent());
+                    writeFile(file, baseFile, date.atStartOfDay());
+                }
+
+                files += backupsPerDay + filesPerBase;
+            }
+        }
+
+        return new Layout((long) targets * DAYS * ((long) backupsPerDay * ARCHIVE_SIZE + (long) filesPerBase * BASE_FILE_SIZE), files);
+    }
+
+    private static void writeFile(@NotNull Path file, byte @NotNull [] data, @NotNull LocalDateTime time) throws IOException {
+        Files.write(file, data);
+        Files.setLastModifiedTime(file, FileTime.from(time.atZone(ZoneId.systemDefault()).toInstant()));
+    }
+}
@@ -0,0 +1,98 @@
+package net.okocraft.zipbackup.benchmark;
+
+import net.lingala.zip4j.ZipFile;
+import net.okocraft.zipbackup.archive.ArchiveFormat;
+import net.okocraft.zipbackup.archive.TarArchiveReader;
+import net.okocraft.zipbackup.metrics.JobMetrics;
+import net.okocraft.zipbackup.type.BackupType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extracts a full backup of the generated tree, in the same way as {@code /zipbackup copybackup} does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 20)
+@Fork(1)
+public class RestoreBenchmark {
+
+    @Param({"small"})
+    public String shape;
+
+    @Param({"zip"})
+    public String format;
+
+    @Param({"0", "1", "6", "9"})
+    public int level;
+
+    private BenchmarkEnvironment environment;
+    private WorldGenerator generator;
+    private ArchiveFormat archiveFormat;
+    private Path archive;
+    private Path target;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        environment = new BenchmarkEnvironment();
+        generator = new WorldGenerator(shape.hashCode());
+        archiveFormat = ArchiveFormat.fromName(format);
+
+        var source = environment.getDirectory().resolve("source");
+        var backupDir = environment.getDirectory().resolve("backups");
+
+        generator.generate(source, WorldGenerator.Shape.fromName(shape));
+
+        BackupType.full(environment.createArchiveFactory(archiveFormat, level), environment.createScanner(), path -> false, JobMetrics.untracked())
+                .backup(source, backupDir);
+
+        try (var list = Files.list(backupDir)) {
+            archive = list.findFirst().orElseThrow();
+        }
+
+        // only the archive is needed from now on
+        BenchmarkEnvironment.deleteRecursively(source);
+        target = environment.getDirectory().resolve("restored");
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteRestored() throws IOException {
+        BenchmarkEnvironment.deleteRecursively(target);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        environment.close();
+    }
+
+    @Benchmark
+    public void extract(Throughput throughput) throws IOException {
+        if (archiveFormat.isTar()) {
+            TarArchiveReader.extract(archive, archiveFormat, target);
+        } else {
+            try (var zip = new ZipFile(archive.toFile())) {
+                zip.extractAll(target.toString());
+            }
+        }
+
+        throughput.record(generator.getTotalBytes(), generator.getTotalFiles());
+    }
+}
@@ -0,0 +1,29 @@
+package net.okocraft.zipbackup.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Counts the data processed by each benchmark invocation, which JMH reports per second next to the primary result.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Throughput {
+
+    public double megabytes;
+    public long files;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        megabytes = 0;
+        files = 0;
+    }
+
+    void record(long bytes, long files) {
+        this.megabytes += bytes / (1024.0 * 1024.0);
+        this.files += files;
+    }
+}
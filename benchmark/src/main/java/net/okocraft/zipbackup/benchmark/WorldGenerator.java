@@ -0,0 +1,310 @@
+package net.okocraft.zipbackup.benchmark;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Generates directory trees that look like a server to the backup engines: region files of already compressed chunks,
+ * thousands of small gzipped player files with their statistics, and a few large, compressible plugin databases.
+ */
+public final class WorldGenerator {
+
+    private static final int SECTOR_SIZE = 4096;
+    private static final int CHUNK_COUNT = 1024;
+    private static final int DATABASE_PAGE_SIZE = 4096;
+    private static final String[] PLAYER_NAMES = {"Steve", "Alex", "Notch", "jeb_", "Dinnerbone", "Grumm", "Herobrine"};
+
+    private final SplittableRandom random;
+    private final List<Path> regionFiles = new ArrayList<>();
+    private final List<Path> playerFiles = new ArrayList<>();
+    // mtimes are advanced explicitly, so that modified files are detected on filesystems with a coarse resolution
+    private long clock = System.currentTimeMillis();
+    private long totalBytes;
+    private int totalFiles;
+
+    public WorldGenerator(long seed) {
+        this.random = new SplittableRandom(seed);
+    }
+
+    /**
+     * The size of the generated tree.
+     *
+     * @param regions      the number of region files
+     * @param players      the number of players, each of which has a data file and a statistics file
+     * @param databases    the number of plugin databases
+     * @param databaseSize the size of each plugin database
+     */
+    public record Shape(int regions, int players, int databases, long databaseSize) {
+
+        public static @NotNull Shape fromName(@NotNull String name) {
+            return switch (name.toLowerCase(Locale.ROOT)) {
+                case "small" -> new Shape(16, 2_000, 2, 32L * 1024 * 1024);
+                case "medium" -> new Shape(64, 10_000, 3, 128L * 1024 * 1024);
+                case "large" -> new Shape(256, 40_000, 4, 512L * 1024 * 1024);
+                default -> throw new IllegalArgumentException("Unknown shape: " + name);
+            };
+        }
+    }
+
+    /**
+     * Generates a world in {@code root/world} and plugin data in {@code root/plugins}.
+     */
+    public void generate(@NotNull Path root, @NotNull Shape shape) throws IOException {
+        var world = root.resolve("world");
+        var region = Files.createDirectories(world.resolve("region"));
+        var playerdata = Files.createDirectories(world.resolve("playerdata"));
+        var stats = Files.createDirectories(world.resolve("stats"));
+
+        writeGzipped(world.resolve("level.dat"), createPlayerData(UUID.randomUUID()));
+
+        int side = (int) Math.ceil(Math.sqrt(shape.regions()));
+
+        for (int i = 0; i < shape.regions(); i++) {
+            var file = region.resolve("r." + (i % side - side / 2) + "." + (i / side - side / 2) + ".mca");
+            writeRegion(file);
+            regionFiles.add(file);
+        }
+
+        for (int i = 0; i < shape.players(); i++) {
+            var uuid = new UUID(random.nextLong(), random.nextLong());
+            var dataFile = playerdata.resolve(uuid + ".dat");
+
+            writeGzipped(dataFile, createPlayerData(uuid));
+            write(stats.resolve(uuid + ".json"), createStatistics());
+            playerFiles.add(dataFile);
+        }
+
+        var plugins = root.resolve("plugins");
+
+        for (int i = 0; i < shape.databases(); i++) {
+            var directory = Files.createDirectories(plugins.resolve("Plugin" + i));
+            writeDatabase(directory.resolve("data.db"), shape.databaseSize());
+            write(directory.resolve("config.yml"), ("enabled: true\ndatabase: data.db\n").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Simulates play between two backups: rewrites some chunks of some region files in place, as the server does,
+     * and rewrites the data of some players.
+     *
+     * @param fraction the fraction of region files and players that are modified
+     */
+    public void modify(double fraction) throws IOException {
+        for (var file : regionFiles) {
+            if (random.nextDouble() < fraction) {
+                modifyRegion(file);
+            }
+        }
+
+        for (var file : playerFiles) {
+            if (random.nextDouble() < fraction) {
+                var uuid = UUID.fromString(file.getFileName().toString().substring(0, 36));
+                totalBytes -= Files.size(file);
+                totalFiles--;
+                writeGzipped(file, createPlayerData(uuid));
+            }
+        }
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public int getTotalFiles() {
+        return totalFiles;
+    }
+
+    private void writeRegion(@NotNull Path file) throws IOException {
+        var header = ByteBuffer.allocate(SECTOR_SIZE * 2);
+        int sector = 2;
+
+        try (var channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            for (int i = 0; i < CHUNK_COUNT; i++) {
+                // not every chunk of a region has been generated
+                if (random.nextInt(10) < 2) {
+                    continue;
+                }
+
+                // chunks are stored zlib-compressed, so their content is close to random
+                int length = 1 + random.nextInt(1536, 10 * 1024);
+                int sectors = (4 + length + SECTOR_SIZE - 1) / SECTOR_SIZE;
+                var chunk = ByteBuffer.allocate(sectors * SECTOR_SIZE);
+
+                chunk.putInt(length).put((byte) 2);
+                chunk.put(randomBytes(length - 1)).clear();
+
+                writeFully(channel, chunk, (long) sector * SECTOR_SIZE);
+
+                header.putInt(i * 4, sector << 8 | sectors);
+                header.putInt(SECTOR_SIZE + i * 4, (int) (clock / 1000));
+                sector += sectors;
+            }
+
+            writeFully(channel, header.clear(), 0);
+        }
+
+        finish(file);
+    }
+
+    private void modifyRegion(@NotNull Path file) throws IOException {
+        totalBytes -= Files.size(file);
+        totalFiles--;
+        clock += 1000;
+
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            var header = ByteBuffer.allocate(SECTOR_SIZE * 2);
+
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) == -1) {
+                    throw new IOException("Truncated region file: " + file);
+                }
+            }
+
+            for (int i = 0; i < CHUNK_COUNT; i++) {
+                int location = header.getInt(i * 4);
+
+                if (location == 0 || random.nextInt(10) != 0) {
+                    continue;
+                }
+
+                // the chunk is rewritten in its own sectors, keeping the length
+                long offset = (long) (location >>> 8) * SECTOR_SIZE;
+                var length = ByteBuffer.allocate(4);
+                channel.read(length, offset);
+
+                writeFully(channel, ByteBuffer.wrap(randomBytes(length.getInt(0) - 1)), offset + 5);
+                header.putInt(SECTOR_SIZE + i * 4, (int) (clock / 1000));
+            }
+
+            writeFully(channel, header.clear(), 0);
+        }
+
+        finish(file);
+    }
+
+    private void writeDatabase(@NotNull Path file, long size) throws IOException {
+        var page = new byte[DATABASE_PAGE_SIZE];
+
+        try (var out = new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.CREATE_NEW), 1 << 16)) {
+            for (long written = 0; written < size; written += DATABASE_PAGE_SIZE) {
+                fillDatabasePage(page);
+                out.write(page);
+            }
+        }
+
+        finish(file);
+    }
+
+    private void fillDatabasePage(byte @NotNull [] page) {
+        var buffer = ByteBuffer.wrap(page);
+
+        // rows of a table keyed by player, followed by the free space of the page
+        int used = random.nextInt(DATABASE_PAGE_SIZE / 2, DATABASE_PAGE_SIZE - 128);
+
+        while (buffer.position() < used) {
+            var row = (new UUID(random.nextLong(), random.nextLong()) + "|" +
+                    PLAYER_NAMES[random.nextInt(PLAYER_NAMES.length)] + "|" +
+                    random.nextInt(100_000) + "|" +
+                    (clock / 1000 - random.nextInt(86400 * 30)) + "\n").getBytes(StandardCharsets.US_ASCII);
+
+            if (buffer.remaining() < row.length) {
+                break;
+            }
+
+            buffer.put(row);
+        }
+
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) 0);
+        }
+    }
+
+    private byte @NotNull [] createPlayerData(@NotNull UUID uuid) {
+        var builder = new StringBuilder(8192);
+
+        builder.append("{UUID:\"").append(uuid).append("\",Health:20.0f,Pos:[")
+                .append(random.nextDouble() * 10000).append("d,").append(random.nextInt(-64, 320)).append("d,")
+                .append(random.nextDouble() * 10000).append("d],Inventory:[");
+
+        for (int slot = 0, items = random.nextInt(4, 36); slot < items; slot++) {
+            builder.append("{Slot:").append(slot).append("b,id:\"minecraft:item_").append(random.nextInt(1200))
+                    .append("\",Count:").append(random.nextInt(1, 65)).append("b},");
+        }
+
+        builder.append("],EnderItems:[");
+
+        for (int slot = 0, items = random.nextInt(27); slot < items; slot++) {
+            builder.append("{Slot:").append(slot).append("b,id:\"minecraft:item_").append(random.nextInt(1200))
+                    .append("\",Count:").append(random.nextInt(1, 65)).append("b},");
+        }
+
+        return builder.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private byte @NotNull [] createStatistics() {
+        var builder = new StringBuilder(4096).append("{\"stats\":{\"minecraft:mined\":{");
+
+        for (int i = 0, count = random.nextInt(10, 200); i < count; i++) {
+            builder.append("\"minecraft:block_").append(random.nextInt(1000)).append("\":").append(random.nextInt(100_000)).append(',');
+        }
+
+        return builder.append("}},\"DataVersion\":3465}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void writeGzipped(@NotNull Path file, byte @NotNull [] data) throws IOException {
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file))) {
+            out.write(data);
+        }
+
+        finish(file);
+    }
+
+    private void write(@NotNull Path file, byte @NotNull [] data) throws IOException {
+        Files.write(file, data);
+        finish(file);
+    }
+
+    private void finish(@NotNull Path file) throws IOException {
+        clock += 1;
+        Files.setLastModifiedTime(file, FileTime.fromMillis(clock));
+        totalBytes += Files.size(file);
+        totalFiles++;
+    }
+
+    private byte @NotNull [] randomBytes(int length) {
+        var bytes = new byte[length];
+
+        for (int i = 0; i < length; i += 8) {
+            long value = random.nextLong();
+
+            for (int j = i; j < Math.min(i + 8, length); j++) {
+                bytes[j] = (byte) value;
+                value >>>= 8;
+            }
+        }
+
+        return bytes;
+    }
+
+    private static void writeFully(@NotNull FileChannel channel, @NotNull ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, offset + buffer.position());
+        }
+    }
+}
@@ -5,22 +5,36 @@ import com.github.siroshun09.configapi.api.util.ResourceUtils;
 import com.github.siroshun09.configapi.yaml.YamlConfiguration;
 import com.github.siroshun09.mccommand.paper.PaperCommandFactory;
 import com.github.siroshun09.mccommand.paper.listener.AsyncTabCompleteListener;
-import net.lingala.zip4j.model.ZipParameters;
+import net.okocraft.zipbackup.archive.ArchiveWriter;
+import net.okocraft.zipbackup.archive.CompressionPolicy;
+import net.okocraft.zipbackup.archive.ParallelZipWriter;
+import net.okocraft.zipbackup.catalog.BackupCatalog;
 import net.okocraft.zipbackup.command.ZipBackupCommand;
 import net.okocraft.zipbackup.config.Settings;
+import net.okocraft.zipbackup.core.BackupEnvironment;
+import net.okocraft.zipbackup.core.EnvironmentFactory;
+import net.okocraft.zipbackup.dedup.ChunkStore;
 import net.okocraft.zipbackup.listener.ServerStartListener;
+import net.okocraft.zipbackup.metrics.BackupMetrics;
+import net.okocraft.zipbackup.metrics.JobMetrics;
+import net.okocraft.zipbackup.metrics.PrometheusEndpoint;
+import net.okocraft.zipbackup.monitor.TickMonitor;
+import net.okocraft.zipbackup.scan.TreeScanner;
 import net.okocraft.zipbackup.task.TaskContainer;
+import net.okocraft.zipbackup.throttle.IoThrottle;
+import net.okocraft.zipbackup.throttle.LoadAwareThrottle;
 import org.bukkit.event.HandlerList;
 import org.bukkit.plugin.java.JavaPlugin;
-import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
 import java.nio.file.Path;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.logging.Level;
 
-public class ZipBackupPlugin extends JavaPlugin {
+public class ZipBackupPlugin extends JavaPlugin implements BackupEnvironment {
 
     private final YamlConfiguration configuration =
             YamlConfiguration.create(getDataFolder().toPath().resolve("config.yml"));
@@ -29,7 +43,13 @@ public class ZipBackupPlugin extends JavaPlugin {
     private final ExecutorService commandExecutor = Executors.newSingleThreadExecutor();
 
     private Path backupDirectory;
-    private ZipParameters zipParameters;
+    private @Nullable BackupCatalog catalog;
+    private CompressionPolicy compressionPolicy;
+    private @Nullable ChunkStore chunkStore;
+    private final TickMonitor tickMonitor = new TickMonitor();
+    private IoThrottle ioThrottle = IoThrottle.UNLIMITED;
+    private final BackupMetrics metrics = new BackupMetrics(getLogger());
+    private @Nullable PrometheusEndpoint prometheusEndpoint;
 
     @Override
     public void onEnable() {
@@ -45,6 +65,7 @@ public class ZipBackupPlugin extends JavaPlugin {
         }
 
         getServer().getPluginManager().registerEvents(new ServerStartListener(this), this);
+        getServer().getPluginManager().registerEvents(tickMonitor, this);
 
         var command = new ZipBackupCommand(this);
         PaperCommandFactory.registerIfExists(this, command);
@@ -56,6 +77,10 @@ public class ZipBackupPlugin extends JavaPlugin {
         HandlerList.unregisterAll(this);
         taskContainer.shutdownIfRunning();
         commandExecutor.shutdownNow();
+        closeChunkStore();
+        closeCatalog();
+        stopPrometheusEndpoint();
+        metrics.disableJmx();
     }
 
     public void reload() throws Exception {
@@ -64,14 +89,27 @@ public class ZipBackupPlugin extends JavaPlugin {
 
         configuration.reload();
 
-        prepareBackupDirectory();
+        backupDirectory = EnvironmentFactory.resolveBackupDirectory(configuration, getDataFolder().toPath());
+        compressionPolicy = EnvironmentFactory.createCompressionPolicy(configuration);
+        ioThrottle = EnvironmentFactory.createIoThrottle(configuration, tickMonitor::getRecentTickDuration);
 
-        prepareZipParameters();
+        configureMetrics();
 
         taskContainer.shutdownIfRunning();
+
+        closeChunkStore();
+        closeCatalog();
+
+        catalog = BackupCatalog.open(backupDirectory, getLogger());
+
+        if (configuration.get(Settings.BACKUP_DEDUPLICATE)) {
+            chunkStore = ChunkStore.open(backupDirectory.resolve(ChunkStore.DIRECTORY_NAME));
+        }
+
         taskContainer.scheduleTasks();
     }
 
+    @Override
     public @NotNull YamlConfiguration getConfiguration() {
         return configuration;
     }
@@ -80,31 +118,146 @@ public class ZipBackupPlugin extends JavaPlugin {
         return taskContainer;
     }
 
+    @Override
     public @NotNull Path getBackupDirectory() {
         return backupDirectory;
     }
 
-    @Contract(" -> new")
-    public @NotNull ZipParameters getZipParameters() {
-        return new ZipParameters(zipParameters);
+    @Override
+    public @NotNull BackupCatalog getCatalog() {
+        if (catalog == null) {
+            throw new IllegalStateException("The backup catalog is not opened.");
+        }
+
+        return catalog;
+    }
+
+    /**
+     * {@inheritDoc}
+     * It is next to the server files so that they can be cloned with reflinks on the same filesystem.
+     */
+    @Override
+    public @NotNull Path getStagingDirectory() {
+        return getDataFolder().toPath().resolve("staging");
+    }
+
+    @Override
+    public @NotNull CompressionPolicy getCompressionPolicy() {
+        return compressionPolicy;
+    }
+
+    @Override
+    public @NotNull ChunkStore getChunkStore() {
+        if (chunkStore == null) {
+            throw new IllegalStateException("The chunk store is not opened.");
+        }
+
+        return chunkStore;
+    }
+
+    @Override
+    public @Nullable ChunkStore getChunkStoreIfOpened() {
+        return chunkStore;
+    }
+
+    @Override
+    public @NotNull ParallelZipWriter createZipWriter(@NotNull Path file) throws IOException {
+        return createZipWriter(file, ioThrottle, JobMetrics.untracked());
+    }
+
+    public @NotNull ParallelZipWriter createZipWriter(@NotNull Path file, @NotNull IoThrottle throttle,
+                                                      @NotNull JobMetrics jobMetrics) throws IOException {
+        return EnvironmentFactory.createZipWriter(this, file, taskContainer.getCompressionExecutor(), throttle, jobMetrics);
+    }
+
+    @Override
+    public @NotNull ArchiveWriter createArchive(@NotNull Path directory, @NotNull IoThrottle throttle,
+                                                @NotNull JobMetrics jobMetrics) throws IOException {
+        return EnvironmentFactory.createArchive(this, directory, taskContainer.getCompressionExecutor(), throttle, jobMetrics);
+    }
+
+    public @NotNull IoThrottle getIoThrottle() {
+        return ioThrottle;
+    }
+
+    /**
+     * Creates the throttle for a single backup task, which pauses the task while the server is under load.
+     */
+    @Override
+    public @NotNull LoadAwareThrottle createTaskThrottle() {
+        return new LoadAwareThrottle(
+                ioThrottle,
+                configuration.get(Settings.PAUSE_ON_LOAD) ? tickMonitor : null,
+                configuration.get(Settings.PAUSE_TICK_DURATION),
+                configuration.get(Settings.PAUSE_MIN_TPS),
+                configuration.get(Settings.PAUSE_MAX_NANOS)
+        );
+    }
+
+    @Override
+    public @NotNull BackupMetrics getMetrics() {
+        return metrics;
+    }
+
+    public @NotNull TickMonitor getTickMonitor() {
+        return tickMonitor;
+    }
+
+    @Override
+    public @NotNull TreeScanner getTreeScanner() {
+        return new TreeScanner(taskContainer.getScanPool());
     }
 
     public @NotNull ExecutorService getCommandExecutor() {
         return commandExecutor;
     }
 
-    private void prepareBackupDirectory() {
-        var backupDirectoryPath = configuration.get(Settings.BACKUP_DIRECTORY);
-
-        if (backupDirectoryPath.isEmpty()) {
-            backupDirectory = getDataFolder().toPath().resolve("backups");
+    private void configureMetrics() {
+        if (configuration.get(Settings.METRICS_JMX)) {
+            metrics.enableJmx();
         } else {
-            backupDirectory = Path.of(backupDirectoryPath);
+            metrics.disableJmx();
+        }
+
+        stopPrometheusEndpoint();
+
+        if (configuration.get(Settings.METRICS_PROMETHEUS)) {
+            int port = configuration.get(Settings.METRICS_PROMETHEUS_PORT);
+
+            try {
+                prometheusEndpoint = PrometheusEndpoint.start(metrics, port);
+                getLogger().info("Serving metrics at http://localhost:" + prometheusEndpoint.getPort() + "/metrics");
+            } catch (IOException e) {
+                getLogger().log(Level.WARNING, "Could not start the metrics endpoint on port " + port, e);
+            }
         }
     }
 
-    private void prepareZipParameters() {
-        zipParameters = new ZipParameters();
-        zipParameters.setCompressionLevel(configuration.get(Settings.COMPRESSION_LEVEL));
+    private void stopPrometheusEndpoint() {
+        if (prometheusEndpoint != null) {
+            prometheusEndpoint.stop();
+            prometheusEndpoint = null;
+        }
+    }
+
+    private void closeChunkStore() {
+        if (chunkStore == null) {
+            return;
+        }
+
+        try {
+            chunkStore.close();
+        } catch (IOException e) {
+            getLogger().log(Level.WARNING, "Could not close the chunk store", e);
+        }
+
+        chunkStore = null;
+    }
+
+    private void closeCatalog() {
+        if (catalog != null) {
+            catalog.close();
+            catalog = null;
+        }
     }
 }
@@ -0,0 +1,15 @@
+package net.okocraft.zipbackup.archive;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+@FunctionalInterface
+public interface ArchiveFactory {
+
+    /**
+     * Creates a new archive named after the current time in the directory.
+     */
+    @NotNull ArchiveWriter create(@NotNull Path directory) throws IOException;
+}
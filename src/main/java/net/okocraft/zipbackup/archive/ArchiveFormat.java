@@ -0,0 +1,91 @@
+package net.okocraft.zipbackup.archive;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import net.jpountz.lz4.LZ4FrameInputStream;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+
+/**
+ * The archive formats that backups can be written in.
+ * <p>
+ * Zip archives are deflated per entry by {@link ParallelZipWriter}. Tar archives are compressed as a whole stream:
+ * zstd is several times faster than deflate at a similar ratio and can use multiple threads, and LZ4 costs
+ * almost no CPU at a lower ratio.
+ */
+public enum ArchiveFormat {
+
+    ZIP("zip", ".zip"),
+    TAR_ZSTD("tar.zst", ".tar.zst"),
+    TAR_LZ4("tar.lz4", ".tar.lz4");
+
+    private final String name;
+    private final String extension;
+
+    ArchiveFormat(@NotNull String name, @NotNull String extension) {
+        this.name = name;
+        this.extension = extension;
+    }
+
+    public static @NotNull ArchiveFormat fromName(@Nullable String name) {
+        if (name != null) {
+            var lowerCase = name.toLowerCase(Locale.ROOT);
+
+            for (var format : values()) {
+                if (format.name.equals(lowerCase) || format.name().equalsIgnoreCase(lowerCase)) {
+                    return format;
+                }
+            }
+        }
+
+        return ZIP;
+    }
+
+    /**
+     * Returns the format of the archive that has the given file name, or {@code null} if it is not an archive.
+     */
+    public static @Nullable ArchiveFormat fromFileName(@NotNull String fileName) {
+        for (var format : values()) {
+            if (fileName.endsWith(format.extension)) {
+                return format;
+            }
+        }
+
+        return null;
+    }
+
+    public static @NotNull String removeExtension(@NotNull String fileName) {
+        var format = fromFileName(fileName);
+        return format != null ? fileName.substring(0, fileName.length() - format.extension.length()) : fileName;
+    }
+
+    public @NotNull String getExtension() {
+        return extension;
+    }
+
+    public boolean isTar() {
+        return this != ZIP;
+    }
+
+    @NotNull OutputStream openCompressor(@NotNull OutputStream out, int level, int workers) throws IOException {
+        return switch (this) {
+            case ZIP -> throw new IllegalStateException("Zip archives are not compressed as a stream");
+            case TAR_ZSTD -> new ZstdOutputStream(out, level).setWorkers(1 < workers ? workers : 0).setChecksum(true);
+            case TAR_LZ4 -> new LZ4FrameOutputStream(out);
+        };
+    }
+
+    @NotNull InputStream openDecompressor(@NotNull InputStream in) throws IOException {
+        return switch (this) {
+            case ZIP -> throw new IllegalStateException("Zip archives are not compressed as a stream");
+            case TAR_ZSTD -> new ZstdInputStream(in);
+            case TAR_LZ4 -> new LZ4FrameInputStream(in);
+        };
+    }
+}
@@ -0,0 +1,282 @@
+package net.okocraft.zipbackup.archive;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A sidecar file next to an archive that lists its entries sorted by name, so that they can be listed and looked up
+ * without reading the archive.
+ * <p>
+ * The file is memory-mapped when it is opened. It consists of a header, fixed-size records sorted by the UTF-8 bytes
+ * of the names, and the names themselves. For tar archives, the offsets are positions in the uncompressed stream.
+ * An index that does not match the size of its archive is ignored.
+ * <p>
+ * The header also holds flags that describe the backup the archive belongs to, so that its kind is known
+ * when the catalog is rebuilt from the backup folder.
+ */
+public final class ArchiveIndex {
+
+    public static final String FILE_SUFFIX = ".idx";
+
+    /**
+     * The flag of an archive that holds the files changed since the base of a differential backup.
+     */
+    public static final int FLAG_DIFFERENTIAL = 1;
+
+    private static final int MAGIC = 0x5A424958; // "ZBIX"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+    private static final int RECORD_SIZE = 48;
+
+    private final ByteBuffer buffer;
+    private final int count;
+    private final int flags;
+    private final int namesOffset;
+
+    private ArchiveIndex(@NotNull ByteBuffer buffer, int count, int flags) {
+        this.buffer = buffer;
+        this.count = count;
+        this.flags = flags;
+        this.namesOffset = HEADER_SIZE + count * RECORD_SIZE;
+    }
+
+    public static @NotNull Path getPath(@NotNull Path archive) {
+        return archive.resolveSibling(archive.getFileName() + FILE_SUFFIX);
+    }
+
+    /**
+     * Opens the index of the archive.
+     *
+     * @return the index, or {@code null} if the archive has no index or it has been written for another archive
+     */
+    public static @Nullable ArchiveIndex open(@NotNull Path archive) throws IOException {
+        MappedByteBuffer buffer;
+
+        try (var channel = FileChannel.open(getPath(archive), StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE || Integer.MAX_VALUE < channel.size()) {
+                return null;
+            }
+
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        int count = buffer.getInt(8);
+
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || count < 0 ||
+                buffer.capacity() < HEADER_SIZE + (long) count * RECORD_SIZE ||
+                buffer.getLong(16) != Files.size(archive)) {
+            return null;
+        }
+
+        return new ArchiveIndex(buffer, count, buffer.getInt(12));
+    }
+
+    /**
+     * Writes the index of an archive that has been written, replacing the previous one.
+     * The temporary file is deleted if the index cannot be written.
+     *
+     * @param flags the flags of the archive, such as {@link #FLAG_DIFFERENTIAL}
+     */
+    public static void write(@NotNull Path archive, @NotNull List<Entry> entries, int flags) throws IOException {
+        var names = new byte[entries.size()][];
+        var sorted = new Integer[entries.size()];
+        int namesSize = 0;
+
+        for (int i = 0; i < names.length; i++) {
+            names[i] = entries.get(i).name().getBytes(StandardCharsets.UTF_8);
+            sorted[i] = i;
+            namesSize += names[i].length;
+        }
+
+        Arrays.sort(sorted, Comparator.comparing(i -> names[i], Arrays::compareUnsigned));
+
+        var buffer = ByteBuffer.allocate(HEADER_SIZE + entries.size() * RECORD_SIZE + namesSize).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(entries.size()).putInt(flags).putLong(Files.size(archive));
+
+        int nameOffset = 0;
+
+        for (int i : sorted) {
+            var entry = entries.get(i);
+
+            buffer.putInt(nameOffset).putInt(names[i].length)
+                    .putLong(entry.offset()).putLong(entry.size()).putLong(entry.compressedSize())
+                    .putLong(entry.lastModified()).putInt((int) entry.crc()).putInt(entry.method());
+
+            nameOffset += names[i].length;
+        }
+
+        for (int i : sorted) {
+            buffer.put(names[i]);
+        }
+
+        var file = getPath(archive);
+        var temporary = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try {
+            try (var channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                buffer.flip();
+
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            try {
+                Files.deleteIfExists(temporary);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+
+            throw e;
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public @NotNull Entry get(int index) {
+        int position = HEADER_SIZE + index * RECORD_SIZE;
+
+        return new Entry(
+                getName(index),
+                buffer.getInt(position + 44),
+                Integer.toUnsignedLong(buffer.getInt(position + 40)),
+                buffer.getLong(position + 16),
+                buffer.getLong(position + 24),
+                buffer.getLong(position + 32),
+                buffer.getLong(position + 8)
+        );
+    }
+
+    /**
+     * Returns the entries sorted by name, which are read from the index as they are accessed.
+     */
+    public @NotNull List<Entry> getEntries() {
+        return new AbstractList<>() {
+            @Override
+            public Entry get(int index) {
+                return ArchiveIndex.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return count;
+            }
+        };
+    }
+
+    public @Nullable Entry find(@NotNull String name) {
+        var key = name.getBytes(StandardCharsets.UTF_8);
+        int index = lowerBound(key);
+
+        return index < count && compareName(index, key) == 0 ? get(index) : null;
+    }
+
+    /**
+     * Returns the files and directories right under the prefix, such as {@code region/} for {@code re}
+     * and {@code region/r.0.0.mca} for {@code region/}.
+     */
+    public @NotNull List<String> listChildren(@NotNull String prefix, int limit) {
+        var result = new ArrayList<String>();
+        var key = prefix.getBytes(StandardCharsets.UTF_8);
+
+        for (int index = lowerBound(key); index < count && result.size() < limit; index++) {
+            var name = getName(index);
+
+            if (!name.startsWith(prefix)) {
+                break;
+            }
+
+            int slash = name.indexOf('/', prefix.length());
+            var child = slash == -1 ? name : name.substring(0, slash + 1);
+
+            if (result.isEmpty() || !result.get(result.size() - 1).equals(child)) {
+                result.add(child);
+            }
+        }
+
+        return result;
+    }
+
+    private int lowerBound(byte @NotNull [] key) {
+        int low = 0;
+        int high = count;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+
+            if (compareName(middle, key) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    private int compareName(int index, byte @NotNull [] key) {
+        int position = HEADER_SIZE + index * RECORD_SIZE;
+        int offset = namesOffset + buffer.getInt(position);
+        int length = buffer.getInt(position + 4);
+
+        for (int i = 0; i < Math.min(length, key.length); i++) {
+            int result = Byte.compareUnsigned(buffer.get(offset + i), key[i]);
+
+            if (result != 0) {
+                return result;
+            }
+        }
+
+        return Integer.compare(length, key.length);
+    }
+
+    private @NotNull String getName(int index) {
+        int position = HEADER_SIZE + index * RECORD_SIZE;
+        var name = new byte[buffer.getInt(position + 4)];
+
+        buffer.get(namesOffset + buffer.getInt(position), name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * An entry of an archive.
+     *
+     * @param method         the compression method of a zip entry, which is always stored for tar entries
+     * @param crc            the CRC-32 of the uncompressed data
+     * @param compressedSize the size of the data in the archive
+     * @param lastModified   the modification time in epoch milliseconds
+     * @param offset         the position of the header of the entry
+     */
+    public record Entry(@NotNull String name, int method, long crc, long size, long compressedSize,
+                        long lastModified, long offset) {
+    }
+}
@@ -0,0 +1,45 @@
+package net.okocraft.zipbackup.archive;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.logging.Logger;
+
+/**
+ * Writes files to a single archive. Implementations are not thread-safe.
+ */
+public interface ArchiveWriter extends Closeable {
+
+    /**
+     * The suffix of the file that an archive is written to until it is complete.
+     */
+    String TEMPORARY_SUFFIX = ".part";
+
+    /**
+     * Returns the file that the archive is moved to when the writer is closed.
+     */
+    @NotNull Path getFile();
+
+    /**
+     * Makes the writer write an {@link ArchiveIndex} next to the archive when it is closed.
+     * The archive can be used without its index, so an index that cannot be written is only logged.
+     *
+     * @param flags the flags of the index, such as {@link ArchiveIndex#FLAG_DIFFERENTIAL}
+     */
+    void enableIndex(@NotNull Logger logger, int flags);
+
+    void addFile(@NotNull Path file, @NotNull Path relative, @NotNull BasicFileAttributes attributes) throws IOException;
+
+    void addBytes(@NotNull Path relative, byte @NotNull [] data, long lastModified) throws IOException;
+
+    void addStream(@NotNull Path relative, long lastModified, long size, @NotNull InputStream in) throws IOException;
+
+    /**
+     * Stops writing and deletes the archive, used when the backup has failed. Closing the writer afterwards does nothing.
+     */
+    void abort() throws IOException;
+}
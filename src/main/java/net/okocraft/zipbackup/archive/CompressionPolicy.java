@@ -0,0 +1,100 @@
+package net.okocraft.zipbackup.archive;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Decides the deflate level for each file: by its extension first, then by sampling its content
+ * so that already-compressed data (region files, images, archives) is stored instead of deflated.
+ */
+public final class CompressionPolicy {
+
+    public static final int STORE = 0;
+
+    private static final int SAMPLE_SIZE = 4096;
+    private static final int SAMPLE_COUNT = 3;
+    private static final double INCOMPRESSIBLE_ENTROPY = 7.5;
+
+    private final int defaultLevel;
+    private final Map<String, Integer> levelsByExtension;
+    private final boolean detectIncompressible;
+
+    public CompressionPolicy(int defaultLevel, @NotNull Map<String, Integer> levelsByExtension, boolean detectIncompressible) {
+        this.defaultLevel = defaultLevel;
+        this.levelsByExtension = Map.copyOf(levelsByExtension);
+        this.detectIncompressible = detectIncompressible;
+    }
+
+    public int selectLevel(@NotNull Path file, long size) throws IOException {
+        var level = levelByExtension(file.getFileName().toString());
+
+        if (level != null) {
+            return level;
+        }
+
+        if (defaultLevel != STORE && detectIncompressible && SAMPLE_SIZE * 2 <= size && isIncompressible(file, size)) {
+            return STORE;
+        }
+
+        return defaultLevel;
+    }
+
+    public int selectLevel(@NotNull String name) {
+        var level = levelByExtension(name);
+        return level != null ? level : defaultLevel;
+    }
+
+    private @Nullable Integer levelByExtension(@NotNull String name) {
+        int dot = name.lastIndexOf('.');
+        return dot != -1 ? levelsByExtension.get(name.substring(dot + 1).toLowerCase(Locale.ROOT)) : null;
+    }
+
+    private static boolean isIncompressible(@NotNull Path file, long size) throws IOException {
+        var histogram = new int[256];
+        var sample = ByteBuffer.allocate(SAMPLE_SIZE);
+        long total = 0;
+
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // samples are taken from the middle of the file to skip headers such as the region location table
+            for (int i = 1; i <= SAMPLE_COUNT; i++) {
+                long offset = Math.min(size * i / (SAMPLE_COUNT + 1), size - SAMPLE_SIZE);
+
+                sample.clear();
+
+                int read;
+                do {
+                    read = channel.read(sample, offset + sample.position());
+                } while (0 < read && sample.hasRemaining());
+
+                for (int j = 0; j < sample.position(); j++) {
+                    histogram[sample.get(j) & 0xFF]++;
+                }
+
+                total += sample.position();
+            }
+        }
+
+        return total != 0 && INCOMPRESSIBLE_ENTROPY <= entropy(histogram, total);
+    }
+
+    private static double entropy(int[] histogram, long total) {
+        double entropy = 0;
+
+        for (int count : histogram) {
+            if (count != 0) {
+                double p = (double) count / total;
+                entropy -= p * Math.log(p);
+            }
+        }
+
+        return entropy / Math.log(2);
+    }
+}
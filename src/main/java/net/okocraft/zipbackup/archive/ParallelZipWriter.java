@@ -0,0 +1,340 @@
+package net.okocraft.zipbackup.archive;
+
+import net.okocraft.zipbackup.metrics.JobMetrics;
+import net.okocraft.zipbackup.throttle.IoThrottle;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Deflates files on the given executor and writes them to a single zip archive in the order they were added.
+ * <p>
+ * At most {@code parallelism * 2} entries are prepared ahead of the writer. Stored files are only checksummed
+ * by the workers and then transferred into the archive without being copied through the heap, and are written
+ * again if they are modified in between. Files that are too large to be deflated in memory are streamed
+ * by the calling thread once all preceding entries have been written.
+ */
+public final class ParallelZipWriter implements ArchiveWriter {
+
+    private static final long IN_MEMORY_LIMIT = 32L * 1024 * 1024;
+    private static final long PENDING_BYTES_LIMIT = 256L * 1024 * 1024;
+    private static final long CRC_MAPPING_SIZE = 256L * 1024 * 1024;
+    // entries that may grow past 4 GiB while being streamed get a zip64 extra field up front
+    private static final long ZIP64_RESERVE_THRESHOLD = 0x7FFFFFFFL;
+
+    private final Path file;
+    private final ZipArchiveWriter writer;
+    private final CompressionPolicy policy;
+    private final Executor executor;
+    private final IoThrottle throttle;
+    private final JobMetrics metrics;
+    private final int maxPendingEntries;
+    private final Deque<PendingEntry> pending = new ArrayDeque<>();
+    private long pendingBytes;
+
+    public ParallelZipWriter(@NotNull Path file, @NotNull CompressionPolicy policy,
+                             @NotNull Executor executor, int parallelism) throws IOException {
+        this(file, policy, executor, parallelism, IoThrottle.UNLIMITED, JobMetrics.untracked());
+    }
+
+    public ParallelZipWriter(@NotNull Path file, @NotNull CompressionPolicy policy,
+                             @NotNull Executor executor, int parallelism,
+                             @NotNull IoThrottle throttle, @NotNull JobMetrics metrics) throws IOException {
+        this.file = file;
+        this.writer = new ZipArchiveWriter(file);
+        this.policy = policy;
+        this.executor = executor;
+        this.throttle = throttle;
+        this.metrics = metrics;
+        this.maxPendingEntries = Math.max(1, parallelism) * 2;
+    }
+
+    @Override
+    public @NotNull Path getFile() {
+        return file;
+    }
+
+    @Override
+    public void enableIndex(@NotNull Logger logger, int flags) {
+        writer.enableIndex(logger, flags);
+    }
+
+    public void addFile(@NotNull Path file, @NotNull Path relative) throws IOException {
+        addFile(file, relative, Files.readAttributes(file, BasicFileAttributes.class));
+    }
+
+    @Override
+    public void addFile(@NotNull Path file, @NotNull Path relative, @NotNull BasicFileAttributes attributes) throws IOException {
+        var name = ZipArchiveWriter.toEntryName(relative);
+        long size = attributes.size();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        int level = policy.selectLevel(file, size);
+
+        if (level != CompressionPolicy.STORE && IN_MEMORY_LIMIT < size) {
+            writePendingEntries(0);
+
+            try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                writeStream(name, lastModified, level, throttleReadWrite(channel), size);
+            }
+            return;
+        }
+
+        long bufferedBytes = level == CompressionPolicy.STORE ? 0 : size;
+
+        writePendingEntries(maxPendingEntries - 1);
+
+        while (!pending.isEmpty() && PENDING_BYTES_LIMIT < pendingBytes + bufferedBytes) {
+            writeNextEntry();
+        }
+
+        CompletableFuture<PreparedEntry> future =
+                level == CompressionPolicy.STORE ?
+                        CompletableFuture.supplyAsync(() -> checksum(file, name, lastModified), executor) :
+                        CompletableFuture.supplyAsync(() -> compress(file, name, lastModified, level), executor);
+
+        pending.add(new PendingEntry(future, bufferedBytes));
+        pendingBytes += bufferedBytes;
+    }
+
+    @Override
+    public void addBytes(@NotNull Path relative, byte @NotNull [] data, long lastModified) throws IOException {
+        var crc = new CRC32();
+        crc.update(data);
+
+        var entry = new ZipArchiveWriter.EntryData(
+                ZipArchiveWriter.toEntryName(relative), ZipArchiveWriter.METHOD_STORED,
+                crc.getValue(), data.length, lastModified, ByteBuffer.wrap(data)
+        );
+
+        writePendingEntries(maxPendingEntries - 1);
+        throttle.acquireWrite(data.length);
+        metrics.recordCompressed(data.length, data.length);
+        pending.add(new PendingEntry(CompletableFuture.completedFuture(zip -> zip.writeEntry(entry)), 0));
+    }
+
+    @Override
+    public void addStream(@NotNull Path relative, long lastModified, long size, @NotNull InputStream in) throws IOException {
+        var name = ZipArchiveWriter.toEntryName(relative);
+
+        writePendingEntries(0);
+        writeStream(name, lastModified, policy.selectLevel(name), throttleReadWrite(Channels.newChannel(in)), size);
+    }
+
+    /**
+     * Copies the entry from the source archive without inflating and deflating it again,
+     * keeping its name, compression method and checksum.
+     */
+    public void copyEntry(@NotNull ZipArchiveReader source, @NotNull ZipArchiveReader.Entry entry) throws IOException {
+        long dataOffset = source.getDataOffset(entry);
+
+        writePendingEntries(0);
+        throttle.acquireRead(entry.compressedSize());
+        throttle.acquireWrite(entry.compressedSize());
+
+        long start = System.nanoTime();
+
+        writer.writeRawEntry(
+                entry.name(), entry.method(), entry.crc(), entry.size(), entry.compressedSize(), entry.lastModified(),
+                source.getChannel(), dataOffset
+        );
+
+        metrics.addTime(JobMetrics.Stage.WRITE, System.nanoTime() - start);
+        metrics.recordCompressed(entry.size(), entry.compressedSize());
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (writer) {
+            writePendingEntries(0);
+        } finally {
+            pending.forEach(entry -> entry.future().cancel(false));
+            pending.clear();
+        }
+    }
+
+    @Override
+    public void abort() throws IOException {
+        pending.forEach(entry -> entry.future().cancel(false));
+        pending.clear();
+        writer.abort();
+    }
+
+    // streamed entries are compressed while they are written, so the whole time is counted as compression
+    private void writeStream(@NotNull String name, long lastModified, int level,
+                             @NotNull ReadableByteChannel channel, long size) throws IOException {
+        long start = System.nanoTime();
+        long compressedSize = writer.writeStream(name, lastModified, level, channel, ZIP64_RESERVE_THRESHOLD <= size);
+
+        metrics.addTime(JobMetrics.Stage.COMPRESS, System.nanoTime() - start);
+        metrics.recordCompressed(size, compressedSize);
+    }
+
+    private void writePendingEntries(int remaining) throws IOException {
+        while (remaining < pending.size()) {
+            writeNextEntry();
+        }
+    }
+
+    private void writeNextEntry() throws IOException {
+        var next = pending.removeFirst();
+        pendingBytes -= next.bufferedBytes();
+
+        try {
+            var entry = next.future().get();
+            long start = System.nanoTime();
+
+            entry.writeTo(writer);
+            metrics.addTime(JobMetrics.Stage.WRITE, System.nanoTime() - start);
+        } catch (InterruptedException e) {
+            writer.markFailed();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing files");
+        } catch (ExecutionException e) {
+            writer.markFailed();
+
+            if (e.getCause() instanceof UncheckedIOException uncheckedIOException) {
+                throw uncheckedIOException.getCause();
+            }
+            throw new IOException("Could not compress the file", e.getCause());
+        }
+    }
+
+    private @NotNull PreparedEntry checksum(@NotNull Path file, @NotNull String name, long lastModified) {
+        long start = System.nanoTime();
+
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            var crc = new CRC32();
+
+            throttle.acquireRead(size);
+
+            for (long offset = 0; offset < size; offset += CRC_MAPPING_SIZE) {
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(CRC_MAPPING_SIZE, size - offset)));
+            }
+
+            long value = crc.getValue();
+
+            metrics.addTime(JobMetrics.Stage.COMPRESS, System.nanoTime() - start);
+            metrics.recordCompressed(size, size);
+
+            throttle.acquireWrite(size);
+            return zip -> zip.writeStoredFile(name, file, value, size, lastModified);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private @NotNull PreparedEntry compress(@NotNull Path file, @NotNull String name, long lastModified, int level) {
+        byte[] data;
+
+        try {
+            throttle.acquireRead(Files.size(file));
+            data = Files.readAllBytes(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        long start = System.nanoTime();
+
+        var crc = new CRC32();
+        crc.update(data);
+
+        var deflated = deflate(data, level);
+        var entry =
+                deflated.remaining() < data.length ?
+                        new ZipArchiveWriter.EntryData(name, ZipArchiveWriter.METHOD_DEFLATED, crc.getValue(), data.length, lastModified, deflated) :
+                        new ZipArchiveWriter.EntryData(name, ZipArchiveWriter.METHOD_STORED, crc.getValue(), data.length, lastModified, ByteBuffer.wrap(data));
+
+        metrics.addTime(JobMetrics.Stage.COMPRESS, System.nanoTime() - start);
+        metrics.recordCompressed(data.length, entry.compressedData().remaining());
+
+        try {
+            throttle.acquireWrite(entry.compressedData().remaining());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return zip -> zip.writeEntry(entry);
+    }
+
+    // streamed entries are written while they are read, so their output is counted as the size of the input
+    private @NotNull ReadableByteChannel throttleReadWrite(@NotNull ReadableByteChannel channel) {
+        if (throttle == IoThrottle.UNLIMITED) {
+            return channel;
+        }
+
+        return new ReadableByteChannel() {
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                int read = channel.read(dst);
+
+                if (0 < read) {
+                    throttle.acquireRead(read);
+                    throttle.acquireWrite(read);
+                }
+
+                return read;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return channel.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+
+    private static @NotNull ByteBuffer deflate(byte[] data, int level) {
+        var deflater = new Deflater(level, true);
+        var output = new byte[Math.max(64, data.length / 2)];
+        int length = 0;
+
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+
+            while (!deflater.finished()) {
+                if (length == output.length) {
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+                length += deflater.deflate(output, length, output.length - length);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        return ByteBuffer.wrap(output, 0, length);
+    }
+
+    @FunctionalInterface
+    private interface PreparedEntry {
+        void writeTo(@NotNull ZipArchiveWriter writer) throws IOException;
+    }
+
+    private record PendingEntry(@NotNull CompletableFuture<PreparedEntry> future, long bufferedBytes) {
+    }
+}
@@ -0,0 +1,234 @@
+package net.okocraft.zipbackup.archive;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.zip.ZipException;
+
+/**
+ * Reads and extracts the tar archives written by {@link TarArchiveWriter}.
+ */
+public final class TarArchiveReader {
+
+    private static final int BLOCK_SIZE = TarArchiveWriter.BLOCK_SIZE;
+
+    /**
+     * Receives the files of an archive in the order they have been written.
+     */
+    @FunctionalInterface
+    public interface EntryHandler {
+
+        /**
+         * @param in the content of the entry, which is only readable until this method returns
+         */
+        void handle(@NotNull String name, long lastModified, long size, @NotNull InputStream in) throws IOException;
+    }
+
+    public static void extract(@NotNull Path archive, @NotNull ArchiveFormat format, @NotNull Path targetDir) throws IOException {
+        var root = targetDir.toAbsolutePath().normalize();
+
+        read(archive, format, (name, lastModified, size, in) -> {
+            var target = root.resolve(name).normalize();
+
+            if (!target.startsWith(root)) {
+                throw new ZipException("Illegal entry name: " + name);
+            }
+
+            Files.createDirectories(target.getParent());
+            Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+            Files.setLastModifiedTime(target, FileTime.fromMillis(lastModified));
+        });
+    }
+
+    /**
+     * Streams the regular files of the archive to the handler without extracting them.
+     */
+    public static void read(@NotNull Path archive, @NotNull ArchiveFormat format, @NotNull EntryHandler handler) throws IOException {
+        try (var in = new BufferedInputStream(format.openDecompressor(new BufferedInputStream(Files.newInputStream(archive))))) {
+            String paxPath = null;
+            long paxSize = -1;
+
+            while (true) {
+                var header = in.readNBytes(BLOCK_SIZE);
+
+                if (header.length < BLOCK_SIZE) {
+                    throw new ZipException("Unexpected end of archive: " + archive);
+                }
+
+                if (isZeroBlock(header)) {
+                    return;
+                }
+
+                long size = paxSize != -1 ? paxSize : parseOctal(header, 124, 12);
+                byte type = header[156];
+
+                if (type == 'x') {
+                    var records = new String(readFully(in, size), StandardCharsets.UTF_8);
+                    paxPath = readPaxRecord(records, "path");
+                    var sizeRecord = readPaxRecord(records, "size");
+                    paxSize = sizeRecord != null ? Long.parseLong(sizeRecord) : -1;
+                    skipPadding(in, size);
+                    continue;
+                }
+
+                var name = paxPath != null ? paxPath : parseName(header);
+                paxPath = null;
+                paxSize = -1;
+
+                if (type == '0' || type == 0) {
+                    var entry = new BoundedInputStream(in, size);
+                    handler.handle(name, parseOctal(header, 136, 12) * 1000, size, entry);
+                    // the handler may leave a part of the entry unread
+                    entry.skipNBytes(entry.remaining);
+                } else {
+                    in.skipNBytes(size);
+                }
+
+                skipPadding(in, size);
+            }
+        }
+    }
+
+    private static boolean isZeroBlock(byte @NotNull [] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static @NotNull String parseName(byte @NotNull [] header) {
+        var name = parseString(header, 0, 100);
+        var prefix = parseString(header, 345, 155);
+        return prefix.isEmpty() ? name : prefix + "/" + name;
+    }
+
+    private static @NotNull String parseString(byte @NotNull [] header, int offset, int length) {
+        int end = offset;
+
+        while (end < offset + length && header[end] != 0) {
+            end++;
+        }
+
+        return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static long parseOctal(byte @NotNull [] header, int offset, int length) throws ZipException {
+        long value = 0;
+
+        for (int i = offset; i < offset + length; i++) {
+            byte b = header[i];
+
+            if (b == 0 || b == ' ') {
+                if (value != 0) {
+                    break;
+                }
+                continue;
+            }
+
+            if (b < '0' || '7' < b) {
+                throw new ZipException("Invalid tar header");
+            }
+
+            value = value * 8 + (b - '0');
+        }
+
+        return value;
+    }
+
+    private static @Nullable String readPaxRecord(@NotNull String records, @NotNull String key) {
+        for (var record : records.split("\n")) {
+            int space = record.indexOf(' ');
+            int equals = record.indexOf('=', space + 1);
+
+            if (space != -1 && equals != -1 && record.substring(space + 1, equals).equals(key)) {
+                return record.substring(equals + 1);
+            }
+        }
+
+        return null;
+    }
+
+    private static byte @NotNull [] readFully(@NotNull InputStream in, long size) throws IOException {
+        if (Integer.MAX_VALUE < size) {
+            throw new ZipException("Too large pax header");
+        }
+
+        var data = in.readNBytes((int) size);
+
+        if (data.length != size) {
+            throw new ZipException("Unexpected end of archive");
+        }
+
+        return data;
+    }
+
+    private static void skipPadding(@NotNull InputStream in, long size) throws IOException {
+        int remainder = (int) (size % BLOCK_SIZE);
+
+        if (remainder != 0) {
+            in.skipNBytes(BLOCK_SIZE - remainder);
+        }
+    }
+
+    private static final class BoundedInputStream extends InputStream {
+
+        private final InputStream in;
+        private long remaining;
+
+        private BoundedInputStream(@NotNull InputStream in, long size) {
+            this.in = in;
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+
+            int b = in.read();
+
+            if (b == -1) {
+                throw new ZipException("Unexpected end of archive");
+            }
+
+            remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte @NotNull [] b, int off, int len) throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+
+            int read = in.read(b, off, (int) Math.min(len, remaining));
+
+            if (read == -1) {
+                throw new ZipException("Unexpected end of archive");
+            }
+
+            remaining -= read;
+            return read;
+        }
+
+        @Override
+        public void close() {
+            // the archive stream is closed by the reader
+        }
+    }
+
+    private TarArchiveReader() {
+        throw new UnsupportedOperationException();
+    }
+}
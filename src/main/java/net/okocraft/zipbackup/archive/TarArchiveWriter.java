@@ -0,0 +1,357 @@
+package net.okocraft.zipbackup.archive;
+
+import net.okocraft.zipbackup.metrics.JobMetrics;
+import net.okocraft.zipbackup.throttle.IoThrottle;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Writes a POSIX tar archive through the compressor of the given {@link ArchiveFormat}.
+ * <p>
+ * Names longer than the ustar name field and entries of 8 GiB or more are described by a pax extended header.
+ * The archive is written to a temporary file that is renamed once the end of the archive has been written.
+ */
+public final class TarArchiveWriter implements ArchiveWriter {
+
+    static final int BLOCK_SIZE = 512;
+
+    private static final int NAME_LENGTH = 100;
+    private static final long MAX_USTAR_SIZE = 077777777777L;
+    private static final byte TYPE_FILE = '0';
+    private static final byte TYPE_PAX = 'x';
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path file;
+    private final Path temporary;
+    private final OutputStream out;
+    private final IoThrottle throttle;
+    private final JobMetrics metrics;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private long uncompressedSize;
+    private long compressedSize;
+    private long position;
+    private boolean closed;
+    private boolean failed;
+    private @Nullable List<ArchiveIndex.Entry> indexEntries;
+    private @Nullable CRC32 crc;
+    private @Nullable Logger indexLogger;
+    private int indexFlags;
+
+    public TarArchiveWriter(@NotNull Path file, @NotNull ArchiveFormat format, int level, int workers,
+                            @NotNull IoThrottle throttle, @NotNull JobMetrics metrics) throws IOException {
+        if (!format.isTar()) {
+            throw new IllegalArgumentException(format + " is not a tar format");
+        }
+
+        this.file = file;
+        this.temporary = file.resolveSibling(file.getFileName() + TEMPORARY_SUFFIX);
+        this.throttle = throttle;
+        this.metrics = metrics;
+
+        var fileOut = Files.newOutputStream(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+
+        try {
+            // the limit applies to the compressed bytes that reach the disk
+            var throttledOut = new FilterOutputStream(fileOut) {
+                @Override
+                public void write(byte @NotNull [] b, int off, int len) throws IOException {
+                    throttle.acquireWrite(len);
+                    compressedSize += len;
+                    out.write(b, off, len);
+                }
+            };
+            this.out = new BufferedOutputStream(format.openCompressor(throttledOut, level, workers), BUFFER_SIZE);
+        } catch (IOException | RuntimeException e) {
+            fileOut.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public @NotNull Path getFile() {
+        return file;
+    }
+
+    @Override
+    public void enableIndex(@NotNull Logger logger, int flags) {
+        indexEntries = new ArrayList<>();
+        crc = new CRC32();
+        indexLogger = logger;
+        indexFlags = flags;
+    }
+
+    // the compressor writes to the file while it compresses, so the time of each entry is counted as compression
+    @Override
+    public void addFile(@NotNull Path file, @NotNull Path relative, @NotNull BasicFileAttributes attributes) throws IOException {
+        long start = System.nanoTime();
+        long size = attributes.size();
+        var name = ZipArchiveWriter.toEntryName(relative);
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        long offset = position;
+
+        // the file is opened first, so that a file that has been deleted does not leave a header without its data
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            writeHeader(name, size, lastModified);
+
+            var wrapped = ByteBuffer.wrap(buffer);
+            long remaining = size;
+            boolean truncated = false;
+
+            while (0 < remaining) {
+                wrapped.clear().limit((int) Math.min(BUFFER_SIZE, remaining));
+
+                int read = channel.read(wrapped);
+
+                if (read == -1) {
+                    // the file has been truncated while it was read; the size in the header cannot be changed anymore
+                    if (!truncated) {
+                        truncated = true;
+                        metrics.recordTruncated(file);
+                    }
+
+                    Arrays.fill(buffer, 0, wrapped.limit(), (byte) 0);
+                    read = wrapped.limit();
+                } else {
+                    throttle.acquireRead(read);
+                }
+
+                write(buffer, 0, read);
+                remaining -= read;
+            }
+
+            writePadding(size);
+        } catch (Throwable e) {
+            failed = true;
+            throw e;
+        }
+
+        recordEntry(name, size, lastModified, offset, start);
+    }
+
+    @Override
+    public void addBytes(@NotNull Path relative, byte @NotNull [] data, long lastModified) throws IOException {
+        long start = System.nanoTime();
+        var name = ZipArchiveWriter.toEntryName(relative);
+        long offset = position;
+
+        try {
+            writeHeader(name, data.length, lastModified);
+            write(data, 0, data.length);
+            writePadding(data.length);
+        } catch (Throwable e) {
+            failed = true;
+            throw e;
+        }
+
+        recordEntry(name, data.length, lastModified, offset, start);
+    }
+
+    @Override
+    public void addStream(@NotNull Path relative, long lastModified, long size, @NotNull InputStream in) throws IOException {
+        long start = System.nanoTime();
+        var name = ZipArchiveWriter.toEntryName(relative);
+        long offset = position;
+
+        try {
+            writeHeader(name, size, lastModified);
+
+            long remaining = size;
+
+            while (0 < remaining) {
+                int read = in.read(buffer, 0, (int) Math.min(BUFFER_SIZE, remaining));
+
+                if (read == -1) {
+                    throw new IOException("Unexpected end of stream: " + relative);
+                }
+
+                write(buffer, 0, read);
+                remaining -= read;
+            }
+
+            writePadding(size);
+        } catch (Throwable e) {
+            failed = true;
+            throw e;
+        }
+
+        recordEntry(name, size, lastModified, offset, start);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+
+        // the archive would look complete but miss the rest of the entries
+        if (failed) {
+            try {
+                out.close();
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+            return;
+        }
+
+        try {
+            try (out) {
+                // end of archive: two zero blocks
+                out.write(new byte[BLOCK_SIZE * 2]);
+            }
+
+            // an archive left by a crash keeps the temporary name, so it is never taken for a backup
+            Files.move(temporary, file);
+        } catch (Throwable e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+
+        // the compressed size is only known once the compressor has been flushed
+        metrics.recordCompressed(uncompressedSize, compressedSize);
+
+        if (indexEntries != null && indexLogger != null) {
+            try {
+                ArchiveIndex.write(file, indexEntries, indexFlags);
+            } catch (IOException e) {
+                indexLogger.log(Level.WARNING, "Could not write the index of " + file.toAbsolutePath(), e);
+            }
+        }
+    }
+
+    @Override
+    public void abort() throws IOException {
+        failed = true;
+        close();
+    }
+
+    private void recordEntry(@NotNull String name, long size, long lastModified, long offset, long start) {
+        uncompressedSize += size;
+        metrics.addTime(JobMetrics.Stage.COMPRESS, System.nanoTime() - start);
+
+        if (indexEntries != null && crc != null) {
+            indexEntries.add(new ArchiveIndex.Entry(name, ZipArchiveWriter.METHOD_STORED, crc.getValue(), size, size, lastModified, offset));
+            crc.reset();
+        }
+    }
+
+    // writes the data of an entry
+    private void write(byte @NotNull [] data, int offset, int length) throws IOException {
+        out.write(data, offset, length);
+        position += length;
+
+        if (crc != null) {
+            crc.update(data, offset, length);
+        }
+    }
+
+    private void writeHeader(@NotNull String name, long size, long lastModified) throws IOException {
+        var nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        boolean longName = NAME_LENGTH < nameBytes.length;
+        boolean largeFile = MAX_USTAR_SIZE < size;
+
+        if (longName || largeFile) {
+            var pax = new StringBuilder();
+
+            if (longName) {
+                appendPaxRecord(pax, "path", name);
+            }
+
+            if (largeFile) {
+                appendPaxRecord(pax, "size", Long.toString(size));
+            }
+
+            var paxBytes = pax.toString().getBytes(StandardCharsets.UTF_8);
+            out.write(createHeader(Arrays.copyOf(nameBytes, Math.min(nameBytes.length, NAME_LENGTH)), paxBytes.length, lastModified, TYPE_PAX));
+            out.write(paxBytes);
+            position += BLOCK_SIZE + paxBytes.length;
+            writePadding(paxBytes.length);
+        }
+
+        out.write(createHeader(Arrays.copyOf(nameBytes, Math.min(nameBytes.length, NAME_LENGTH)), largeFile ? 0 : size, lastModified, TYPE_FILE));
+        position += BLOCK_SIZE;
+    }
+
+    private static byte @NotNull [] createHeader(byte @NotNull [] name, long size, long lastModified, byte type) {
+        var header = new byte[BLOCK_SIZE];
+
+        System.arraycopy(name, 0, header, 0, name.length);
+        writeOctal(header, 100, 8, 0644);
+        writeOctal(header, 108, 8, 0);
+        writeOctal(header, 116, 8, 0);
+        writeOctal(header, 124, 12, size);
+        writeOctal(header, 136, 12, Math.max(0, lastModified / 1000));
+        header[156] = type;
+        System.arraycopy("ustar\0".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 6);
+        header[263] = '0';
+        header[264] = '0';
+
+        // the checksum is computed with the checksum field filled with spaces
+        Arrays.fill(header, 148, 156, (byte) ' ');
+
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xFF;
+        }
+
+        writeOctal(header, 148, 7, checksum);
+        header[155] = ' ';
+
+        return header;
+    }
+
+    private static void writeOctal(byte @NotNull [] header, int offset, int length, long value) {
+        // length - 1 digits followed by NUL
+        var digits = Long.toOctalString(value);
+        int padding = length - 1 - digits.length();
+
+        Arrays.fill(header, offset, offset + padding, (byte) '0');
+
+        for (int i = 0; i < digits.length(); i++) {
+            header[offset + padding + i] = (byte) digits.charAt(i);
+        }
+
+        header[offset + length - 1] = 0;
+    }
+
+    private static void appendPaxRecord(@NotNull StringBuilder builder, @NotNull String key, @NotNull String value) {
+        // "<length> <key>=<value>\n" where the length includes its own digits
+        int contentLength = 1 + key.getBytes(StandardCharsets.UTF_8).length + 1 + value.getBytes(StandardCharsets.UTF_8).length + 1;
+        int length = contentLength + Integer.toString(contentLength).length();
+
+        if (Integer.toString(length).length() != Integer.toString(contentLength).length()) {
+            length = contentLength + Integer.toString(length).length();
+        }
+
+        builder.append(length).append(' ').append(key).append('=').append(value).append('\n');
+    }
+
+    private void writePadding(long size) throws IOException {
+        int remainder = (int) (size % BLOCK_SIZE);
+
+        if (remainder != 0) {
+            out.write(new byte[BLOCK_SIZE - remainder]);
+            position += BLOCK_SIZE - remainder;
+        }
+    }
+}
@@ -0,0 +1,375 @@
+package net.okocraft.zipbackup.archive;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the central directory of a zip archive and gives access to the data of its entries.
+ * <p>
+ * If the archive has an {@link ArchiveIndex}, the entries are looked up in it instead of the central directory.
+ * Entries are read with positional reads, so that their streams can be used from several threads at once.
+ * Their compressed data can also be copied into another archive as is by {@link ParallelZipWriter#copyEntry}.
+ */
+public final class ZipArchiveReader implements Closeable {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final int FLAG_ENCRYPTED = 1;
+
+    private static final long ZIP32_LIMIT = 0xFFFFFFFFL;
+    private static final int ZIP16_LIMIT = 0xFFFF;
+    private static final int END_SIZE = 22;
+    private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final @Nullable ArchiveIndex index;
+    private final List<Entry> entries;
+
+    private ZipArchiveReader(@NotNull Path file, @NotNull FileChannel channel,
+                             @Nullable ArchiveIndex index, @NotNull List<Entry> entries) {
+        this.file = file;
+        this.channel = channel;
+        this.index = index;
+        this.entries = entries;
+    }
+
+    public static @NotNull ZipArchiveReader open(@NotNull Path file) throws IOException {
+        var channel = FileChannel.open(file, StandardOpenOption.READ);
+
+        try {
+            var index = ArchiveIndex.open(file);
+
+            if (index == null) {
+                return new ZipArchiveReader(file, channel, null, readCentralDirectory(file, channel));
+            }
+
+            var entries = new AbstractList<Entry>() {
+                @Override
+                public Entry get(int i) {
+                    return fromIndex(index.get(i));
+                }
+
+                @Override
+                public int size() {
+                    return index.size();
+                }
+            };
+
+            return new ZipArchiveReader(file, channel, index, entries);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public @NotNull Path getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the entries sorted by name if they are read from the index, or in the order of the central directory.
+     */
+    public @NotNull List<Entry> getEntries() {
+        return entries;
+    }
+
+    public @Nullable Entry find(@NotNull String name) {
+        if (index != null) {
+            var entry = index.find(name);
+            return entry != null ? fromIndex(entry) : null;
+        }
+
+        for (var entry : entries) {
+            if (entry.name().equals(name)) {
+                return entry;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Opens a stream that inflates the data of the entry.
+     */
+    public @NotNull InputStream openStream(@NotNull Entry entry) throws IOException {
+        var raw = new ChannelInputStream(channel, getDataOffset(entry), entry.compressedSize());
+
+        return switch (entry.method()) {
+            case ZipArchiveWriter.METHOD_STORED -> raw;
+            case ZipArchiveWriter.METHOD_DEFLATED -> new EntryInflaterInputStream(raw);
+            default -> throw new ZipException("Unsupported compression method " + entry.method() + ": " + entry.name());
+        };
+    }
+
+    @NotNull FileChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Returns the position of the compressed data of the entry, which depends on the extra field of its local header.
+     */
+    long getDataOffset(@NotNull Entry entry) throws IOException {
+        if ((entry.flags() & FLAG_ENCRYPTED) != 0) {
+            throw new ZipException("Encrypted entries are not supported: " + entry.name());
+        }
+
+        var header = ByteBuffer.allocate(30).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, header, entry.localHeaderOffset());
+
+        if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+            throw new ZipException("Invalid local header: " + entry.name());
+        }
+
+        return entry.localHeaderOffset() + 30 + Short.toUnsignedInt(header.getShort(26)) + Short.toUnsignedInt(header.getShort(28));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static @NotNull Entry fromIndex(@NotNull ArchiveIndex.Entry entry) {
+        return new Entry(
+                entry.name(), entry.method(), 0, entry.crc(), entry.size(), entry.compressedSize(),
+                entry.lastModified(), entry.offset()
+        );
+    }
+
+    private static @NotNull List<Entry> readCentralDirectory(@NotNull Path file, @NotNull FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        int tailSize = (int) Math.min(fileSize, END_SIZE + MAX_COMMENT_LENGTH);
+        var tail = ByteBuffer.allocate(tailSize).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, tail, fileSize - tailSize);
+
+        int end = -1;
+
+        for (int i = tailSize - END_SIZE; 0 <= i; i--) {
+            if (tail.getInt(i) == END_SIGNATURE) {
+                end = i;
+                break;
+            }
+        }
+
+        if (end == -1) {
+            throw new ZipException("Not a zip archive: " + file);
+        }
+
+        long count = Short.toUnsignedInt(tail.getShort(end + 10));
+        long directorySize = Integer.toUnsignedLong(tail.getInt(end + 12));
+        long directoryOffset = Integer.toUnsignedLong(tail.getInt(end + 16));
+
+        if (count == ZIP16_LIMIT || directorySize == ZIP32_LIMIT || directoryOffset == ZIP32_LIMIT) {
+            long endOffset = fileSize - tailSize + end;
+            var locator = ByteBuffer.allocate(20).order(ByteOrder.LITTLE_ENDIAN);
+
+            if (20 <= endOffset) {
+                readFully(channel, locator, endOffset - 20);
+            }
+
+            if (locator.getInt(0) == ZIP64_LOCATOR_SIGNATURE) {
+                var zip64End = ByteBuffer.allocate(56).order(ByteOrder.LITTLE_ENDIAN);
+                readFully(channel, zip64End, locator.getLong(8));
+
+                if (zip64End.getInt(0) != ZIP64_END_SIGNATURE) {
+                    throw new ZipException("Invalid zip64 end of central directory: " + file);
+                }
+
+                count = zip64End.getLong(32);
+                directorySize = zip64End.getLong(40);
+                directoryOffset = zip64End.getLong(48);
+            }
+        }
+
+        if (Integer.MAX_VALUE < directorySize || fileSize < directoryOffset + directorySize) {
+            throw new ZipException("Invalid central directory: " + file);
+        }
+
+        var directory = ByteBuffer.allocate((int) directorySize).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, directory, directoryOffset);
+        directory.flip();
+
+        var entries = new ArrayList<Entry>((int) Math.min(count, Integer.MAX_VALUE));
+
+        for (long i = 0; i < count; i++) {
+            entries.add(readCentralHeader(directory, file));
+        }
+
+        return Collections.unmodifiableList(entries);
+    }
+
+    private static @NotNull Entry readCentralHeader(@NotNull ByteBuffer directory, @NotNull Path file) throws ZipException {
+        if (directory.remaining() < 46 || directory.getInt() != CENTRAL_HEADER_SIGNATURE) {
+            throw new ZipException("Invalid central directory: " + file);
+        }
+
+        directory.position(directory.position() + 4); // versions
+        int flags = Short.toUnsignedInt(directory.getShort());
+        int method = Short.toUnsignedInt(directory.getShort());
+        long dosTime = Integer.toUnsignedLong(directory.getInt());
+        long crc = Integer.toUnsignedLong(directory.getInt());
+        long compressedSize = Integer.toUnsignedLong(directory.getInt());
+        long size = Integer.toUnsignedLong(directory.getInt());
+        int nameLength = Short.toUnsignedInt(directory.getShort());
+        int extraLength = Short.toUnsignedInt(directory.getShort());
+        int commentLength = Short.toUnsignedInt(directory.getShort());
+        directory.position(directory.position() + 8); // disk number, attributes
+        long offset = Integer.toUnsignedLong(directory.getInt());
+
+        if (directory.remaining() < nameLength + extraLength + commentLength) {
+            throw new ZipException("Invalid central directory: " + file);
+        }
+
+        var name = new byte[nameLength];
+        directory.get(name);
+
+        int extraEnd = directory.position() + extraLength;
+
+        while (directory.position() + 4 <= extraEnd) {
+            int id = Short.toUnsignedInt(directory.getShort());
+            int length = Short.toUnsignedInt(directory.getShort());
+            int next = directory.position() + length;
+
+            if (id == ZIP64_EXTRA_ID) {
+                // only the fields that overflowed are present, in this order
+                if (size == ZIP32_LIMIT) {
+                    size = directory.getLong();
+                }
+                if (compressedSize == ZIP32_LIMIT) {
+                    compressedSize = directory.getLong();
+                }
+                if (offset == ZIP32_LIMIT) {
+                    offset = directory.getLong();
+                }
+            }
+
+            directory.position(next);
+        }
+
+        directory.position(extraEnd + commentLength);
+
+        return new Entry(
+                new String(name, StandardCharsets.UTF_8), method, flags, crc, size, compressedSize,
+                ZipArchiveWriter.fromDosTime(dosTime), offset
+        );
+    }
+
+    private static void readFully(@NotNull FileChannel channel, @NotNull ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of archive");
+            }
+        }
+    }
+
+    /**
+     * An entry of the central directory.
+     *
+     * @param lastModified      the modification time in epoch milliseconds, with the two-second resolution of zip archives
+     * @param localHeaderOffset the position of the local header of the entry
+     */
+    public record Entry(@NotNull String name, int method, int flags, long crc, long size, long compressedSize,
+                        long lastModified, long localHeaderOffset) {
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+    }
+
+    private static final class ChannelInputStream extends InputStream {
+
+        private final FileChannel channel;
+        private long position;
+        private long remaining;
+
+        private ChannelInputStream(@NotNull FileChannel channel, long position, long size) {
+            this.channel = channel;
+            this.position = position;
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            var b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : Byte.toUnsignedInt(b[0]);
+        }
+
+        @Override
+        public int read(byte @NotNull [] b, int off, int len) throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+
+            int read = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, remaining)), position);
+
+            if (read == -1) {
+                throw new EOFException("Unexpected end of archive");
+            }
+
+            position += read;
+            remaining -= read;
+            return read;
+        }
+    }
+
+    private static final class EntryInflaterInputStream extends InflaterInputStream {
+
+        private boolean eof;
+
+        private EntryInflaterInputStream(@NotNull InputStream in) {
+            super(in, new Inflater(true), BUFFER_SIZE);
+        }
+
+        @Override
+        protected void fill() throws IOException {
+            if (eof) {
+                throw new EOFException("Unexpected end of deflated entry");
+            }
+
+            len = in.read(buf, 0, buf.length);
+
+            // a raw inflater may need one more byte than the compressed data to finish
+            if (len == -1) {
+                buf[0] = 0;
+                len = 1;
+                eof = true;
+            }
+
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                inf.end();
+            }
+        }
+    }
+}
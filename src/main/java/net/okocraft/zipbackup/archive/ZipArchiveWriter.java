@@ -0,0 +1,589 @@
+package net.okocraft.zipbackup.archive;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * Writes a zip archive sequentially: each entry is appended as a local header followed by its data,
+ * and the central directory is written once when the writer is closed.
+ * <p>
+ * Zip64 records are used only when an entry, the entry count or the central directory exceeds
+ * the limits of the classic format. The archive is written to a temporary file that is renamed
+ * once the central directory has been written. This class is not thread-safe.
+ */
+public final class ZipArchiveWriter implements Closeable {
+
+    public static final int METHOD_STORED = 0;
+    public static final int METHOD_DEFLATED = 8;
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final int FLAG_UTF8 = 1 << 11;
+    private static final int VERSION_DEFAULT = 20;
+    private static final int VERSION_ZIP64 = 45;
+
+    private static final long ZIP32_LIMIT = 0xFFFFFFFFL;
+    private static final int ZIP16_LIMIT = 0xFFFF;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path file;
+    private final Path temporary;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final List<Entry> entries = new ArrayList<>();
+    private long position;
+    private boolean closed;
+    private boolean failed;
+    private int indexFlags;
+    private @Nullable Logger indexLogger;
+
+    public ZipArchiveWriter(@NotNull Path file) throws IOException {
+        this.file = file;
+        this.temporary = file.resolveSibling(file.getFileName() + ArchiveWriter.TEMPORARY_SUFFIX);
+        this.channel = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    public static @NotNull String toEntryName(@NotNull Path relative) {
+        var builder = new StringBuilder();
+
+        for (var element : relative) {
+            if (builder.length() != 0) {
+                builder.append('/');
+            }
+            builder.append(element);
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Makes the writer write an {@link ArchiveIndex} of the archive when it is closed.
+     *
+     * @param logger the logger to log the error to if the index cannot be written
+     * @param flags  the flags of the index, such as {@link ArchiveIndex#FLAG_DIFFERENTIAL}
+     */
+    public void enableIndex(@NotNull Logger logger, int flags) {
+        this.indexLogger = logger;
+        this.indexFlags = flags;
+    }
+
+    public void writeEntry(@NotNull EntryData data) throws IOException {
+        ensureOpen();
+
+        try {
+            var entry = new Entry(data.name().getBytes(StandardCharsets.UTF_8), data.method(), data.lastModified(), position);
+            entry.crc = data.crc();
+            entry.size = data.size();
+            entry.compressedSize = data.compressedData().remaining();
+
+            writeLocalHeader(entry, entry.size >= ZIP32_LIMIT || entry.compressedSize >= ZIP32_LIMIT);
+            writeData(data.compressedData());
+
+            entries.add(entry);
+        } catch (Throwable e) {
+            failed = true;
+            throw e;
+        }
+    }
+
+    /**
+     * Transfers the file as a stored entry with the checksum that has been computed before.
+     * <p>
+     * If the size or the modification time of the file has changed since then, the entry is written again
+     * from the current content of the file, with the checksum of the bytes that are written.
+     */
+    public void writeStoredFile(@NotNull String name, @NotNull Path file, long crc, long size, long lastModified) throws IOException {
+        ensureOpen();
+
+        try (var source = FileChannel.open(file, StandardOpenOption.READ)) {
+            var entry = new Entry(name.getBytes(StandardCharsets.UTF_8), METHOD_STORED, lastModified, position);
+            entry.crc = crc;
+            entry.size = size;
+            entry.compressedSize = size;
+
+            writeLocalHeader(entry, size >= ZIP32_LIMIT);
+            flush();
+
+            long transferred = 0;
+
+            for (long count; transferred < size && 0 < (count = source.transferTo(transferred, size - transferred, channel)); ) {
+                transferred += count;
+            }
+
+            position += transferred;
+
+            long currentLastModified = Files.getLastModifiedTime(file).toMillis();
+
+            if (transferred == size && source.size() == size && currentLastModified == lastModified) {
+                entries.add(entry);
+                return;
+            }
+
+            // the file has been written to since it was checksummed
+            position = entry.offset;
+            channel.truncate(position);
+            writeStream(name, currentLastModified, 0, source.position(0), ZIP32_LIMIT / 2 <= source.size());
+        } catch (Throwable e) {
+            failed = true;
+            throw e;
+        }
+    }
+
+    /**
+     * Writes an entry whose data has already been compressed, transferring {@code compressedSize} bytes
+     * from the source as they are.
+     */
+    public void writeRawEntry(@NotNull String name, int method, long crc, long size, long compressedSize, long lastModified,
+                              @NotNull FileChannel source, long dataOffset) throws IOException {
+        ensureOpen();
+
+        try {
+            var entry = new Entry(name.getBytes(StandardCharsets.UTF_8), method, lastModified, position);
+            entry.crc = crc;
+            entry.size = size;
+            entry.compressedSize = compressedSize;
+
+            writeLocalHeader(entry, size >= ZIP32_LIMIT || compressedSize >= ZIP32_LIMIT);
+            transfer(source, dataOffset, compressedSize, "The source archive of " + name + " is truncated");
+            entries.add(entry);
+        } catch (Throwable e) {
+            failed = true;
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the entry while reading it from the source.
+     *
+     * @return the size of the entry data in the archive
+     */
+    public long writeStream(@NotNull String name, long lastModified, int level,
+                            @NotNull ReadableByteChannel source, boolean zip64) throws IOException {
+        ensureOpen();
+
+        try {
+            int method = level == 0 ? METHOD_STORED : METHOD_DEFLATED;
+            var entry = new Entry(name.getBytes(StandardCharsets.UTF_8), method, lastModified, position);
+
+            writeLocalHeader(entry, zip64);
+
+            long dataStart = position;
+            var crc = new CRC32();
+            var input = ByteBuffer.allocate(BUFFER_SIZE);
+            long size = 0;
+
+            if (method == METHOD_STORED) {
+                for (int read; (read = source.read(input)) != -1; size += read) {
+                    input.flip();
+                    crc.update(input.array(), 0, input.limit());
+                    writeData(input);
+                    input.clear();
+                }
+            } else {
+                size = deflate(source, input, crc, level);
+            }
+
+            entry.crc = crc.getValue();
+            entry.size = size;
+            entry.compressedSize = position - dataStart;
+
+            if (!zip64 && (entry.size >= ZIP32_LIMIT || entry.compressedSize >= ZIP32_LIMIT)) {
+                throw new ZipException(name + " grew beyond 4 GiB while being archived");
+            }
+
+            patchLocalHeader(entry, zip64);
+            entries.add(entry);
+
+            return entry.compressedSize;
+        } catch (Throwable e) {
+            failed = true;
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+
+        // the archive would look complete but miss the rest of the entries
+        if (failed) {
+            channel.close();
+            Files.deleteIfExists(temporary);
+            return;
+        }
+
+        try {
+            try (channel) {
+                writeCentralDirectory();
+                flush();
+            }
+
+            // an archive left by a crash keeps the temporary name, so it is never taken for a backup
+            Files.move(temporary, file);
+        } catch (Throwable e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+
+        if (indexLogger != null) {
+            try {
+                writeIndex();
+            } catch (IOException e) {
+                indexLogger.log(Level.WARNING, "Could not write the index of " + file.toAbsolutePath(), e);
+            }
+        }
+    }
+
+    /**
+     * Marks the archive as failed, so that it is deleted instead of being completed when the writer is closed.
+     */
+    void markFailed() {
+        failed = true;
+    }
+
+    /**
+     * Closes the writer and deletes the archive without writing the central directory.
+     */
+    public void abort() throws IOException {
+        failed = true;
+        close();
+    }
+
+    private void writeIndex() throws IOException {
+        var indexEntries = new ArrayList<ArchiveIndex.Entry>(entries.size());
+
+        for (var entry : entries) {
+            indexEntries.add(new ArchiveIndex.Entry(
+                    new String(entry.name, StandardCharsets.UTF_8), entry.method, entry.crc, entry.size,
+                    entry.compressedSize, entry.lastModified, entry.offset
+            ));
+        }
+
+        ArchiveIndex.write(file, indexEntries, indexFlags);
+    }
+
+    private void writeLocalHeader(@NotNull Entry entry, boolean zip64) throws IOException {
+        ensureCapacity(30 + entry.name.length + (zip64 ? 20 : 0));
+
+        buffer.putInt(LOCAL_HEADER_SIGNATURE);
+        buffer.putShort((short) (zip64 ? VERSION_ZIP64 : VERSION_DEFAULT));
+        buffer.putShort((short) FLAG_UTF8);
+        buffer.putShort((short) entry.method);
+        buffer.putInt((int) entry.dosTime);
+        buffer.putInt((int) entry.crc);
+        buffer.putInt((int) (zip64 ? ZIP32_LIMIT : entry.compressedSize));
+        buffer.putInt((int) (zip64 ? ZIP32_LIMIT : entry.size));
+        buffer.putShort((short) entry.name.length);
+        buffer.putShort((short) (zip64 ? 20 : 0));
+        buffer.put(entry.name);
+
+        if (zip64) {
+            buffer.putShort((short) ZIP64_EXTRA_ID);
+            buffer.putShort((short) 16);
+            buffer.putLong(entry.size);
+            buffer.putLong(entry.compressedSize);
+        }
+
+        position += 30 + entry.name.length + (zip64 ? 20 : 0);
+    }
+
+    private void transfer(@NotNull FileChannel source, long offset, long length, @NotNull String truncatedMessage) throws IOException {
+        flush();
+
+        long transferred = 0;
+
+        while (transferred < length) {
+            long count = source.transferTo(offset + transferred, length - transferred, channel);
+
+            if (count <= 0) {
+                throw new ZipException(truncatedMessage);
+            }
+
+            transferred += count;
+        }
+
+        position += length;
+    }
+
+    private void patchLocalHeader(@NotNull Entry entry, boolean zip64) throws IOException {
+        flush();
+
+        var patch = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        patch.putInt((int) entry.crc);
+        patch.putInt((int) (zip64 ? ZIP32_LIMIT : entry.compressedSize));
+        patch.putInt((int) (zip64 ? ZIP32_LIMIT : entry.size));
+        writeAt(patch.flip(), entry.offset + 14);
+
+        if (zip64) {
+            var extra = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+            extra.putLong(entry.size);
+            extra.putLong(entry.compressedSize);
+            writeAt(extra.flip(), entry.offset + 30 + entry.name.length + 4);
+        }
+    }
+
+    private long deflate(@NotNull ReadableByteChannel source, @NotNull ByteBuffer input, @NotNull CRC32 crc, int level) throws IOException {
+        var deflater = new Deflater(level, true);
+        var output = new byte[BUFFER_SIZE];
+        long size = 0;
+
+        try {
+            for (int read; (read = source.read(input)) != -1; size += read) {
+                crc.update(input.array(), 0, input.position());
+                deflater.setInput(input.array(), 0, input.position());
+
+                while (!deflater.needsInput()) {
+                    writeData(ByteBuffer.wrap(output, 0, deflater.deflate(output)));
+                }
+
+                input.clear();
+            }
+
+            deflater.finish();
+
+            while (!deflater.finished()) {
+                writeData(ByteBuffer.wrap(output, 0, deflater.deflate(output)));
+            }
+        } finally {
+            deflater.end();
+        }
+
+        return size;
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        long centralDirectoryOffset = position;
+
+        for (var entry : entries) {
+            writeCentralHeader(entry);
+        }
+
+        long centralDirectorySize = position - centralDirectoryOffset;
+
+        boolean zip64 = entries.size() >= ZIP16_LIMIT ||
+                centralDirectoryOffset >= ZIP32_LIMIT ||
+                centralDirectorySize >= ZIP32_LIMIT;
+
+        if (zip64) {
+            long zip64EndOffset = position;
+
+            ensureCapacity(56 + 20);
+
+            buffer.putInt(ZIP64_END_SIGNATURE);
+            buffer.putLong(44);
+            buffer.putShort((short) VERSION_ZIP64);
+            buffer.putShort((short) VERSION_ZIP64);
+            buffer.putInt(0);
+            buffer.putInt(0);
+            buffer.putLong(entries.size());
+            buffer.putLong(entries.size());
+            buffer.putLong(centralDirectorySize);
+            buffer.putLong(centralDirectoryOffset);
+
+            buffer.putInt(ZIP64_LOCATOR_SIGNATURE);
+            buffer.putInt(0);
+            buffer.putLong(zip64EndOffset);
+            buffer.putInt(1);
+
+            position += 56 + 20;
+        }
+
+        ensureCapacity(22);
+
+        int count = Math.min(entries.size(), ZIP16_LIMIT);
+
+        buffer.putInt(END_SIGNATURE);
+        buffer.putShort((short) 0);
+        buffer.putShort((short) 0);
+        buffer.putShort((short) count);
+        buffer.putShort((short) count);
+        buffer.putInt((int) Math.min(centralDirectorySize, ZIP32_LIMIT));
+        buffer.putInt((int) Math.min(centralDirectoryOffset, ZIP32_LIMIT));
+        buffer.putShort((short) 0);
+
+        position += 22;
+    }
+
+    private void writeCentralHeader(@NotNull Entry entry) throws IOException {
+        boolean zip64Size = entry.size >= ZIP32_LIMIT;
+        boolean zip64CompressedSize = entry.compressedSize >= ZIP32_LIMIT;
+        boolean zip64Offset = entry.offset >= ZIP32_LIMIT;
+
+        int extraLength = (zip64Size ? 8 : 0) + (zip64CompressedSize ? 8 : 0) + (zip64Offset ? 8 : 0);
+
+        if (extraLength != 0) {
+            extraLength += 4;
+        }
+
+        int version = extraLength != 0 ? VERSION_ZIP64 : VERSION_DEFAULT;
+
+        ensureCapacity(46 + entry.name.length + extraLength);
+
+        buffer.putInt(CENTRAL_HEADER_SIGNATURE);
+        buffer.putShort((short) version);
+        buffer.putShort((short) version);
+        buffer.putShort((short) FLAG_UTF8);
+        buffer.putShort((short) entry.method);
+        buffer.putInt((int) entry.dosTime);
+        buffer.putInt((int) entry.crc);
+        buffer.putInt((int) (zip64CompressedSize ? ZIP32_LIMIT : entry.compressedSize));
+        buffer.putInt((int) (zip64Size ? ZIP32_LIMIT : entry.size));
+        buffer.putShort((short) entry.name.length);
+        buffer.putShort((short) extraLength);
+        buffer.putShort((short) 0); // comment length
+        buffer.putShort((short) 0); // disk number start
+        buffer.putShort((short) 0); // internal attributes
+        buffer.putInt(0); // external attributes
+        buffer.putInt((int) (zip64Offset ? ZIP32_LIMIT : entry.offset));
+        buffer.put(entry.name);
+
+        if (extraLength != 0) {
+            buffer.putShort((short) ZIP64_EXTRA_ID);
+            buffer.putShort((short) (extraLength - 4));
+
+            if (zip64Size) {
+                buffer.putLong(entry.size);
+            }
+
+            if (zip64CompressedSize) {
+                buffer.putLong(entry.compressedSize);
+            }
+
+            if (zip64Offset) {
+                buffer.putLong(entry.offset);
+            }
+        }
+
+        position += 46 + entry.name.length + extraLength;
+    }
+
+    private void writeData(@NotNull ByteBuffer data) throws IOException {
+        int length = data.remaining();
+
+        if (length <= buffer.remaining()) {
+            buffer.put(data);
+        } else {
+            flush();
+
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        }
+
+        position += length;
+    }
+
+    private void writeAt(@NotNull ByteBuffer data, long offset) throws IOException {
+        while (data.hasRemaining()) {
+            offset += channel.write(data, offset);
+        }
+    }
+
+    private void ensureCapacity(int length) throws IOException {
+        if (buffer.remaining() < length) {
+            flush();
+        }
+
+        if (buffer.remaining() < length) {
+            throw new ZipException("Header too large: " + length + " bytes");
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+
+        buffer.clear();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("The archive is already closed.");
+        }
+    }
+
+    static long toDosTime(long epochMillis) {
+        var time = LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+
+        if (time.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+
+        return (long) (time.getYear() - 1980) << 25 |
+                (long) time.getMonthValue() << 21 |
+                (long) time.getDayOfMonth() << 16 |
+                (long) time.getHour() << 11 |
+                (long) time.getMinute() << 5 |
+                (long) time.getSecond() >> 1;
+    }
+
+    static long fromDosTime(long dosTime) {
+        // out-of-range fields written by other tools roll over instead of failing, like java.util.zip does
+        var time = LocalDateTime.of((int) (dosTime >> 25 & 0x7F) + 1980, 1, 1, 0, 0)
+                .plusMonths(Math.max(1, dosTime >> 21 & 0x0F) - 1)
+                .plusDays(Math.max(1, dosTime >> 16 & 0x1F) - 1)
+                .plusHours(dosTime >> 11 & 0x1F)
+                .plusMinutes(dosTime >> 5 & 0x3F)
+                .plusSeconds(dosTime << 1 & 0x3E);
+
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    public record EntryData(@NotNull String name, int method, long crc, long size, long lastModified,
+                            @NotNull ByteBuffer compressedData) {
+    }
+
+    private static final class Entry {
+
+        private final byte[] name;
+        private final int method;
+        private final long dosTime;
+        private final long lastModified;
+        private final long offset;
+        private long crc;
+        private long size;
+        private long compressedSize;
+
+        private Entry(byte[] name, int method, long lastModified, long offset) {
+            this.name = name;
+            this.method = method;
+            this.dosTime = toDosTime(lastModified);
+            this.lastModified = lastModified;
+            this.offset = offset;
+        }
+    }
+}
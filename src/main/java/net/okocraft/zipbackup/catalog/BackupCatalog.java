@@ -0,0 +1,526 @@
+package net.okocraft.zipbackup.catalog;
+
+import net.okocraft.zipbackup.archive.ArchiveFormat;
+import net.okocraft.zipbackup.archive.ArchiveIndex;
+import net.okocraft.zipbackup.dedup.Snapshot;
+import net.okocraft.zipbackup.manifest.FileManifest;
+import net.okocraft.zipbackup.util.FilePathFactory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * The index of every backup in the backup directory, so that backups can be listed and purged without walking it.
+ * <p>
+ * The catalog is kept in memory and written to a file next to the backups each time it changes, by replacing
+ * the file atomically. If the file does not exist, it is built once from the backup directory.
+ * Deleted backups are renamed into a trash directory first and then removed in the background.
+ */
+public final class BackupCatalog implements Closeable {
+
+    public static final String FILE_NAME = ".catalog";
+    public static final String TRASH_DIRECTORY_NAME = ".trash";
+
+    private static final int MAGIC = 0x5A424354; // "ZBCT"
+    private static final int VERSION = 1;
+    private static final String FULL_BACKUP_PREFIX = "full-backup-";
+    private static final Comparator<BackupRecord> ORDER =
+            Comparator.comparingLong(BackupRecord::timestamp).thenComparing(BackupRecord::name);
+
+    private final Path backupDirectory;
+    private final Path file;
+    private final Path trashDirectory;
+    private final Logger logger;
+    // keyed by target, then by name
+    private final Map<String, Map<String, BackupRecord>> records = new TreeMap<>();
+    private final ForkJoinPool deletionPool;
+    private final AtomicLong trashSequence = new AtomicLong();
+
+    private BackupCatalog(@NotNull Path backupDirectory, @NotNull Logger logger) {
+        this.backupDirectory = backupDirectory;
+        this.file = backupDirectory.resolve(FILE_NAME);
+        this.trashDirectory = backupDirectory.resolve(TRASH_DIRECTORY_NAME);
+        this.logger = logger;
+        this.deletionPool = new ForkJoinPool(Math.min(4, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Opens the catalog of the backup directory, building it if it does not exist yet,
+     * and starts deleting the backups that were left in the trash.
+     */
+    public static @NotNull BackupCatalog open(@NotNull Path backupDirectory, @NotNull Logger logger) throws IOException {
+        Files.createDirectories(backupDirectory);
+
+        var catalog = new BackupCatalog(backupDirectory, logger);
+
+        try {
+            if (!catalog.load()) {
+                long start = System.currentTimeMillis();
+                catalog.rebuild();
+                catalog.save();
+                logger.info("The backup catalog has been built from " + catalog.list().size() + " backups. (" + (System.currentTimeMillis() - start) + "ms)");
+            } else {
+                int changed = catalog.reconcile();
+
+                if (changed != 0) {
+                    catalog.save();
+                    logger.info("Backups that were not in the catalog or have been deleted by hand (" + changed + ") has been updated.");
+                }
+            }
+
+            catalog.emptyTrash();
+        } catch (IOException | RuntimeException e) {
+            catalog.close();
+            throw e;
+        }
+
+        return catalog;
+    }
+
+    public @NotNull Path getBackupDirectory() {
+        return backupDirectory;
+    }
+
+    public @NotNull Path resolve(@NotNull BackupRecord record) {
+        return record.resolve(backupDirectory);
+    }
+
+    /**
+     * Adds the backup that has just been written, replacing the record of the same name.
+     */
+    public synchronized void add(@NotNull BackupRecord record) throws IOException {
+        put(record);
+        save();
+    }
+
+    public synchronized @Nullable BackupRecord find(@NotNull String target, @NotNull String name) {
+        var backups = records.get(target);
+        return backups != null ? backups.get(name) : null;
+    }
+
+    /**
+     * Returns the targets that have backups, in alphabetical order.
+     */
+    public synchronized @NotNull Set<String> getTargets() {
+        var targets = new TreeSet<String>();
+
+        records.forEach((target, backups) -> {
+            if (!backups.isEmpty()) {
+                targets.add(target);
+            }
+        });
+
+        return targets;
+    }
+
+    /**
+     * Returns every backup, from the oldest.
+     */
+    public synchronized @NotNull List<BackupRecord> list() {
+        var result = new ArrayList<BackupRecord>();
+        records.values().forEach(backups -> result.addAll(backups.values()));
+        result.sort(ORDER);
+        return result;
+    }
+
+    /**
+     * Returns the backups of the target, from the oldest.
+     */
+    public synchronized @NotNull List<BackupRecord> list(@NotNull String target) {
+        var backups = records.get(target);
+
+        if (backups == null) {
+            return List.of();
+        }
+
+        var result = new ArrayList<>(backups.values());
+        result.sort(ORDER);
+        return result;
+    }
+
+    /**
+     * Removes the backups from the catalog and moves them to the trash, from where they are deleted in the background.
+     * A backup that cannot be moved is logged and kept in the catalog.
+     *
+     * @return the number of deleted backups
+     */
+    public synchronized int delete(@NotNull Collection<BackupRecord> backups) throws IOException {
+        var trashed = new ArrayList<Path>();
+        int deleted = 0;
+
+        for (var record : backups) {
+            var targetBackups = records.get(record.target());
+
+            if (targetBackups == null || !targetBackups.containsKey(record.name())) {
+                continue;
+            }
+
+            try {
+                moveToTrash(resolve(record), trashed);
+
+                if (record.kind() == BackupRecord.Kind.BASE) {
+                    moveToTrash(FileManifest.getPath(resolve(record)), trashed);
+                } else if (record.kind() != BackupRecord.Kind.SNAPSHOT) {
+                    moveToTrash(ArchiveIndex.getPath(resolve(record)), trashed);
+                }
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Could not delete the backup " + resolve(record).toAbsolutePath(), e);
+                continue;
+            }
+
+            targetBackups.remove(record.name());
+            deleted++;
+        }
+
+        if (deleted != 0) {
+            save();
+        }
+
+        trashed.forEach(path -> deletionPool.execute(new DeleteTask(path)));
+        return deleted;
+    }
+
+    /**
+     * Closes the catalog. The backups that are being deleted continue to be deleted in the background,
+     * and whatever is left in the trash is deleted when the catalog is opened again.
+     */
+    @Override
+    public void close() {
+        deletionPool.shutdown();
+    }
+
+    /**
+     * Waits until the backups that have been moved to the trash are deleted. The catalog must have been closed.
+     */
+    public void awaitDeletions() throws InterruptedException {
+        deletionPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Waits until the backups that have been moved to the trash are deleted, so that their space is free on the disk.
+     *
+     * @return whether the trash has been emptied within the timeout
+     */
+    public boolean awaitDeletions(long timeout, @NotNull TimeUnit unit) {
+        return deletionPool.awaitQuiescence(timeout, unit);
+    }
+
+    private void moveToTrash(@NotNull Path path, @NotNull List<Path> trashed) throws IOException {
+        Files.createDirectories(trashDirectory);
+
+        var destination = trashDirectory.resolve(System.currentTimeMillis() + "-" + trashSequence.getAndIncrement() + "-" + path.getFileName());
+
+        try {
+            // the trash is in the backup directory, so this is a rename that takes the same time for any backup
+            Files.move(path, destination, StandardCopyOption.ATOMIC_MOVE);
+            trashed.add(destination);
+        } catch (NoSuchFileException ignored) {
+            // already deleted by hand
+        }
+    }
+
+    private void emptyTrash() throws IOException {
+        if (!Files.isDirectory(trashDirectory)) {
+            return;
+        }
+
+        try (var list = Files.newDirectoryStream(trashDirectory)) {
+            for (var path : list) {
+                deletionPool.execute(new DeleteTask(path));
+            }
+        }
+    }
+
+    private boolean load() throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return false;
+        }
+
+        try (var in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(Files.newInputStream(file))))) {
+            if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+                throw new ZipException("Not a catalog: " + file);
+            }
+
+            int count = in.readInt();
+
+            for (int i = 0; i < count; i++) {
+                var target = in.readUTF();
+                var kind = BackupRecord.Kind.values()[in.readUnsignedByte()];
+                var name = in.readUTF();
+                var base = in.readBoolean() ? in.readUTF() : null;
+                long timestamp = in.readLong();
+                long size = in.readLong();
+                int fileCount = in.readInt();
+                var linkedBase = in.readBoolean() ? in.readUTF() : null;
+                long linkedSize = in.readLong();
+
+                put(new BackupRecord(target, kind, name, base, timestamp, size, fileCount, linkedBase, linkedSize));
+            }
+
+            return true;
+        } catch (ZipException | EOFException | ArrayIndexOutOfBoundsException e) {
+            logger.log(Level.WARNING, "The backup catalog is broken and will be built again.", e);
+            records.clear();
+            return false;
+        }
+    }
+
+    private void save() throws IOException {
+        var all = list();
+        var temp = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (var out = new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(Files.newOutputStream(temp))))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(all.size());
+
+            for (var record : all) {
+                out.writeUTF(record.target());
+                out.writeByte(record.kind().ordinal());
+                out.writeUTF(record.name());
+                out.writeBoolean(record.base() != null);
+
+                if (record.base() != null) {
+                    out.writeUTF(record.base());
+                }
+
+                out.writeLong(record.timestamp());
+                out.writeLong(record.size());
+                out.writeInt(record.fileCount());
+                out.writeBoolean(record.linkedBase() != null);
+
+                if (record.linkedBase() != null) {
+                    out.writeUTF(record.linkedBase());
+                }
+
+                out.writeLong(record.linkedSize());
+            }
+        }
+
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void put(@NotNull BackupRecord record) {
+        records.computeIfAbsent(record.target(), ignored -> new HashMap<>()).put(record.name(), record);
+    }
+
+    // only used when the catalog file does not exist, such as on the first start after updating
+    private void rebuild() throws IOException {
+        records.clear();
+        reconcile();
+    }
+
+    /**
+     * Adds the backups in the directory that have no record, such as those written just before the server stopped,
+     * and removes the records of backups that no longer exist.
+     *
+     * @return the number of added and removed records
+     */
+    private int reconcile() throws IOException {
+        var existing = new HashMap<String, Set<String>>();
+        int changed = 0;
+
+        try (var targets = Files.newDirectoryStream(backupDirectory, Files::isDirectory)) {
+            for (var targetDirectory : targets) {
+                var target = targetDirectory.getFileName().toString();
+
+                // the chunk store and the trash
+                if (target.startsWith(".")) {
+                    continue;
+                }
+
+                var names = existing.computeIfAbsent(target, ignored -> new HashSet<>());
+
+                try (var list = Files.newDirectoryStream(targetDirectory)) {
+                    for (var path : list) {
+                        var name = path.getFileName().toString();
+                        names.add(name);
+
+                        if (find(target, name) != null) {
+                            continue;
+                        }
+
+                        BackupRecord record;
+
+                        try {
+                            record = readRecord(target, path);
+                        } catch (IOException e) {
+                            // such as a snapshot that was being written when the server stopped
+                            logger.log(Level.WARNING, "Could not read the backup " + path.toAbsolutePath(), e);
+                            continue;
+                        }
+
+                        if (record != null) {
+                            put(record);
+                            changed++;
+                        }
+                    }
+                }
+            }
+        }
+
+        for (var backups : records.entrySet()) {
+            var names = existing.getOrDefault(backups.getKey(), Set.of());
+            int size = backups.getValue().size();
+
+            backups.getValue().keySet().retainAll(names);
+            changed += size - backups.getValue().size();
+        }
+
+        records.values().removeIf(Map::isEmpty);
+        return changed;
+    }
+
+    private static @Nullable BackupRecord readRecord(@NotNull String target, @NotNull Path path) throws IOException {
+        var name = path.getFileName().toString();
+        var attributes = Files.readAttributes(path, BasicFileAttributes.class);
+
+        if (attributes.isDirectory()) {
+            var date = parseBaseDate(name);
+
+            if (date == null) {
+                return null;
+            }
+
+            long size = 0;
+            int fileCount = 0;
+
+            try (var walk = Files.walk(path)) {
+                for (var file : (Iterable<Path>) walk::iterator) {
+                    var fileAttributes = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+
+                    if (fileAttributes.isRegularFile()) {
+                        size += fileAttributes.size();
+                        fileCount++;
+                    }
+                }
+            }
+
+            long timestamp = date.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            return new BackupRecord(target, BackupRecord.Kind.BASE, name, null, timestamp, size, fileCount);
+        }
+
+        if (!attributes.isRegularFile()) {
+            return null;
+        }
+
+        long timestamp = attributes.lastModifiedTime().toMillis();
+
+        if (name.endsWith(Snapshot.FILE_SUFFIX)) {
+            int fileCount = Snapshot.read(path).files().size();
+            return new BackupRecord(target, BackupRecord.Kind.SNAPSHOT, name, null, timestamp, attributes.size(), fileCount);
+        }
+
+        if (ArchiveFormat.fromFileName(name) == null) {
+            return null;
+        }
+
+        // the archives of differential backups are next to the base of the day they have been written
+        String base;
+
+        try {
+            var date = LocalDateTime.parse(ArchiveFormat.removeExtension(name), FilePathFactory.FILENAME_FORMAT).toLocalDate();
+            base = FULL_BACKUP_PREFIX + date;
+        } catch (DateTimeParseException e) {
+            base = null;
+        }
+
+        var index = ArchiveIndex.open(path);
+        boolean differential =
+                index != null ?
+                        (index.getFlags() & ArchiveIndex.FLAG_DIFFERENTIAL) != 0 :
+                        // the kind of an archive without its index can only be guessed from the bases next to it
+                        base != null && Files.isDirectory(path.resolveSibling(base));
+
+        if (differential && base != null) {
+            return new BackupRecord(target, BackupRecord.Kind.DIFFERENTIAL, name, base, timestamp, attributes.size(), -1);
+        }
+
+        return new BackupRecord(target, BackupRecord.Kind.FULL, name, null, timestamp, attributes.size(), -1);
+    }
+
+    private static @Nullable LocalDate parseBaseDate(@NotNull String name) {
+        if (!name.startsWith(FULL_BACKUP_PREFIX)) {
+            return null;
+        }
+
+        try {
+            return LocalDate.parse(name.substring(FULL_BACKUP_PREFIX.length()));
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    // directories are deleted in parallel, since large bases hold thousands of region and player files
+    private final class DeleteTask extends RecursiveAction {
+
+        private final Path path;
+
+        private DeleteTask(@NotNull Path path) {
+            this.path = path;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                    var subdirectories = new ArrayList<DeleteTask>();
+
+                    try (var list = Files.newDirectoryStream(path)) {
+                        for (var child : list) {
+                            if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                                subdirectories.add(new DeleteTask(child));
+                            } else {
+                                Files.deleteIfExists(child);
+                            }
+                        }
+                    }
+
+                    invokeAll(subdirectories);
+                }
+
+                Files.deleteIfExists(path);
+            } catch (NoSuchFileException ignored) {
+                // deleted by the catalog that was open before the plugin was reloaded
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Could not delete " + path.toAbsolutePath(), e);
+            }
+        }
+    }
+}
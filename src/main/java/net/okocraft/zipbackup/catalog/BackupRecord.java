@@ -0,0 +1,45 @@
+package net.okocraft.zipbackup.catalog;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * A backup in the catalog.
+ *
+ * @param target     the world or {@code plugins}, which is also the name of the directory the backup is in
+ * @param kind       the kind of the backup
+ * @param name       the file or directory name of the backup
+ * @param base       the name of the {@code full-backup-<date>} directory a differential backup depends on, or {@code null}
+ * @param timestamp  the time the backup has been written, in epoch milliseconds
+ * @param size       the size of the backup in bytes, without the chunks that a snapshot keeps in the chunk store
+ * @param fileCount  the number of files in the backup, or -1 if it is unknown
+ * @param linkedBase the previous base that the files of a base have been hardlinked to, or {@code null}
+ * @param linkedSize the bytes of the files of a base that are hardlinks to the files of {@code linkedBase},
+ *                   which are included in {@code size}
+ */
+public record BackupRecord(@NotNull String target, @NotNull Kind kind, @NotNull String name, @Nullable String base,
+                           long timestamp, long size, int fileCount, @Nullable String linkedBase, long linkedSize) {
+
+    public BackupRecord(@NotNull String target, @NotNull Kind kind, @NotNull String name, @Nullable String base,
+                        long timestamp, long size, int fileCount) {
+        this(target, kind, name, base, timestamp, size, fileCount, null, 0);
+    }
+
+    public enum Kind {
+        FULL,
+        DIFFERENTIAL,
+        BASE,
+        SNAPSHOT;
+
+        public @NotNull String getName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    public @NotNull Path resolve(@NotNull Path backupDirectory) {
+        return backupDirectory.resolve(target).resolve(name);
+    }
+}
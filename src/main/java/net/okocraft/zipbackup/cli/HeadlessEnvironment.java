@@ -0,0 +1,160 @@
+package net.okocraft.zipbackup.cli;
+
+import com.github.siroshun09.configapi.yaml.YamlConfiguration;
+import net.okocraft.zipbackup.archive.ArchiveWriter;
+import net.okocraft.zipbackup.archive.CompressionPolicy;
+import net.okocraft.zipbackup.archive.ParallelZipWriter;
+import net.okocraft.zipbackup.catalog.BackupCatalog;
+import net.okocraft.zipbackup.config.Settings;
+import net.okocraft.zipbackup.core.BackupEnvironment;
+import net.okocraft.zipbackup.core.EnvironmentFactory;
+import net.okocraft.zipbackup.dedup.ChunkStore;
+import net.okocraft.zipbackup.metrics.BackupMetrics;
+import net.okocraft.zipbackup.metrics.JobMetrics;
+import net.okocraft.zipbackup.scan.TreeScanner;
+import net.okocraft.zipbackup.throttle.IoThrottle;
+import net.okocraft.zipbackup.throttle.LoadAwareThrottle;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Runs the backup engine with the config of the plugin, without a server.
+ * <p>
+ * The server load is unknown, so backups are never paused and the bandwidth limit is not adapted to it.
+ */
+final class HeadlessEnvironment implements BackupEnvironment, Closeable {
+
+    private final Logger logger;
+    private final Path dataFolder;
+    private final YamlConfiguration configuration;
+    private final Path backupDirectory;
+    private final BackupCatalog catalog;
+    private final CompressionPolicy compressionPolicy;
+    private final IoThrottle ioThrottle;
+    private final BackupMetrics metrics;
+    private final ThreadPoolExecutor compressionExecutor;
+    private final ForkJoinPool scanPool;
+    private @Nullable ChunkStore chunkStore;
+
+    HeadlessEnvironment(@NotNull Logger logger, @NotNull Path dataFolder, @NotNull YamlConfiguration configuration) throws IOException {
+        this.logger = logger;
+        this.dataFolder = dataFolder;
+        this.configuration = configuration;
+
+        this.backupDirectory = EnvironmentFactory.resolveBackupDirectory(configuration, dataFolder);
+        this.compressionPolicy = EnvironmentFactory.createCompressionPolicy(configuration);
+        this.ioThrottle = EnvironmentFactory.createIoThrottle(configuration, null);
+
+        this.metrics = new BackupMetrics(logger);
+
+        int workers = configuration.get(Settings.COMPRESSION_WORKERS);
+        this.compressionExecutor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+        this.scanPool = new ForkJoinPool(configuration.get(Settings.SCAN_WORKERS));
+        this.catalog = BackupCatalog.open(backupDirectory, logger);
+
+        if (configuration.get(Settings.BACKUP_DEDUPLICATE)) {
+            chunkStore = ChunkStore.open(backupDirectory.resolve(ChunkStore.DIRECTORY_NAME));
+        }
+    }
+
+    @NotNull Path getDataFolder() {
+        return dataFolder;
+    }
+
+    @Override
+    public @NotNull Logger getLogger() {
+        return logger;
+    }
+
+    @Override
+    public @NotNull YamlConfiguration getConfiguration() {
+        return configuration;
+    }
+
+    @Override
+    public @NotNull Path getBackupDirectory() {
+        return backupDirectory;
+    }
+
+    @Override
+    public @NotNull Path getStagingDirectory() {
+        return dataFolder.resolve("staging");
+    }
+
+    @Override
+    public @NotNull BackupCatalog getCatalog() {
+        return catalog;
+    }
+
+    @Override
+    public @NotNull CompressionPolicy getCompressionPolicy() {
+        return compressionPolicy;
+    }
+
+    @Override
+    public @NotNull ChunkStore getChunkStore() {
+        if (chunkStore == null) {
+            throw new IllegalStateException("The chunk store is not opened.");
+        }
+
+        return chunkStore;
+    }
+
+    @Override
+    public @Nullable ChunkStore getChunkStoreIfOpened() {
+        return chunkStore;
+    }
+
+    @Override
+    public @NotNull TreeScanner getTreeScanner() {
+        return new TreeScanner(scanPool);
+    }
+
+    @Override
+    public @NotNull ParallelZipWriter createZipWriter(@NotNull Path file) throws IOException {
+        return EnvironmentFactory.createZipWriter(this, file, compressionExecutor, ioThrottle, JobMetrics.untracked());
+    }
+
+    @Override
+    public @NotNull ArchiveWriter createArchive(@NotNull Path directory, @NotNull IoThrottle throttle,
+                                                @NotNull JobMetrics jobMetrics) throws IOException {
+        return EnvironmentFactory.createArchive(this, directory, compressionExecutor, throttle, jobMetrics);
+    }
+
+    @Override
+    public @NotNull LoadAwareThrottle createTaskThrottle() {
+        return new LoadAwareThrottle(ioThrottle, null, 0, 0, 0);
+    }
+
+    @Override
+    public @NotNull BackupMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public void close() throws IOException {
+        compressionExecutor.shutdownNow();
+        scanPool.shutdownNow();
+        catalog.close();
+
+        try {
+            catalog.awaitDeletions();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (chunkStore != null) {
+            chunkStore.close();
+            chunkStore = null;
+        }
+    }
+}
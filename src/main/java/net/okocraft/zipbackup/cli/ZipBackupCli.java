@@ -0,0 +1,219 @@
+package net.okocraft.zipbackup.cli;
+
+import com.github.siroshun09.configapi.yaml.YamlConfiguration;
+import net.okocraft.zipbackup.catalog.BackupRecord;
+import net.okocraft.zipbackup.core.BackupPurge;
+import net.okocraft.zipbackup.core.BackupRestorer;
+import net.okocraft.zipbackup.core.PluginBackup;
+import net.okocraft.zipbackup.core.SelectiveRestorer;
+import net.okocraft.zipbackup.core.WorldBackup;
+import net.okocraft.zipbackup.core.WorldRestorer;
+import net.okocraft.zipbackup.util.FilePathFactory;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs backups, purges and restores without a server, for example from cron on a stopped or replicated server.
+ * <p>
+ * The worlds must not be written to while they are backed up, since they cannot be saved or have autosave turned off.
+ */
+public final class ZipBackupCli {
+
+    private static final int EXIT_SUCCESS = 0;
+    private static final int EXIT_FAILURE = 1;
+    private static final int EXIT_USAGE = 2;
+
+    private static final String USAGE = """
+            Usage: java -jar ZipBackup.jar [--data-folder <path>] <command>
+
+            Commands:
+              backup world <name> <world folder>  Back up the world folder as the world of the name
+              backup plugins <plugins folder>     Back up the plugins folder
+              purge                               Delete expired backups
+              list [name]                         List the backups of all worlds and plugins, or of the name
+              copybackup <name> <backup> <file>   Restore the backup of the world or plugins into the file
+              restore <name> <backup> <folder> <path or glob>...
+                                                  Restore only the matching files of the backup into the folder,
+                                                  which can be the world or plugins folder of a stopped server
+              rollback <name> <backup> <world folder>
+                                                  Replace the world folder of a stopped server with the backup
+
+            The data folder contains the config.yml of the plugin (default: plugins/ZipBackup).""";
+
+    public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    static int run(@NotNull String[] args) {
+        if (System.getProperty("java.util.logging.SimpleFormatter.format") == null) {
+            System.setProperty("java.util.logging.SimpleFormatter.format", "[%4$s] %5$s%6$s%n");
+        }
+
+        var logger = Logger.getLogger("ZipBackup");
+        var dataFolder = Path.of("plugins", "ZipBackup");
+        var arguments = new ArrayList<String>();
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--data-folder") && i + 1 < args.length) {
+                dataFolder = Path.of(args[++i]);
+            } else {
+                arguments.add(args[i]);
+            }
+        }
+
+        if (arguments.isEmpty()) {
+            System.err.println(USAGE);
+            return EXIT_USAGE;
+        }
+
+        var configPath = dataFolder.resolve("config.yml");
+
+        if (!Files.isRegularFile(configPath)) {
+            System.err.println("config.yml is not found in " + dataFolder.toAbsolutePath() + ", specify the data folder of the plugin with --data-folder.");
+            return EXIT_USAGE;
+        }
+
+        var configuration = YamlConfiguration.create(configPath);
+
+        try {
+            configuration.reload();
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Could not load " + configPath.toAbsolutePath(), e);
+            return EXIT_FAILURE;
+        }
+
+        try (var environment = new HeadlessEnvironment(logger, dataFolder, configuration)) {
+            return execute(environment, arguments);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "An error occurred while running the command", e);
+            return EXIT_FAILURE;
+        }
+    }
+
+    private static int execute(@NotNull HeadlessEnvironment environment, @NotNull List<String> arguments) throws IOException {
+        switch (arguments.get(0)) {
+            case "backup" -> {
+                if (arguments.size() == 4 && arguments.get(1).equals("world")) {
+                    var worldFolder = Path.of(arguments.get(3));
+
+                    if (!Files.isDirectory(worldFolder)) {
+                        System.err.println("The world folder is not found: " + worldFolder.toAbsolutePath());
+                        return EXIT_USAGE;
+                    }
+
+                    return new WorldBackup(environment, arguments.get(2), worldFolder, null).run() ? EXIT_SUCCESS : EXIT_FAILURE;
+                }
+
+                if (arguments.size() == 3 && arguments.get(1).equals("plugins")) {
+                    return new PluginBackup(environment, Path.of(arguments.get(2))).run() ? EXIT_SUCCESS : EXIT_FAILURE;
+                }
+            }
+            case "purge" -> {
+                if (arguments.size() == 1) {
+                    new BackupPurge(environment).run();
+                    return EXIT_SUCCESS;
+                }
+            }
+            case "list" -> {
+                if (arguments.size() <= 2) {
+                    var catalog = environment.getCatalog();
+                    var records = arguments.size() == 2 ? catalog.list(arguments.get(1)) : catalog.list();
+
+                    for (var record : records) {
+                        System.out.println(formatRecord(record));
+                    }
+
+                    return EXIT_SUCCESS;
+                }
+            }
+            case "copybackup" -> {
+                if (arguments.size() == 4) {
+                    var catalog = environment.getCatalog();
+                    var record = catalog.find(arguments.get(1), arguments.get(2));
+                    var backup = environment.getBackupDirectory().resolve(arguments.get(1)).resolve(arguments.get(2));
+
+                    if (record == null || Files.notExists(backup)) {
+                        System.err.println("The backup is not found: " + backup.toAbsolutePath());
+                        return EXIT_USAGE;
+                    }
+
+                    var target = Path.of(arguments.get(3));
+                    new BackupRestorer(environment).restore(backup, target);
+                    environment.getLogger().info("The backup has been restored to " + target.toAbsolutePath());
+                    return EXIT_SUCCESS;
+                }
+            }
+            case "restore" -> {
+                if (5 <= arguments.size()) {
+                    var record = environment.getCatalog().find(arguments.get(1), arguments.get(2));
+
+                    if (record == null) {
+                        System.err.println("The backup is not found: " + arguments.get(1) + "/" + arguments.get(2));
+                        return EXIT_USAGE;
+                    }
+
+                    var targetDir = Path.of(arguments.get(3));
+                    var restored = new SelectiveRestorer(environment).restore(record, arguments.subList(4, arguments.size()), targetDir);
+
+                    if (restored.isEmpty()) {
+                        System.err.println("No files in the backup match: " + String.join(" ", arguments.subList(4, arguments.size())));
+                        return EXIT_FAILURE;
+                    }
+
+                    restored.forEach(System.out::println);
+                    environment.getLogger().info("Restored files (" + restored.size() + ") has been written to " + targetDir.toAbsolutePath());
+                    return EXIT_SUCCESS;
+                }
+            }
+            case "rollback" -> {
+                if (arguments.size() == 4) {
+                    var record = environment.getCatalog().find(arguments.get(1), arguments.get(2));
+
+                    if (record == null) {
+                        System.err.println("The backup is not found: " + arguments.get(1) + "/" + arguments.get(2));
+                        return EXIT_USAGE;
+                    }
+
+                    var worldFolder = Path.of(arguments.get(3));
+                    int count = new WorldRestorer(environment).restore(record, worldFolder);
+                    environment.getLogger().info(
+                            "The world folder " + worldFolder.toAbsolutePath() + " has been rolled back to " + record.name() +
+                                    " (" + count + " files). The previous folder has been kept as " + worldFolder.getFileName() + WorldRestorer.REPLACED_SUFFIX + "."
+                    );
+                    return EXIT_SUCCESS;
+                }
+            }
+            default -> {
+            }
+        }
+
+        System.err.println(USAGE);
+        return EXIT_USAGE;
+    }
+
+    private static @NotNull String formatRecord(@NotNull BackupRecord record) {
+        var time = LocalDateTime.ofInstant(Instant.ofEpochMilli(record.timestamp()), ZoneId.systemDefault());
+
+        return String.format(
+                Locale.ROOT, "%-16s %-12s %-32s %s %10.1f MiB %8s files%s",
+                record.target(), record.kind().getName(), record.name(), FilePathFactory.FILENAME_FORMAT.format(time),
+                record.size() / (1024.0 * 1024.0), record.fileCount() < 0 ? "?" : Integer.toString(record.fileCount()),
+                record.base() != null ? " (base: " + record.base() + ")" : ""
+        );
+    }
+
+    private ZipBackupCli() {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -11,6 +11,8 @@ import net.okocraft.zipbackup.command.subcommand.BackupCommand;
 import net.okocraft.zipbackup.command.subcommand.CopyBackupCommand;
 import net.okocraft.zipbackup.command.subcommand.PurgeCommand;
 import net.okocraft.zipbackup.command.subcommand.ReloadCommand;
+import net.okocraft.zipbackup.command.subcommand.RestoreCommand;
+import net.okocraft.zipbackup.command.subcommand.RollbackCommand;
 import net.okocraft.zipbackup.message.Messages;
 import org.jetbrains.annotations.NotNull;
 
@@ -33,7 +35,9 @@ public class ZipBackupCommand extends AbstractCommand {
                         new BackupCommand(plugin),
                         new CopyBackupCommand(plugin),
                         new PurgeCommand(plugin),
-                        new ReloadCommand(plugin)
+                        new ReloadCommand(plugin),
+                        new RestoreCommand(plugin),
+                        new RollbackCommand(plugin)
                 );
 
     }
@@ -0,0 +1,160 @@
+package net.okocraft.zipbackup.command.subcommand;
+
+import com.github.siroshun09.mccommand.common.AbstractCommand;
+import com.github.siroshun09.mccommand.common.CommandResult;
+import com.github.siroshun09.mccommand.common.argument.Argument;
+import com.github.siroshun09.mccommand.common.context.CommandContext;
+import com.github.siroshun09.mccommand.common.filter.StringFilter;
+import net.okocraft.zipbackup.ZipBackupPlugin;
+import net.okocraft.zipbackup.archive.ArchiveFormat;
+import net.okocraft.zipbackup.archive.ArchiveIndex;
+import net.okocraft.zipbackup.catalog.BackupRecord;
+import net.okocraft.zipbackup.core.SelectiveRestorer;
+import net.okocraft.zipbackup.message.Messages;
+import net.okocraft.zipbackup.region.RegionDelta;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+
+public class RestoreCommand extends AbstractCommand {
+
+    private static final String IN_PLACE_OPTION = "--in-place";
+    private static final int MAX_COMPLETIONS = 100;
+
+    private final ZipBackupPlugin plugin;
+
+    public RestoreCommand(@NotNull ZipBackupPlugin plugin) {
+        super("restore", "zipbackup.command.restore", Set.of("rs"));
+        this.plugin = plugin;
+    }
+
+    @Override
+    public @NotNull CommandResult onExecution(@NotNull CommandContext context) {
+        var sender = context.getSender();
+
+        if (!sender.hasPermission(getPermission())) {
+            sender.sendMessage(Messages.COMMAND_NO_PERMISSION.apply(getPermission()));
+            return CommandResult.NO_PERMISSION;
+        }
+
+        var arguments = context.getArguments();
+        var patterns = arguments.stream().skip(3).map(Argument::get).filter(argument -> !argument.equals(IN_PLACE_OPTION)).toList();
+
+        if (arguments.size() < 4 || patterns.isEmpty()) {
+            sender.sendMessage(Messages.COMMAND_USAGE);
+            return CommandResult.NO_ARGUMENT;
+        }
+
+        var dataName = arguments.get(1).get();
+        var record = plugin.getCatalog().find(dataName, arguments.get(2).get());
+
+        if (record == null) {
+            sender.sendMessage(Messages.COMMAND_COPY_BACKUP_NOT_FOUND_DATA.apply(dataName + "/" + arguments.get(2).get()));
+            return CommandResult.INVALID_ARGUMENTS;
+        }
+
+        Path targetDir;
+
+        if (arguments.stream().map(Argument::get).anyMatch(IN_PLACE_OPTION::equals)) {
+            if (dataName.equals("plugins")) {
+                targetDir = plugin.getDataFolder().getParentFile().toPath();
+            } else if (plugin.getServer().getWorld(dataName) == null) {
+                targetDir = plugin.getServer().getWorldContainer().toPath().resolve(dataName);
+            } else {
+                // the server keeps the region files of loaded worlds open and would overwrite the restored files
+                sender.sendMessage(Messages.COMMAND_RESTORE_WORLD_LOADED.apply(dataName));
+                return CommandResult.STATE_ERROR;
+            }
+        } else {
+            targetDir = plugin.getDataFolder().toPath().resolve("restored").resolve(dataName + "-" + ArchiveFormat.removeExtension(record.name()));
+        }
+
+        sender.sendMessage(Messages.COMMAND_RESTORE_START);
+
+        List<String> restored;
+
+        try {
+            restored = new SelectiveRestorer(plugin).restore(record, patterns, targetDir);
+        } catch (IOException e) {
+            sender.sendMessage(Messages.COMMAND_COPY_BACKUP_ERROR_OCCURRED);
+            plugin.getLogger().log(Level.SEVERE, "Could not restore " + patterns + " from " + record.name() + " to " + targetDir.toAbsolutePath(), e);
+            return CommandResult.EXCEPTION_OCCURRED;
+        }
+
+        if (restored.isEmpty()) {
+            sender.sendMessage(Messages.COMMAND_RESTORE_NO_MATCH.apply(String.join(" ", patterns)));
+            return CommandResult.INVALID_ARGUMENTS;
+        }
+
+        plugin.getLogger().info("Restored files (" + restored.size() + ") from " + record.name() + " to " + targetDir.toAbsolutePath() + ": " + restored);
+        sender.sendMessage(Messages.COMMAND_RESTORE_FINISH.apply(restored.size(), targetDir.toAbsolutePath().toString()));
+        return CommandResult.SUCCESS;
+    }
+
+    @Override
+    public @NotNull List<String> onTabCompletion(@NotNull CommandContext context) {
+        var arguments = context.getArguments();
+
+        if (!context.getSender().hasPermission(getPermission()) || arguments.size() < 2) {
+            return Collections.emptyList();
+        }
+
+        var secondArgument = arguments.get(1).get();
+
+        if (arguments.size() == 2) {
+            return plugin.getCatalog().getTargets().stream()
+                    .filter(StringFilter.startsWith(secondArgument))
+                    .toList();
+        }
+
+        if (arguments.size() == 3) {
+            var thirdArgument = arguments.get(2).get();
+
+            return plugin.getCatalog().list(secondArgument).stream()
+                    .map(BackupRecord::name)
+                    .filter(StringFilter.startsWith(thirdArgument))
+                    .toList();
+        }
+
+        var lastArgument = arguments.get(arguments.size() - 1).get();
+        var result = new ArrayList<String>();
+
+        if (IN_PLACE_OPTION.startsWith(lastArgument)) {
+            result.add(IN_PLACE_OPTION);
+        }
+
+        var record = plugin.getCatalog().find(secondArgument, arguments.get(2).get());
+
+        if (record != null && (record.kind() == BackupRecord.Kind.FULL || record.kind() == BackupRecord.Kind.DIFFERENTIAL)) {
+            result.addAll(listEntries(record, lastArgument));
+        }
+
+        return result;
+    }
+
+    private @NotNull List<String> listEntries(@NotNull BackupRecord record, @NotNull String prefix) {
+        try {
+            var index = ArchiveIndex.open(plugin.getCatalog().resolve(record));
+
+            if (index == null) {
+                return Collections.emptyList();
+            }
+
+            return index.listChildren(prefix.replace('\\', '/'), MAX_COMPLETIONS).stream()
+                    .map(RestoreCommand::removeDeltaSuffix)
+                    .toList();
+        } catch (IOException e) {
+            return Collections.emptyList();
+        }
+    }
+
+    private static @NotNull String removeDeltaSuffix(@NotNull String name) {
+        return name.endsWith(RegionDelta.ENTRY_SUFFIX) ? name.substring(0, name.length() - RegionDelta.ENTRY_SUFFIX.length()) : name;
+    }
+}
@@ -0,0 +1,105 @@
+package net.okocraft.zipbackup.command.subcommand;
+
+import com.github.siroshun09.mccommand.common.AbstractCommand;
+import com.github.siroshun09.mccommand.common.CommandResult;
+import com.github.siroshun09.mccommand.common.context.CommandContext;
+import com.github.siroshun09.mccommand.common.filter.StringFilter;
+import net.okocraft.zipbackup.ZipBackupPlugin;
+import net.okocraft.zipbackup.catalog.BackupRecord;
+import net.okocraft.zipbackup.core.WorldRestorer;
+import net.okocraft.zipbackup.message.Messages;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+
+public class RollbackCommand extends AbstractCommand {
+
+    private final ZipBackupPlugin plugin;
+
+    public RollbackCommand(@NotNull ZipBackupPlugin plugin) {
+        super("rollback", "zipbackup.command.rollback", Set.of("rb"));
+        this.plugin = plugin;
+    }
+
+    @Override
+    public @NotNull CommandResult onExecution(@NotNull CommandContext context) {
+        var sender = context.getSender();
+
+        if (!sender.hasPermission(getPermission())) {
+            sender.sendMessage(Messages.COMMAND_NO_PERMISSION.apply(getPermission()));
+            return CommandResult.NO_PERMISSION;
+        }
+
+        var arguments = context.getArguments();
+
+        if (arguments.size() < 3) {
+            sender.sendMessage(Messages.COMMAND_USAGE);
+            return CommandResult.NO_ARGUMENT;
+        }
+
+        var worldName = arguments.get(1).get();
+        var record = plugin.getCatalog().find(worldName, arguments.get(2).get());
+
+        // the plugins folder holds the running plugins and cannot be replaced
+        if (record == null || worldName.equals("plugins")) {
+            sender.sendMessage(Messages.COMMAND_COPY_BACKUP_NOT_FOUND_DATA.apply(worldName + "/" + arguments.get(2).get()));
+            return CommandResult.INVALID_ARGUMENTS;
+        }
+
+        if (plugin.getServer().getWorld(worldName) != null) {
+            sender.sendMessage(Messages.COMMAND_ROLLBACK_WORLD_LOADED.apply(worldName));
+            return CommandResult.STATE_ERROR;
+        }
+
+        var worldDir = plugin.getServer().getWorldContainer().toPath().resolve(worldName);
+
+        sender.sendMessage(Messages.COMMAND_ROLLBACK_START);
+
+        int count;
+
+        try {
+            count = new WorldRestorer(plugin).restore(record, worldDir);
+        } catch (IOException e) {
+            sender.sendMessage(Messages.COMMAND_COPY_BACKUP_ERROR_OCCURRED);
+            plugin.getLogger().log(Level.SEVERE, "Could not roll back " + worldDir.toAbsolutePath() + " to " + record.name(), e);
+            return CommandResult.EXCEPTION_OCCURRED;
+        }
+
+        plugin.getLogger().info("The world " + worldName + " has been rolled back to " + record.name() + " (" + count + " files).");
+        sender.sendMessage(Messages.COMMAND_ROLLBACK_FINISH.apply(worldName, record.name()));
+        return CommandResult.SUCCESS;
+    }
+
+    @Override
+    public @NotNull List<String> onTabCompletion(@NotNull CommandContext context) {
+        var arguments = context.getArguments();
+
+        if (!context.getSender().hasPermission(getPermission()) || arguments.size() < 2) {
+            return Collections.emptyList();
+        }
+
+        var secondArgument = arguments.get(1).get();
+
+        if (arguments.size() == 2) {
+            return plugin.getCatalog().getTargets().stream()
+                    .filter(target -> !target.equals("plugins") && plugin.getServer().getWorld(target) == null)
+                    .filter(StringFilter.startsWith(secondArgument))
+                    .toList();
+        }
+
+        if (arguments.size() == 3) {
+            var thirdArgument = arguments.get(2).get();
+
+            return plugin.getCatalog().list(secondArgument).stream()
+                    .map(BackupRecord::name)
+                    .filter(StringFilter.startsWith(thirdArgument))
+                    .toList();
+        }
+
+        return Collections.emptyList();
+    }
+}
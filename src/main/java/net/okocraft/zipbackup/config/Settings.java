@@ -2,19 +2,45 @@ package net.okocraft.zipbackup.config;
 
 import com.github.siroshun09.configapi.api.value.ConfigValue;
 import net.lingala.zip4j.model.enums.CompressionLevel;
+import net.okocraft.zipbackup.archive.ArchiveFormat;
+import net.okocraft.zipbackup.manifest.ContentDigest;
+import net.okocraft.zipbackup.type.BaseCopyMode;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 public final class Settings {
 
     public static final ConfigValue<Boolean> BACKUP_DIFFERENTIAL =
             config -> config.getString("backup.type").equalsIgnoreCase("differential");
 
+    public static final ConfigValue<Boolean> BACKUP_DEDUPLICATE =
+            config -> config.getString("backup.type").equalsIgnoreCase("deduplicate");
+
     public static final ConfigValue<Boolean> BACKUP_CHECK_FILE_CONTENT =
             config -> config.getBoolean("backup.differential.check-file-content", false);
 
+    // null if the name is unknown, which is logged by the backup that uses it
+    public static final ConfigValue<ContentDigest> BACKUP_CONTENT_DIGEST =
+            config -> ContentDigest.fromName(config.getString("backup.differential.content-digest", "crc32c"));
+
+    public static final ConfigValue<BaseCopyMode> BACKUP_BASE_COPY_MODE =
+            config -> BaseCopyMode.fromName(config.getString("backup.differential.base-copy-mode", "copy"));
+
+    public static final ConfigValue<Boolean> BACKUP_REGION_DELTA =
+            config -> config.getBoolean("backup.differential.region-delta", false);
+
     public static final ConfigValue<String> BACKUP_DIRECTORY = config -> config.getString("backup.directory");
 
+    public static final ConfigValue<ArchiveFormat> ARCHIVE_FORMAT =
+            config -> ArchiveFormat.fromName(config.getString("backup.archive-format", "zip"));
+
+    public static final ConfigValue<Integer> ZSTD_LEVEL =
+            config -> Math.max(1, Math.min(config.getInteger("backup.zstd-level", 3), 22));
+
     public static final ConfigValue<CompressionLevel> COMPRESSION_LEVEL =
             config -> {
                 try {
@@ -24,6 +50,92 @@ public final class Settings {
                 }
             };
 
+    public static final ConfigValue<Map<String, Integer>> COMPRESSION_LEVEL_BY_EXTENSION =
+            config -> {
+                var result = new HashMap<String, Integer>();
+
+                for (var element : config.getStringList("backup.compression-by-extension")) {
+                    int separator = element.indexOf('=');
+
+                    if (separator == -1) {
+                        continue;
+                    }
+
+                    var extension = element.substring(0, separator).trim().toLowerCase(Locale.ROOT);
+                    var level = element.substring(separator + 1).trim().toUpperCase(Locale.ROOT);
+
+                    try {
+                        result.put(extension, level.equals("STORE") ? 0 : CompressionLevel.valueOf(level).getLevel());
+                    } catch (IllegalArgumentException ignored) {
+                    }
+                }
+
+                return result;
+            };
+
+    public static final ConfigValue<Boolean> COMPRESSION_DETECT_INCOMPRESSIBLE =
+            config -> config.getBoolean("backup.detect-incompressible-files", true);
+
+    public static final ConfigValue<Integer> COMPRESSION_WORKERS =
+            config -> {
+                int workers = config.getInteger("backup.compression-workers", 0);
+                return 0 < workers ? workers : Runtime.getRuntime().availableProcessors();
+            };
+
+    public static final ConfigValue<Integer> SCAN_WORKERS =
+            config -> {
+                int workers = config.getInteger("backup.scan-workers", 0);
+                return 0 < workers ? workers : Math.min(4, Runtime.getRuntime().availableProcessors());
+            };
+
+    public static final ConfigValue<Integer> BACKUP_THREADS =
+            config -> {
+                int threads = config.getInteger("backup.executor.backup-threads", 4);
+                return 0 < threads ? threads : Runtime.getRuntime().availableProcessors();
+            };
+
+    public static final ConfigValue<Boolean> BACKUP_VIRTUAL_THREADS =
+            config -> config.getBoolean("backup.executor.virtual-threads", false);
+
+    public static final ConfigValue<Integer> MAX_BACKUPS_PER_DISK =
+            config -> config.getInteger("backup.executor.max-backups-per-disk", 0);
+
+    public static final ConfigValue<List<String>> BACKUP_WORLD_PRIORITY =
+            config -> config.getStringList("backup.executor.world-priority");
+
+    public static final ConfigValue<Long> THROTTLE_READ_BYTES_PER_SECOND =
+            config -> (long) (config.getDouble("backup.throttle.read-mb-per-second", 0) * 1024 * 1024);
+
+    public static final ConfigValue<Long> THROTTLE_WRITE_BYTES_PER_SECOND =
+            config -> (long) (config.getDouble("backup.throttle.write-mb-per-second", 0) * 1024 * 1024);
+
+    public static final ConfigValue<Boolean> THROTTLE_ADAPTIVE =
+            config -> config.getBoolean("backup.throttle.adaptive", false);
+
+    public static final ConfigValue<Double> THROTTLE_ADAPTIVE_TICK_DURATION =
+            config -> config.getDouble("backup.throttle.adaptive-tick-duration", 40.0);
+
+    public static final ConfigValue<Boolean> PAUSE_ON_LOAD =
+            config -> config.getBoolean("backup.pause-on-load.enabled", false);
+
+    public static final ConfigValue<Double> PAUSE_TICK_DURATION =
+            config -> config.getDouble("backup.pause-on-load.tick-duration", 50.0);
+
+    public static final ConfigValue<Double> PAUSE_MIN_TPS =
+            config -> config.getDouble("backup.pause-on-load.min-tps", 18.0);
+
+    public static final ConfigValue<Long> PAUSE_MAX_NANOS =
+            config -> TimeUnit.MINUTES.toNanos(config.getInteger("backup.pause-on-load.max-pause-minutes", 30));
+
+    public static final ConfigValue<Boolean> METRICS_JMX =
+            config -> config.getBoolean("metrics.jmx", true);
+
+    public static final ConfigValue<Boolean> METRICS_PROMETHEUS =
+            config -> config.getBoolean("metrics.prometheus.enabled", false);
+
+    public static final ConfigValue<Integer> METRICS_PROMETHEUS_PORT =
+            config -> config.getInteger("metrics.prometheus.port", 9940);
+
     public static final ConfigValue<Integer> BACKUP_PLUGIN_INTERVAL =
             config -> config.getInteger("backup.plugin.interval", 60);
 
@@ -42,6 +154,9 @@ public final class Settings {
     public static final ConfigValue<Boolean> BACKUP_WORLD_SAVE_BEFORE_BACKUP =
             config -> config.getBoolean("backup.world.save-before-backup", true);
 
+    public static final ConfigValue<Boolean> BACKUP_WORLD_SNAPSHOT =
+            config -> config.getBoolean("backup.world.snapshot", false);
+
     public static final ConfigValue<Boolean> BACKUP_WORLD_AFTER_START_UP =
             config -> config.getBoolean("backup.world.backup-after-startup", true);
 
@@ -56,4 +171,29 @@ public final class Settings {
 
     public static final ConfigValue<Integer> BACKUP_PURGE_EXPIRATION_DAYS =
             config -> config.getInteger("backup.purge.expiration-days", 7);
+
+    public static final ConfigValue<Long> BACKUP_QUOTA_TOTAL_BYTES =
+            config -> (long) (config.getDouble("backup.purge.quota.total-gb", 0) * 1024 * 1024 * 1024);
+
+    public static final ConfigValue<Map<String, Long>> BACKUP_QUOTA_BYTES_BY_TARGET =
+            config -> {
+                var result = new HashMap<String, Long>();
+
+                for (var element : config.getStringList("backup.purge.quota.per-target-gb")) {
+                    int separator = element.lastIndexOf('=');
+
+                    if (separator == -1) {
+                        continue;
+                    }
+
+                    var target = element.substring(0, separator).trim();
+
+                    try {
+                        result.put(target, (long) (Double.parseDouble(element.substring(separator + 1).trim()) * 1024 * 1024 * 1024));
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+
+                return result;
+            };
 }
@@ -0,0 +1,64 @@
+package net.okocraft.zipbackup.core;
+
+import com.github.siroshun09.configapi.api.Configuration;
+import net.okocraft.zipbackup.archive.ArchiveWriter;
+import net.okocraft.zipbackup.archive.CompressionPolicy;
+import net.okocraft.zipbackup.archive.ParallelZipWriter;
+import net.okocraft.zipbackup.catalog.BackupCatalog;
+import net.okocraft.zipbackup.dedup.ChunkStore;
+import net.okocraft.zipbackup.metrics.BackupMetrics;
+import net.okocraft.zipbackup.metrics.JobMetrics;
+import net.okocraft.zipbackup.scan.TreeScanner;
+import net.okocraft.zipbackup.throttle.IoThrottle;
+import net.okocraft.zipbackup.throttle.LoadAwareThrottle;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.logging.Logger;
+
+/**
+ * Provides the settings, directories and workers that the backup engine runs with.
+ * <p>
+ * It is implemented by the plugin on a running server, and by the command line launcher for offline runs.
+ * Nothing in the engine may depend on the server API.
+ */
+public interface BackupEnvironment {
+
+    @NotNull Logger getLogger();
+
+    @NotNull Configuration getConfiguration();
+
+    @NotNull Path getBackupDirectory();
+
+    @NotNull BackupCatalog getCatalog();
+
+    /**
+     * Returns the directory where worlds are staged while they are backed up.
+     */
+    @NotNull Path getStagingDirectory();
+
+    @NotNull CompressionPolicy getCompressionPolicy();
+
+    @NotNull ChunkStore getChunkStore();
+
+    @Nullable ChunkStore getChunkStoreIfOpened();
+
+    @NotNull TreeScanner getTreeScanner();
+
+    @NotNull ParallelZipWriter createZipWriter(@NotNull Path file) throws IOException;
+
+    /**
+     * Creates a new archive named after the current time in the directory, in the configured format.
+     */
+    @NotNull ArchiveWriter createArchive(@NotNull Path directory, @NotNull IoThrottle throttle,
+                                         @NotNull JobMetrics jobMetrics) throws IOException;
+
+    /**
+     * Creates the throttle for a single backup task.
+     */
+    @NotNull LoadAwareThrottle createTaskThrottle();
+
+    @NotNull BackupMetrics getMetrics();
+}
@@ -0,0 +1,136 @@
+package net.okocraft.zipbackup.core;
+
+import net.okocraft.zipbackup.catalog.BackupRecord;
+import net.okocraft.zipbackup.config.Settings;
+import net.okocraft.zipbackup.dedup.ChunkId;
+import net.okocraft.zipbackup.dedup.ChunkStore;
+import net.okocraft.zipbackup.dedup.Snapshot;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Level;
+
+/**
+ * Deletes expired backups and backups over the quota, and the chunks that are no longer referenced by any snapshot.
+ */
+public final class BackupPurge {
+
+    private final BackupEnvironment environment;
+
+    public BackupPurge(@NotNull BackupEnvironment environment) {
+        this.environment = environment;
+    }
+
+    public void run() {
+        var logger = environment.getLogger();
+
+        logger.info("Starting delete expired backups task...");
+        long start = System.currentTimeMillis();
+        int deleted = 0;
+
+        var deleter = new ExpiredBackupDeleter(
+                environment.getConfiguration().get(Settings.BACKUP_PURGE_EXPIRATION_DAYS),
+                environment.getConfiguration().get(Settings.BACKUP_DIFFERENTIAL)
+        );
+
+        try {
+            deleted = deleter.deleteExpired(environment.getCatalog());
+        } catch (Exception exception) {
+            logger.log(
+                    Level.SEVERE,
+                    "An error occurred while deleting files.",
+                    exception
+            );
+        }
+
+        var quota = new QuotaEnforcer(environment);
+
+        if (quota.isEnabled()) {
+            try {
+                int overQuota = quota.enforce(null, 0);
+
+                if (overQuota != 0) {
+                    logger.info("Backups over the quota (" + overQuota + ") has been deleted.");
+                }
+            } catch (IOException exception) {
+                logger.log(
+                        Level.SEVERE,
+                        "An error occurred while deleting backups over the quota.",
+                        exception
+                );
+            }
+        }
+
+        var chunkStore = environment.getChunkStoreIfOpened();
+
+        if (chunkStore != null) {
+            deleteUnreferencedChunks(chunkStore);
+        }
+
+        long end = System.currentTimeMillis();
+
+        var log =
+                deleted == 0 ?
+                        "No expired files has been deleted." :
+                        "Expired files (" + deleted + ") has been deleted.";
+
+        logger.info(log + " (" + (end - start) + "ms)");
+    }
+
+    private void deleteUnreferencedChunks(@NotNull ChunkStore chunkStore) {
+        try {
+            int deletedPacks = chunkStore.deleteUnreferencedPacks(this::collectReferencedChunks);
+
+            if (deletedPacks != 0) {
+                environment.getLogger().info("Unreferenced pack files (" + deletedPacks + ") has been deleted.");
+            }
+        } catch (IOException exception) {
+            environment.getLogger().log(
+                    Level.SEVERE,
+                    "An error occurred while deleting unreferenced chunks.",
+                    exception
+            );
+        }
+    }
+
+    private @NotNull Set<ChunkId> collectReferencedChunks() throws IOException {
+        var catalog = environment.getCatalog();
+        var referenced = new HashSet<ChunkId>();
+
+        var snapshots = new HashSet<Path>();
+
+        for (var record : catalog.list()) {
+            if (record.kind() == BackupRecord.Kind.SNAPSHOT) {
+                snapshots.add(catalog.resolve(record).toAbsolutePath().normalize());
+            }
+        }
+
+        // snapshots of backups that have been written but are not in the catalog yet
+        try (var targets = Files.newDirectoryStream(catalog.getBackupDirectory(), Files::isDirectory)) {
+            for (var target : targets) {
+                // the chunk store and the trash
+                if (target.getFileName().toString().startsWith(".")) {
+                    continue;
+                }
+
+                try (var list = Files.newDirectoryStream(target, "*" + Snapshot.FILE_SUFFIX)) {
+                    for (var snapshot : list) {
+                        snapshots.add(snapshot.toAbsolutePath().normalize());
+                    }
+                }
+            }
+        }
+
+        for (var snapshot : snapshots) {
+            if (Files.isRegularFile(snapshot)) {
+                Snapshot.read(snapshot).files().forEach(file -> referenced.addAll(file.chunks()));
+            }
+        }
+
+        return referenced;
+    }
+}
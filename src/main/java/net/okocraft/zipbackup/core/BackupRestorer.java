@@ -0,0 +1,187 @@
+package net.okocraft.zipbackup.core;
+
+import net.okocraft.zipbackup.archive.ArchiveFormat;
+import net.okocraft.zipbackup.archive.ArchiveWriter;
+import net.okocraft.zipbackup.archive.TarArchiveReader;
+import net.okocraft.zipbackup.archive.ZipArchiveReader;
+import net.okocraft.zipbackup.archive.ZipArchiveWriter;
+import net.okocraft.zipbackup.config.Settings;
+import net.okocraft.zipbackup.dedup.ChunkStore;
+import net.okocraft.zipbackup.dedup.Snapshot;
+import net.okocraft.zipbackup.region.RegionDelta;
+import net.okocraft.zipbackup.util.FilePathFactory;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.ZipException;
+
+/**
+ * Restores backups of any type into a single archive.
+ */
+public final class BackupRestorer {
+
+    private final BackupEnvironment environment;
+
+    public BackupRestorer(@NotNull BackupEnvironment environment) {
+        this.environment = environment;
+    }
+
+    /**
+     * Restores the backup into the target archive, detecting how it has been created.
+     * Restored backups are always zipped, full backups are copied in the format they were written in.
+     */
+    public void restore(@NotNull Path source, @NotNull Path target) throws IOException {
+        if (source.getFileName().toString().endsWith(Snapshot.FILE_SUFFIX)) {
+            restoreSnapshot(source, target);
+        } else if (environment.getConfiguration().get(Settings.BACKUP_DIFFERENTIAL)) {
+            if (Files.isDirectory(source)) {
+                zipDirectory(source, target);
+            } else {
+                Path fullBackupDir;
+
+                try {
+                    fullBackupDir = getFullBackupDirectory(source);
+                } catch (DateTimeParseException e) {
+                    throw new IOException("Not a backup file: " + source.getFileName(), e);
+                }
+
+                if (!Files.isDirectory(fullBackupDir)) {
+                    throw new NoSuchFileException(fullBackupDir.toAbsolutePath().toString(), null, "The full backup is not found");
+                }
+
+                restoreDifferential(source, fullBackupDir, target);
+            }
+        } else {
+            Files.copy(source, target);
+        }
+    }
+
+    /**
+     * Returns the base that the differential backup has been created from.
+     *
+     * @throws DateTimeParseException if the file is not named after the time it has been created
+     */
+    public static @NotNull Path getFullBackupDirectory(@NotNull Path source) {
+        var date = LocalDateTime.parse(
+                ArchiveFormat.removeExtension(source.getFileName().toString()),
+                FilePathFactory.FILENAME_FORMAT
+        ).toLocalDate();
+
+        return source.getParent().resolve("full-backup-" + DateTimeFormatter.ISO_LOCAL_DATE.format(date));
+    }
+
+    public void zipDirectory(@NotNull Path source, @NotNull Path target) throws IOException {
+        try (var zip = environment.createZipWriter(target);
+             var scan = environment.getTreeScanner().scan(source)) {
+            for (var file : scan) {
+                if (file.attributes().isRegularFile()) {
+                    zip.addFile(file.path(), source.relativize(file.path()), file.attributes());
+                }
+            }
+        }
+    }
+
+    public void restoreSnapshot(@NotNull Path source, @NotNull Path target) throws IOException {
+        var openedStore = environment.getChunkStoreIfOpened();
+
+        try (var temporaryStore = openedStore == null ? ChunkStore.open(environment.getBackupDirectory().resolve(ChunkStore.DIRECTORY_NAME)) : null;
+             var zip = environment.createZipWriter(target)) {
+            var store = openedStore != null ? openedStore : temporaryStore;
+
+            for (var file : Snapshot.read(source).files()) {
+                try (var in = store.openStream(file.chunks())) {
+                    zip.addStream(Path.of(file.path()), file.lastModified(), file.size(), in);
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Restores the differential backup by streaming it over its base into the target archive in one pass.
+     * <p>
+     * The entries of the differential backup are written first, and only their names are kept in memory
+     * so that the files of the base they replace are skipped afterwards. Region deltas are applied to
+     * the region file of the base while they are read, and the other entries of zip archives are copied
+     * without being recompressed.
+     */
+    public void restoreDifferential(@NotNull Path source, @NotNull Path fullBackupDir, @NotNull Path target) throws IOException {
+        var overridden = new HashSet<String>();
+        var format = ArchiveFormat.fromFileName(source.getFileName().toString());
+
+        try (var zip = environment.createZipWriter(target)) {
+            if (format != null && format.isTar()) {
+                TarArchiveReader.read(source, format, (name, lastModified, size, in) ->
+                        writeDiffEntry(zip, fullBackupDir, name, lastModified, size, in, overridden));
+            } else {
+                try (var diff = ZipArchiveReader.open(source)) {
+                    for (var entry : diff.getEntries()) {
+                        if (entry.isDirectory()) {
+                            continue;
+                        }
+
+                        if (entry.name().endsWith(RegionDelta.ENTRY_SUFFIX)) {
+                            try (var in = diff.openStream(entry)) {
+                                writeDiffEntry(zip, fullBackupDir, entry.name(), entry.lastModified(), entry.size(), in, overridden);
+                            }
+                        } else {
+                            // changed files are already compressed in the diff archive
+                            zip.copyEntry(diff, entry);
+                            overridden.add(entry.name());
+                        }
+                    }
+                }
+            }
+
+            try (var scan = environment.getTreeScanner().scan(fullBackupDir)) {
+                for (var file : scan) {
+                    var relative = fullBackupDir.relativize(file.path());
+
+                    if (file.attributes().isRegularFile() && !overridden.contains(ZipArchiveWriter.toEntryName(relative))) {
+                        zip.addFile(file.path(), relative, file.attributes());
+                    }
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void writeDiffEntry(@NotNull ArchiveWriter zip, @NotNull Path fullBackupDir,
+                                       @NotNull String name, long lastModified, long size, @NotNull InputStream in,
+                                       @NotNull Set<String> overridden) throws IOException {
+        if (name.endsWith(RegionDelta.ENTRY_SUFFIX)) {
+            var regionName = name.substring(0, name.length() - RegionDelta.ENTRY_SUFFIX.length());
+            var region = RegionDelta.rebuild(resolveEntry(fullBackupDir, regionName), in);
+
+            zip.addStream(Path.of(regionName), lastModified, region.length, new ByteArrayInputStream(region));
+            overridden.add(regionName);
+        } else {
+            zip.addStream(Path.of(name), lastModified, size, in);
+            overridden.add(name);
+        }
+    }
+
+    private static @NotNull Path resolveEntry(@NotNull Path directory, @NotNull String name) throws ZipException {
+        var root = directory.toAbsolutePath().normalize();
+        var file = root.resolve(name).normalize();
+
+        if (!file.startsWith(root)) {
+            throw new ZipException("Illegal entry name: " + name);
+        }
+
+        return file;
+    }
+}
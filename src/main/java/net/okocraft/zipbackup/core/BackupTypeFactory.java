@@ -0,0 +1,52 @@
+package net.okocraft.zipbackup.core;
+
+import net.okocraft.zipbackup.archive.ArchiveFactory;
+import net.okocraft.zipbackup.archive.ArchiveIndex;
+import net.okocraft.zipbackup.config.Settings;
+import net.okocraft.zipbackup.manifest.ContentDigest;
+import net.okocraft.zipbackup.metrics.JobMetrics;
+import net.okocraft.zipbackup.throttle.IoThrottle;
+import net.okocraft.zipbackup.type.BackupType;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.file.Path;
+import java.util.function.Predicate;
+
+final class BackupTypeFactory {
+
+    /**
+     * Creates the {@link BackupType} selected by {@code backup.type}.
+     */
+    static @NotNull BackupType create(@NotNull BackupEnvironment environment, @NotNull Predicate<Path> shouldIgnore,
+                                      @NotNull IoThrottle io, @NotNull JobMetrics metrics) {
+        var configuration = environment.getConfiguration();
+        boolean differential = configuration.get(Settings.BACKUP_DIFFERENTIAL);
+        ArchiveFactory archiveFactory = archiveDirectory -> {
+            var archive = environment.createArchive(archiveDirectory, io, metrics);
+            // the catalog reads the kind of the archive from its index when it is rebuilt
+            archive.enableIndex(environment.getLogger(), differential ? ArchiveIndex.FLAG_DIFFERENTIAL : 0);
+            return archive;
+        };
+
+        if (differential) {
+            boolean checkFileContent = configuration.get(Settings.BACKUP_CHECK_FILE_CONTENT);
+            boolean regionDelta = configuration.get(Settings.BACKUP_REGION_DELTA);
+            var contentDigest = configuration.get(Settings.BACKUP_CONTENT_DIGEST);
+
+            if (contentDigest == null) {
+                environment.getLogger().warning("Unknown content digest in backup.differential.content-digest, crc32c is used instead.");
+                contentDigest = ContentDigest.CRC32C;
+            }
+            var baseCopyMode = configuration.get(Settings.BACKUP_BASE_COPY_MODE);
+            return BackupType.differential(archiveFactory, environment.getTreeScanner(), shouldIgnore, checkFileContent, regionDelta, contentDigest, baseCopyMode, io, metrics);
+        } else if (configuration.get(Settings.BACKUP_DEDUPLICATE)) {
+            return BackupType.deduplicated(environment.getChunkStore(), environment.getCompressionPolicy(), environment.getTreeScanner(), shouldIgnore, io, metrics);
+        } else {
+            return BackupType.full(archiveFactory, environment.getTreeScanner(), shouldIgnore, metrics);
+        }
+    }
+
+    private BackupTypeFactory() {
+        throw new UnsupportedOperationException();
+    }
+}
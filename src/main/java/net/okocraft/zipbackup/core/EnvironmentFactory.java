@@ -0,0 +1,104 @@
+package net.okocraft.zipbackup.core;
+
+import com.github.siroshun09.configapi.yaml.YamlConfiguration;
+import net.okocraft.zipbackup.archive.ArchiveFormat;
+import net.okocraft.zipbackup.archive.ArchiveWriter;
+import net.okocraft.zipbackup.archive.CompressionPolicy;
+import net.okocraft.zipbackup.archive.ParallelZipWriter;
+import net.okocraft.zipbackup.archive.TarArchiveWriter;
+import net.okocraft.zipbackup.config.Settings;
+import net.okocraft.zipbackup.metrics.JobMetrics;
+import net.okocraft.zipbackup.throttle.BandwidthThrottle;
+import net.okocraft.zipbackup.throttle.IoThrottle;
+import net.okocraft.zipbackup.util.FilePathFactory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Creates the parts of a {@link BackupEnvironment} from the config, for the plugin and for the command line.
+ */
+public final class EnvironmentFactory {
+
+    public static @NotNull Path resolveBackupDirectory(@NotNull YamlConfiguration configuration, @NotNull Path dataFolder) {
+        var backupDirectoryPath = configuration.get(Settings.BACKUP_DIRECTORY);
+        return backupDirectoryPath.isEmpty() ? dataFolder.resolve("backups") : Path.of(backupDirectoryPath);
+    }
+
+    public static @NotNull CompressionPolicy createCompressionPolicy(@NotNull YamlConfiguration configuration) {
+        return new CompressionPolicy(
+                configuration.get(Settings.COMPRESSION_LEVEL).getLevel(),
+                configuration.get(Settings.COMPRESSION_LEVEL_BY_EXTENSION),
+                configuration.get(Settings.COMPRESSION_DETECT_INCOMPRESSIBLE)
+        );
+    }
+
+    /**
+     * Creates the throttle shared by all backups.
+     *
+     * @param recentTickDuration the recent tick duration of the server, or {@code null} if it is unknown,
+     *                           in which case the bandwidth is not adapted to the server load
+     */
+    public static @NotNull IoThrottle createIoThrottle(@NotNull YamlConfiguration configuration,
+                                                       @Nullable DoubleSupplier recentTickDuration) {
+        long readRate = configuration.get(Settings.THROTTLE_READ_BYTES_PER_SECOND);
+        long writeRate = configuration.get(Settings.THROTTLE_WRITE_BYTES_PER_SECOND);
+        boolean adaptive = recentTickDuration != null && configuration.get(Settings.THROTTLE_ADAPTIVE);
+
+        if (readRate <= 0 && writeRate <= 0 && !adaptive) {
+            return IoThrottle.UNLIMITED;
+        }
+
+        return new BandwidthThrottle(
+                readRate,
+                writeRate,
+                adaptive ? recentTickDuration : null,
+                configuration.get(Settings.THROTTLE_ADAPTIVE_TICK_DURATION)
+        );
+    }
+
+    public static @NotNull ParallelZipWriter createZipWriter(@NotNull BackupEnvironment environment, @NotNull Path file,
+                                                             @NotNull ExecutorService compressionExecutor,
+                                                             @NotNull IoThrottle throttle, @NotNull JobMetrics jobMetrics) throws IOException {
+        return new ParallelZipWriter(
+                file,
+                environment.getCompressionPolicy(),
+                compressionExecutor,
+                environment.getConfiguration().get(Settings.COMPRESSION_WORKERS),
+                throttle,
+                jobMetrics
+        );
+    }
+
+    /**
+     * Creates a new archive of the configured format in the directory.
+     */
+    public static @NotNull ArchiveWriter createArchive(@NotNull BackupEnvironment environment, @NotNull Path directory,
+                                                       @NotNull ExecutorService compressionExecutor,
+                                                       @NotNull IoThrottle throttle, @NotNull JobMetrics jobMetrics) throws IOException {
+        var configuration = environment.getConfiguration();
+        var format = configuration.get(Settings.ARCHIVE_FORMAT);
+        var file = FilePathFactory.newBackupFile(directory, format.getExtension());
+
+        if (format == ArchiveFormat.ZIP) {
+            return createZipWriter(environment, file, compressionExecutor, throttle, jobMetrics);
+        }
+
+        return new TarArchiveWriter(
+                file,
+                format,
+                configuration.get(Settings.ZSTD_LEVEL),
+                configuration.get(Settings.COMPRESSION_WORKERS),
+                throttle,
+                jobMetrics
+        );
+    }
+
+    private EnvironmentFactory() {
+        throw new UnsupportedOperationException();
+    }
+}
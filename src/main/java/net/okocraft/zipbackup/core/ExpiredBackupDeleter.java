@@ -0,0 +1,66 @@
+package net.okocraft.zipbackup.core;
+
+import net.okocraft.zipbackup.catalog.BackupCatalog;
+import net.okocraft.zipbackup.catalog.BackupRecord;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * Finds the backups and differential bases that have expired in the catalog and deletes them through it.
+ */
+public final class ExpiredBackupDeleter {
+
+    private final int expirationDays;
+    private final boolean deleteFullBackups;
+
+    /**
+     * @param expirationDays    the number of days after which backups expire
+     * @param deleteFullBackups whether to delete expired {@code full-backup-<date>} directories of differential backups
+     */
+    public ExpiredBackupDeleter(int expirationDays, boolean deleteFullBackups) {
+        this.expirationDays = expirationDays;
+        this.deleteFullBackups = deleteFullBackups;
+    }
+
+    /**
+     * Deletes the expired backups of every target in the catalog.
+     *
+     * @return the number of deleted backups
+     */
+    public int deleteExpired(@NotNull BackupCatalog catalog) throws IOException {
+        var today = LocalDate.now();
+        var expired = new ArrayList<BackupRecord>();
+        var expiredBases = new ArrayList<BackupRecord>();
+        var referencedBases = new HashSet<String>();
+
+        for (var record : catalog.list()) {
+            var date = LocalDate.ofInstant(Instant.ofEpochMilli(record.timestamp()), ZoneId.systemDefault());
+
+            if (expirationDays > ChronoUnit.DAYS.between(date, today)) {
+                if (record.base() != null) {
+                    referencedBases.add(record.target() + '/' + record.base());
+                }
+            } else if (record.kind() != BackupRecord.Kind.BASE) {
+                expired.add(record);
+            } else if (deleteFullBackups) {
+                expiredBases.add(record);
+            }
+        }
+
+        // a base is kept as long as a differential backup that has not expired depends on it
+        for (var base : expiredBases) {
+            if (!referencedBases.contains(base.target() + '/' + base.name())) {
+                expired.add(base);
+            }
+        }
+
+        return expired.isEmpty() ? 0 : catalog.delete(expired);
+    }
+}
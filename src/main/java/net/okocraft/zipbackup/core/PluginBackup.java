@@ -0,0 +1,122 @@
+package net.okocraft.zipbackup.core;
+
+import net.okocraft.zipbackup.config.Settings;
+import net.okocraft.zipbackup.metrics.JobMetrics;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.logging.Level;
+
+/**
+ * Backs up the plugins folder of the server.
+ */
+public final class PluginBackup {
+
+    private final BackupEnvironment environment;
+    private final Path pluginDirectory;
+
+    public PluginBackup(@NotNull BackupEnvironment environment, @NotNull Path pluginDirectory) {
+        this.environment = environment;
+        this.pluginDirectory = pluginDirectory;
+    }
+
+    /**
+     * Runs the backup.
+     *
+     * @return whether the backup has been created, or the plugins folder does not exist
+     */
+    public boolean run() {
+        var metrics = environment.getMetrics().startJob("plugins");
+        boolean succeeded = false;
+
+        try {
+            succeeded = backup(metrics);
+        } finally {
+            metrics.finish(succeeded);
+        }
+
+        return succeeded;
+    }
+
+    private boolean backup(@NotNull JobMetrics metrics) {
+        var logger = environment.getLogger();
+
+        logger.info("Starting backup task for plugins...");
+        long start = System.currentTimeMillis();
+        var throttle = environment.createTaskThrottle();
+        var io = metrics.meter(throttle);
+
+        try {
+            throttle.awaitStart();
+        } catch (InterruptedIOException e) {
+            logger.info("Backup task for plugins has been cancelled while waiting for the server load to go down.");
+            return false;
+        }
+
+        if (!Files.exists(pluginDirectory)) {
+            return true;
+        }
+
+        new QuotaEnforcer(environment).reserve("plugins");
+
+        var type = BackupTypeFactory.create(environment, this::shouldIgnore, io, metrics);
+
+        try {
+            var record = type.backup(pluginDirectory, environment.getBackupDirectory().resolve("plugins"));
+
+            if (record != null) {
+                environment.getCatalog().add(record);
+            }
+        } catch (Exception e) {
+            logger.log(
+                    Level.SEVERE,
+                    "An error occurred while backing up to zip",
+                    e
+            );
+            return false;
+        }
+
+        var truncatedFiles = metrics.getTruncatedFiles();
+
+        if (!truncatedFiles.isEmpty()) {
+            logger.warning("Files that have been truncated while being backed up (" + truncatedFiles.size() + ") are padded with zeros in the backup of plugins: " + truncatedFiles);
+        }
+
+        long end = System.currentTimeMillis();
+        logger.info("Backup task for plugins has been finished. (" + (end - start) + "ms" + metrics.getSummary() + throttle.getSummary() + ")");
+        return true;
+    }
+
+    private boolean shouldIgnore(@NotNull Path path) {
+        if (path.toAbsolutePath().startsWith(environment.getBackupDirectory().toAbsolutePath()) ||
+                path.toAbsolutePath().startsWith(environment.getStagingDirectory().toAbsolutePath())) {
+            return true;
+        }
+
+        var strPath = path.toString();
+
+        if (strPath.startsWith("plugins/")) {
+            strPath = strPath.substring("plugins/".length());
+        }
+
+        if (strPath.startsWith("ZipBackup") && strPath.endsWith(".zip")) {
+            return true;
+        }
+
+        var configuration = environment.getConfiguration();
+
+        if (configuration.get(Settings.BACKUP_PLUGIN_IGNORE_JAR_FILES) && strPath.endsWith(".jar")) {
+            return true;
+        }
+
+        for (var exclude : configuration.get(Settings.BACKUP_PLUGIN_EXCLUDE_FOLDERS)) {
+            if (strPath.equals(exclude) || strPath.startsWith(exclude)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
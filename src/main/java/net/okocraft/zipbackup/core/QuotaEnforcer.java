@@ -0,0 +1,217 @@
+package net.okocraft.zipbackup.core;
+
+import net.okocraft.zipbackup.catalog.BackupRecord;
+import net.okocraft.zipbackup.config.Settings;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Keeps the backups within the byte budgets of {@code backup.purge.quota} by deleting the oldest backups
+ * that no other backup depends on.
+ * <p>
+ * A base is only deleted after every differential backup written against it. The newest backup of each target,
+ * and its newest base that the next differential backups are written against, are always kept.
+ * Files that a base has hardlinked to the previous base are counted once, from the sizes recorded when the base
+ * was written, and are freed only with the last base that links them.
+ * The chunk store of deduplicated backups is not counted.
+ */
+final class QuotaEnforcer {
+
+    private static final long DELETION_TIMEOUT_MINUTES = 10;
+
+    private final BackupEnvironment environment;
+    private final long totalBudget;
+    private final Map<String, Long> targetBudgets;
+
+    QuotaEnforcer(@NotNull BackupEnvironment environment) {
+        this.environment = environment;
+        this.totalBudget = environment.getConfiguration().get(Settings.BACKUP_QUOTA_TOTAL_BYTES);
+        this.targetBudgets = environment.getConfiguration().get(Settings.BACKUP_QUOTA_BYTES_BY_TARGET);
+    }
+
+    boolean isEnabled() {
+        return 0 < totalBudget || targetBudgets.values().stream().anyMatch(budget -> 0 < budget);
+    }
+
+    /**
+     * Makes room for the next backup of the target, which is expected to be as large as its previous backup
+     * of the same kind, and waits until the deleted backups have been removed from the disk.
+     */
+    void reserve(@NotNull String target) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        var logger = environment.getLogger();
+
+        try {
+            int deleted = enforce(target, estimateNextSize(target));
+
+            if (deleted != 0) {
+                logger.info("Backups over the quota (" + deleted + ") has been deleted before backing up " + target + ".");
+
+                if (!environment.getCatalog().awaitDeletions(DELETION_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+                    logger.warning("The deleted backups are still being removed from the disk.");
+                }
+            }
+        } catch (IOException exception) {
+            logger.log(
+                    Level.SEVERE,
+                    "An error occurred while deleting backups over the quota.",
+                    exception
+            );
+        }
+    }
+
+    /**
+     * Deletes the oldest backups until every target and the total fit into their budgets.
+     *
+     * @param reservingTarget the target that is about to be backed up, or {@code null}
+     * @param reserve         the bytes to keep free for the backup of the target
+     * @return the number of deleted backups
+     */
+    int enforce(@Nullable String reservingTarget, long reserve) throws IOException {
+        var catalog = environment.getCatalog();
+        var remaining = catalog.list();
+        var usage = new HashMap<String, Long>();
+        var references = new HashMap<String, Integer>();
+        var newest = new HashMap<String, BackupRecord>();
+        var newestBase = new HashMap<String, BackupRecord>();
+        var present = new HashSet<String>();
+        long total = 0;
+
+        for (var record : remaining) {
+            present.add(getKey(record.target(), record.name()));
+        }
+
+        for (var record : remaining) {
+            long size = getCountedSize(record, present);
+
+            usage.merge(record.target(), size, Long::sum);
+            total += size;
+
+            if (record.base() != null) {
+                references.merge(getKey(record.target(), record.base()), 1, Integer::sum);
+            }
+
+            // the list is sorted from the oldest
+            newest.put(record.target(), record);
+
+            if (record.kind() == BackupRecord.Kind.BASE) {
+                newestBase.put(record.target(), record);
+            }
+        }
+
+        long totalReserve = reservingTarget != null ? reserve : 0;
+        var evicted = new ArrayList<BackupRecord>();
+        boolean found = true;
+
+        while (found) {
+            found = false;
+
+            for (var iterator = remaining.iterator(); iterator.hasNext(); ) {
+                var record = iterator.next();
+                var target = record.target();
+                long targetReserve = target.equals(reservingTarget) ? reserve : 0;
+
+                if (!isOver(totalBudget, total + totalReserve) &&
+                        !isOver(targetBudgets.getOrDefault(target, 0L), usage.get(target) + targetReserve)) {
+                    continue;
+                }
+
+                if (record == newest.get(target) || record == newestBase.get(target) ||
+                        0 < references.getOrDefault(getKey(target, record.name()), 0)) {
+                    continue;
+                }
+
+                iterator.remove();
+                evicted.add(record);
+
+                long freed = getCountedSize(record, present);
+                present.remove(getKey(target, record.name()));
+
+                // the files linked from the deleted base are now counted with the bases that link them
+                for (var other : remaining) {
+                    if (other.target().equals(target) && record.name().equals(other.linkedBase())) {
+                        freed -= other.linkedSize();
+                    }
+                }
+
+                usage.merge(target, -freed, Long::sum);
+                total -= freed;
+
+                if (record.base() != null) {
+                    references.merge(getKey(target, record.base()), -1, Integer::sum);
+                }
+
+                // starts again from the oldest, since the base of the deleted backup may no longer be referenced
+                found = true;
+                break;
+            }
+        }
+
+        if (isOver(totalBudget, total + totalReserve)) {
+            environment.getLogger().warning("The backups cannot be reduced to the total quota without deleting the newest backups.");
+        }
+
+        return evicted.isEmpty() ? 0 : catalog.delete(evicted);
+    }
+
+    private long estimateNextSize(@NotNull String target) {
+        var records = environment.getCatalog().list(target);
+
+        if (records.isEmpty()) {
+            return 0;
+        }
+
+        var kind = getNextKind(target);
+
+        for (int i = records.size() - 1; 0 <= i; i--) {
+            if (records.get(i).kind() == kind) {
+                return records.get(i).size();
+            }
+        }
+
+        return records.get(records.size() - 1).size();
+    }
+
+    // the kind of backup that the BackupType selected by BackupTypeFactory writes next
+    private @NotNull BackupRecord.Kind getNextKind(@NotNull String target) {
+        var configuration = environment.getConfiguration();
+
+        if (configuration.get(Settings.BACKUP_DIFFERENTIAL)) {
+            var base = "full-backup-" + DateTimeFormatter.ISO_LOCAL_DATE.format(LocalDate.now());
+            return environment.getCatalog().find(target, base) != null ? BackupRecord.Kind.DIFFERENTIAL : BackupRecord.Kind.BASE;
+        } else if (configuration.get(Settings.BACKUP_DEDUPLICATE)) {
+            return BackupRecord.Kind.SNAPSHOT;
+        } else {
+            return BackupRecord.Kind.FULL;
+        }
+    }
+
+    // the linked files of a base are counted with the base they are linked to, as long as it has not been deleted
+    private static long getCountedSize(@NotNull BackupRecord record, @NotNull Set<String> present) {
+        return record.linkedBase() != null && present.contains(getKey(record.target(), record.linkedBase())) ?
+                record.size() - record.linkedSize() :
+                record.size();
+    }
+
+    private static boolean isOver(long budget, long usage) {
+        return 0 < budget && budget < usage;
+    }
+
+    private static @NotNull String getKey(@NotNull String target, @NotNull String name) {
+        return target + '/' + name;
+    }
+}
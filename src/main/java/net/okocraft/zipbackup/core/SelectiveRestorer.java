@@ -0,0 +1,330 @@
+package net.okocraft.zipbackup.core;
+
+import net.okocraft.zipbackup.archive.ArchiveFormat;
+import net.okocraft.zipbackup.archive.ArchiveIndex;
+import net.okocraft.zipbackup.archive.TarArchiveReader;
+import net.okocraft.zipbackup.archive.ZipArchiveReader;
+import net.okocraft.zipbackup.archive.ZipArchiveWriter;
+import net.okocraft.zipbackup.catalog.BackupRecord;
+import net.okocraft.zipbackup.dedup.ChunkStore;
+import net.okocraft.zipbackup.dedup.Snapshot;
+import net.okocraft.zipbackup.region.RegionDelta;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipException;
+
+/**
+ * Restores only the files of a backup that match the given paths or globs, such as {@code playerdata/<uuid>.dat}
+ * or {@code region/r.*.mca}, without restoring the whole backup.
+ * <p>
+ * Zip archives are looked up in their index or central directory and only the matching entries are read.
+ * Differential backups are restored from their base, unless the file has changed since the base.
+ * Each file is written next to its destination first and then moved over it, so it can be restored in place.
+ */
+public final class SelectiveRestorer {
+
+    private static final String TEMPORARY_SUFFIX = ".restoring";
+
+    private final BackupEnvironment environment;
+
+    public SelectiveRestorer(@NotNull BackupEnvironment environment) {
+        this.environment = environment;
+    }
+
+    /**
+     * Restores the matching files of the backup into the target directory, replacing the existing files.
+     *
+     * @param patterns the paths or globs, relative to the world or plugins folder and separated by {@code /}
+     * @return the restored paths
+     */
+    public @NotNull List<String> restore(@NotNull BackupRecord record, @NotNull List<String> patterns,
+                                         @NotNull Path targetDir) throws IOException {
+        var selection = new Selection(patterns);
+        var source = environment.getCatalog().resolve(record);
+        var restored = new ArrayList<String>();
+
+        if (Files.notExists(source)) {
+            throw new NoSuchFileException(source.toAbsolutePath().toString(), null, "The backup is not found");
+        }
+
+        Files.createDirectories(targetDir);
+
+        try {
+            switch (record.kind()) {
+                case FULL -> restoreArchive(source, null, selection, targetDir, restored);
+                case BASE -> restoreDirectory(source, selection, targetDir, restored);
+                case SNAPSHOT -> restoreSnapshot(source, selection, targetDir, restored);
+                case DIFFERENTIAL -> {
+                    var fullBackupDir = record.base() != null ? environment.getBackupDirectory().resolve(record.target()).resolve(record.base()) : null;
+
+                    if (fullBackupDir == null || !Files.isDirectory(fullBackupDir)) {
+                        throw new NoSuchFileException(String.valueOf(fullBackupDir), null, "The full backup is not found");
+                    }
+
+                    restoreArchive(source, fullBackupDir, selection, targetDir, restored);
+
+                    // the files that have not changed since the base
+                    var restoredNames = new HashSet<>(restored);
+                    restoreDirectory(fullBackupDir, selection.excluding(restoredNames), targetDir, restored);
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        return restored;
+    }
+
+    private void restoreArchive(@NotNull Path source, @Nullable Path fullBackupDir,
+                                @NotNull Selection selection, @NotNull Path targetDir,
+                                @NotNull List<String> restored) throws IOException {
+        var format = ArchiveFormat.fromFileName(source.getFileName().toString());
+
+        if (format != null && format.isTar()) {
+            var index = ArchiveIndex.open(source);
+
+            if (index != null && !selection.hasGlob() &&
+                    selection.getPaths().stream().noneMatch(path -> index.find(path) != null || index.find(path + RegionDelta.ENTRY_SUFFIX) != null)) {
+                return;
+            }
+
+            // tar archives cannot be read at an offset, so the whole archive is read, but only the matching entries are written
+            TarArchiveReader.read(source, format, (name, lastModified, size, in) ->
+                    restoreEntry(fullBackupDir, selection, targetDir, name, lastModified, in, restored));
+            return;
+        }
+
+        try (var archive = ZipArchiveReader.open(source)) {
+            if (selection.hasGlob()) {
+                for (var entry : archive.getEntries()) {
+                    if (!entry.isDirectory() && selection.matches(getFileName(entry.name()))) {
+                        restoreZipEntry(archive, entry, fullBackupDir, selection, targetDir, restored);
+                    }
+                }
+                return;
+            }
+
+            for (var path : selection.getPaths()) {
+                var entry = archive.find(path);
+
+                if (entry == null && fullBackupDir != null) {
+                    entry = archive.find(path + RegionDelta.ENTRY_SUFFIX);
+                }
+
+                if (entry != null) {
+                    restoreZipEntry(archive, entry, fullBackupDir, selection, targetDir, restored);
+                }
+            }
+        }
+    }
+
+    private void restoreZipEntry(@NotNull ZipArchiveReader archive, @NotNull ZipArchiveReader.Entry entry,
+                                 @Nullable Path fullBackupDir, @NotNull Selection selection, @NotNull Path targetDir,
+                                 @NotNull List<String> restored) throws IOException {
+        try (var in = archive.openStream(entry)) {
+            restoreEntry(fullBackupDir, selection, targetDir, entry.name(), entry.lastModified(), in, restored);
+        }
+    }
+
+    private void restoreEntry(@Nullable Path fullBackupDir, @NotNull Selection selection,
+                              @NotNull Path targetDir, @NotNull String name, long lastModified, @NotNull InputStream in,
+                              @NotNull List<String> restored) throws IOException {
+        var fileName = getFileName(name);
+
+        if (!selection.matches(fileName)) {
+            return;
+        }
+
+        if (fullBackupDir != null && name.endsWith(RegionDelta.ENTRY_SUFFIX)) {
+            var region = RegionDelta.rebuild(resolve(fullBackupDir, fileName), in);
+            write(targetDir, fileName, lastModified, new ByteArrayInputStream(region));
+        } else {
+            write(targetDir, fileName, lastModified, in);
+        }
+
+        restored.add(fileName);
+    }
+
+    private void restoreDirectory(@NotNull Path source, @NotNull Selection selection, @NotNull Path targetDir,
+                                  @NotNull List<String> restored) throws IOException {
+        var names = new ArrayList<String>();
+
+        if (selection.hasGlob()) {
+            try (var scan = environment.getTreeScanner().scan(source)) {
+                for (var file : scan) {
+                    var name = ZipArchiveWriter.toEntryName(source.relativize(file.path()));
+
+                    if (file.attributes().isRegularFile() && selection.matches(name)) {
+                        names.add(name);
+                    }
+                }
+            }
+        } else {
+            for (var name : selection.getPaths()) {
+                if (Files.isRegularFile(resolve(source, name))) {
+                    names.add(name);
+                }
+            }
+        }
+
+        for (var name : names) {
+            var file = resolve(source, name);
+
+            try (var in = Files.newInputStream(file)) {
+                write(targetDir, name, Files.getLastModifiedTime(file).toMillis(), in);
+            }
+
+            restored.add(name);
+        }
+    }
+
+    private void restoreSnapshot(@NotNull Path source, @NotNull Selection selection, @NotNull Path targetDir,
+                                 @NotNull List<String> restored) throws IOException {
+        var openedStore = environment.getChunkStoreIfOpened();
+
+        try (var temporaryStore = openedStore == null ? ChunkStore.open(environment.getBackupDirectory().resolve(ChunkStore.DIRECTORY_NAME)) : null) {
+            var store = openedStore != null ? openedStore : temporaryStore;
+
+            for (var file : Snapshot.read(source).files()) {
+                if (!selection.matches(file.path())) {
+                    continue;
+                }
+
+                try (var in = store.openStream(file.chunks())) {
+                    write(targetDir, file.path(), file.lastModified(), in);
+                }
+
+                restored.add(file.path());
+            }
+        }
+    }
+
+    private static void write(@NotNull Path targetDir, @NotNull String name, long lastModified,
+                              @NotNull InputStream in) throws IOException {
+        var target = resolve(targetDir, name);
+        var temporary = target.resolveSibling(target.getFileName() + TEMPORARY_SUFFIX);
+
+        Files.createDirectories(target.getParent());
+
+        try {
+            Files.copy(in, temporary, StandardCopyOption.REPLACE_EXISTING);
+            Files.setLastModifiedTime(temporary, FileTime.fromMillis(lastModified));
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static @NotNull Path resolve(@NotNull Path directory, @NotNull String name) throws ZipException {
+        var root = directory.toAbsolutePath().normalize();
+        var file = root.resolve(name).normalize();
+
+        if (!file.startsWith(root) || file.equals(root)) {
+            throw new ZipException("Illegal entry name: " + name);
+        }
+
+        return file;
+    }
+
+    // the name of the file that the entry restores, which is the region file for region deltas
+    private static @NotNull String getFileName(@NotNull String name) {
+        return name.endsWith(RegionDelta.ENTRY_SUFFIX) ? name.substring(0, name.length() - RegionDelta.ENTRY_SUFFIX.length()) : name;
+    }
+
+    private static final class Selection {
+
+        private final Set<String> paths = new HashSet<>();
+        private final List<PathMatcher> globs = new ArrayList<>();
+        private final Set<String> excluded;
+
+        private Selection(@NotNull List<String> patterns) {
+            for (var pattern : patterns) {
+                var normalized = pattern.replace('\\', '/');
+
+                while (normalized.startsWith("/") || normalized.startsWith("./")) {
+                    normalized = normalized.substring(normalized.indexOf('/') + 1);
+                }
+
+                if (isGlob(normalized)) {
+                    globs.add(FileSystems.getDefault().getPathMatcher("glob:" + normalized));
+                } else {
+                    paths.add(normalized);
+                }
+            }
+
+            this.excluded = Set.of();
+        }
+
+        private Selection(@NotNull Selection selection, @NotNull Set<String> excluded) {
+            this.paths.addAll(selection.paths);
+            this.globs.addAll(selection.globs);
+            this.excluded = excluded;
+        }
+
+        private @NotNull Selection excluding(@NotNull Set<String> names) {
+            return new Selection(this, names);
+        }
+
+        private boolean hasGlob() {
+            return !globs.isEmpty();
+        }
+
+        private @NotNull List<String> getPaths() {
+            return paths.stream().filter(path -> !excluded.contains(path)).toList();
+        }
+
+        private boolean matches(@NotNull String name) {
+            if (excluded.contains(name)) {
+                return false;
+            }
+
+            if (paths.contains(name)) {
+                return true;
+            }
+
+            if (globs.isEmpty()) {
+                return false;
+            }
+
+            var path = Path.of(name);
+
+            for (var glob : globs) {
+                if (glob.matches(path)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        private static boolean isGlob(@NotNull String pattern) {
+            for (int i = 0; i < pattern.length(); i++) {
+                switch (pattern.charAt(i)) {
+                    case '*', '?', '[', '{' -> {
+                        return true;
+                    }
+                    default -> {
+                    }
+                }
+            }
+
+            return false;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package net.okocraft.zipbackup.core;
+
+import net.okocraft.zipbackup.config.Settings;
+import net.okocraft.zipbackup.metrics.JobMetrics;
+import net.okocraft.zipbackup.snapshot.StagingSnapshot;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.logging.Level;
+
+/**
+ * Backs up a single world folder.
+ */
+public final class WorldBackup {
+
+    private static final String SESSION_FILE_NAME = "session.lock";
+    private static final String OLD_FILE_SUFFIX = "_old";
+
+    private final BackupEnvironment environment;
+    private final String worldName;
+    private final Path worldFolder;
+    private final @Nullable LoadedWorld loadedWorld;
+
+    /**
+     * @param loadedWorld the world if it is loaded by a running server, or {@code null} if it is not in use
+     */
+    public WorldBackup(@NotNull BackupEnvironment environment, @NotNull String worldName,
+                       @NotNull Path worldFolder, @Nullable LoadedWorld loadedWorld) {
+        this.environment = environment;
+        this.worldName = worldName;
+        this.worldFolder = worldFolder;
+        this.loadedWorld = loadedWorld;
+    }
+
+    /**
+     * A world that the server may write to while it is backed up.
+     * The methods are called from the backup thread and must run on the thread that owns the world.
+     */
+    public interface LoadedWorld {
+
+        void save() throws Exception;
+
+        /**
+         * Saves the world if requested and turns autosave off, so that the server stops writing to the world folder.
+         *
+         * @return whether autosave was on
+         */
+        boolean suspendAutoSave(boolean save) throws Exception;
+
+        void setAutoSave(boolean autoSave) throws Exception;
+    }
+
+    /**
+     * Runs the backup.
+     *
+     * @return whether the backup has been created
+     */
+    public boolean run() {
+        var metrics = environment.getMetrics().startJob("world:" + worldName);
+        boolean succeeded = false;
+
+        try {
+            succeeded = backup(metrics);
+        } finally {
+            metrics.finish(succeeded);
+        }
+
+        return succeeded;
+    }
+
+    private boolean backup(@NotNull JobMetrics metrics) {
+        var logger = environment.getLogger();
+        var configuration = environment.getConfiguration();
+
+        logger.info("Starting backup task for world " + worldName);
+
+        long start = System.currentTimeMillis();
+        var throttle = environment.createTaskThrottle();
+        var io = metrics.meter(throttle);
+
+        try {
+            throttle.awaitStart();
+        } catch (InterruptedIOException e) {
+            logger.info("Backup task for world " + worldName + " has been cancelled while waiting for the server load to go down.");
+            return false;
+        }
+
+        new QuotaEnforcer(environment).reserve(worldName);
+
+        boolean useSnapshot = configuration.get(Settings.BACKUP_WORLD_SNAPSHOT);
+        var snapshot = useSnapshot ? takeSnapshot() : null;
+
+        if (useSnapshot && snapshot == null) {
+            return false;
+        }
+
+        if (!useSnapshot && loadedWorld != null && configuration.get(Settings.BACKUP_WORLD_SAVE_BEFORE_BACKUP)) {
+            try {
+                loadedWorld.save();
+            } catch (Exception exception) {
+                logger.log(
+                        Level.SEVERE,
+                        "An error occurred while saving the world (" + worldName + ")",
+                        exception
+                );
+                return false;
+            }
+        }
+
+        var directory = environment.getBackupDirectory().resolve(worldName);
+        var type = BackupTypeFactory.create(environment, this::shouldBeIgnored, io, metrics);
+        var source = snapshot != null ? snapshot.getDirectory() : worldFolder;
+
+        try (snapshot) {
+            var record = type.backup(source, directory);
+
+            if (record != null) {
+                environment.getCatalog().add(record);
+            }
+        } catch (Exception e) {
+            logger.log(
+                    Level.SEVERE,
+                    "An error occurred while creating the backup (" + worldName + ")",
+                    e
+            );
+            return false;
+        }
+
+        var truncatedFiles = metrics.getTruncatedFiles();
+
+        if (!truncatedFiles.isEmpty()) {
+            logger.warning("Files that have been truncated while being backed up (" + truncatedFiles.size() + ") are padded with zeros in the backup of world " + worldName + ": " + truncatedFiles);
+        }
+
+        long end = System.currentTimeMillis();
+        logger.info("Backup task for world " + worldName + " has been finished. (" + (end - start) + "ms" + metrics.getSummary() + throttle.getSummary() + ")");
+        return true;
+    }
+
+    private @Nullable StagingSnapshot takeSnapshot() {
+        var logger = environment.getLogger();
+        boolean save = environment.getConfiguration().get(Settings.BACKUP_WORLD_SAVE_BEFORE_BACKUP);
+        boolean autoSave = false;
+
+        if (loadedWorld != null) {
+            try {
+                autoSave = loadedWorld.suspendAutoSave(save);
+            } catch (Exception exception) {
+                logger.log(
+                        Level.SEVERE,
+                        "An error occurred while saving the world (" + worldName + ")",
+                        exception
+                );
+                return null;
+            }
+        }
+
+        long start = System.currentTimeMillis();
+
+        try {
+            var snapshot = StagingSnapshot.create(
+                    environment.getTreeScanner(),
+                    worldFolder,
+                    environment.getStagingDirectory().resolve(worldName),
+                    this::shouldBeIgnored
+            );
+
+            long end = System.currentTimeMillis();
+            logger.info("Snapshot of world " + worldName + " has been taken by " + (snapshot.isCloned() ? "reflinks" : "copying") + ". (" + (end - start) + "ms)");
+            return snapshot;
+        } catch (Exception e) {
+            logger.log(
+                    Level.SEVERE,
+                    "An error occurred while taking the snapshot (" + worldName + ")",
+                    e
+            );
+            return null;
+        } finally {
+            restoreAutoSave(autoSave);
+        }
+    }
+
+    private void restoreAutoSave(boolean autoSave) {
+        if (loadedWorld == null) {
+            return;
+        }
+
+        try {
+            loadedWorld.setAutoSave(autoSave);
+        } catch (Exception exception) {
+            environment.getLogger().log(
+                    Level.SEVERE,
+                    "Could not turn autosave back on (" + worldName + ")",
+                    exception
+            );
+        }
+    }
+
+    private boolean shouldBeIgnored(@NotNull Path file) {
+        var name = file.getFileName().toString();
+        return name.equals(SESSION_FILE_NAME) || name.endsWith(OLD_FILE_SUFFIX);
+    }
+}
@@ -0,0 +1,485 @@
+package net.okocraft.zipbackup.core;
+
+import net.okocraft.zipbackup.archive.ArchiveFormat;
+import net.okocraft.zipbackup.archive.TarArchiveReader;
+import net.okocraft.zipbackup.archive.ZipArchiveReader;
+import net.okocraft.zipbackup.archive.ZipArchiveWriter;
+import net.okocraft.zipbackup.catalog.BackupRecord;
+import net.okocraft.zipbackup.config.Settings;
+import net.okocraft.zipbackup.dedup.ChunkStore;
+import net.okocraft.zipbackup.dedup.Snapshot;
+import net.okocraft.zipbackup.region.RegionDelta;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipException;
+
+/**
+ * Restores a whole backup into a world folder, replacing the folder once the backup has been extracted.
+ * <p>
+ * The files are extracted by the compression workers in parallel into a folder next to the target, which is then
+ * swapped with the target by two renames: the target to {@code <folder>.replaced}, then the extracted folder to the
+ * target. If a restore stops between them, the next restore moves {@code <folder>.replaced} back first.
+ * <p>
+ * Zip archives, bases and snapshots are read by each worker on its own. Tar archives can only be read in order,
+ * so their entries are read by the calling thread and written by the workers.
+ * The data held in memory at once is limited, and each file is sized to its final length before it is written.
+ */
+public final class WorldRestorer {
+
+    public static final String STAGING_SUFFIX = ".restoring";
+    public static final String REPLACED_SUFFIX = ".replaced";
+
+    private static final int MEMORY_LIMIT = 256 * 1024 * 1024;
+    // larger tar entries are written by the reading thread instead of being held in memory
+    private static final long IN_MEMORY_LIMIT = 32L * 1024 * 1024;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final BackupEnvironment environment;
+
+    public WorldRestorer(@NotNull BackupEnvironment environment) {
+        this.environment = environment;
+    }
+
+    /**
+     * Restores the backup into the target folder, which must not be used while it is restored.
+     * <p>
+     * The previous folder is kept as {@code <folder>.replaced} until the next restore.
+     *
+     * @return the number of restored files
+     */
+    public int restore(@NotNull BackupRecord record, @NotNull Path targetDir) throws IOException {
+        var source = environment.getCatalog().resolve(record);
+        var target = targetDir.toAbsolutePath().normalize();
+
+        if (Files.notExists(source)) {
+            throw new NoSuchFileException(source.toAbsolutePath().toString(), null, "The backup is not found");
+        }
+
+        if (environment.getBackupDirectory().toAbsolutePath().normalize().startsWith(target)) {
+            throw new IOException("The backup folder is in the folder to restore: " + target);
+        }
+
+        Path fullBackupDir = null;
+
+        if (record.kind() == BackupRecord.Kind.DIFFERENTIAL) {
+            fullBackupDir = record.base() != null ? environment.getBackupDirectory().resolve(record.target()).resolve(record.base()) : null;
+
+            if (fullBackupDir == null || !Files.isDirectory(fullBackupDir)) {
+                throw new NoSuchFileException(String.valueOf(fullBackupDir), null, "The full backup is not found");
+            }
+        }
+
+        // the staging folder is next to the target, so that they are swapped by renames on the same file system
+        var staging = target.resolveSibling(target.getFileName() + STAGING_SUFFIX);
+        var replaced = target.resolveSibling(target.getFileName() + REPLACED_SUFFIX);
+
+        // a restore has stopped between the two renames, and the replaced folder is the only copy of the world
+        if (Files.notExists(target) && Files.isDirectory(replaced)) {
+            Files.move(replaced, target, StandardCopyOption.ATOMIC_MOVE);
+            environment.getLogger().warning("The folder " + target + " has been moved back from " + replaced + ", which was left by an interrupted restore.");
+        }
+
+        // left by an interrupted restore
+        deleteDirectory(staging);
+        Files.createDirectories(staging);
+
+        int count;
+
+        try (var job = new Job(staging, environment.getConfiguration().get(Settings.COMPRESSION_WORKERS))) {
+            switch (record.kind()) {
+                case FULL, DIFFERENTIAL -> extractArchive(job, source, fullBackupDir);
+                case BASE -> {
+                    copyDirectory(job, source, Set.of());
+                    job.await();
+                }
+                case SNAPSHOT -> extractSnapshot(job, source);
+            }
+
+            count = job.getCount();
+        } catch (IOException | RuntimeException e) {
+            deleteDirectory(staging);
+            throw e;
+        }
+
+        deleteDirectory(replaced);
+
+        boolean moved = Files.exists(target);
+
+        if (moved) {
+            Files.move(target, replaced, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        try {
+            Files.move(staging, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            if (moved) {
+                try {
+                    Files.move(replaced, target, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+
+            throw e;
+        }
+
+        return count;
+    }
+
+    private void extractArchive(@NotNull Job job, @NotNull Path source, @Nullable Path fullBackupDir) throws IOException {
+        var format = ArchiveFormat.fromFileName(source.getFileName().toString());
+        var overridden = new HashSet<String>();
+
+        if (format != null && format.isTar()) {
+            TarArchiveReader.read(source, format, (name, lastModified, size, in) ->
+                    extractTarEntry(job, fullBackupDir, name, lastModified, size, in, overridden));
+
+            if (fullBackupDir != null) {
+                copyDirectory(job, fullBackupDir, overridden);
+            }
+
+            job.await();
+            return;
+        }
+
+        try (var archive = ZipArchiveReader.open(source)) {
+            for (var entry : archive.getEntries()) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+
+                if (fullBackupDir != null && entry.name().endsWith(RegionDelta.ENTRY_SUFFIX)) {
+                    var regionName = removeDeltaSuffix(entry.name());
+                    var baseRegion = resolve(fullBackupDir, regionName);
+
+                    job.submit(estimateRegionSize(baseRegion, entry.size()), () -> {
+                        try (var in = archive.openStream(entry)) {
+                            writeRegion(job, regionName, entry.lastModified(), baseRegion, in);
+                        }
+                    });
+                    overridden.add(regionName);
+                } else {
+                    job.submit(0, () -> {
+                        try (var in = archive.openStream(entry)) {
+                            job.write(entry.name(), entry.size(), entry.lastModified(), in);
+                        }
+                    });
+                    overridden.add(entry.name());
+                }
+            }
+
+            if (fullBackupDir != null) {
+                copyDirectory(job, fullBackupDir, overridden);
+            }
+
+            // the archive is read by the workers until they have finished
+            job.await();
+        }
+    }
+
+    private void extractTarEntry(@NotNull Job job, @Nullable Path fullBackupDir,
+                                 @NotNull String name, long lastModified, long size, @NotNull InputStream in,
+                                 @NotNull Set<String> overridden) throws IOException {
+        job.checkFailure();
+
+        if (fullBackupDir != null && name.endsWith(RegionDelta.ENTRY_SUFFIX)) {
+            var regionName = removeDeltaSuffix(name);
+            var baseRegion = resolve(fullBackupDir, regionName);
+            int memory = estimateRegionSize(baseRegion, size);
+
+            job.acquireMemory(memory);
+            var delta = readFully(job, memory, in);
+            job.submitAcquired(memory, () -> writeRegion(job, regionName, lastModified, baseRegion, new ByteArrayInputStream(delta)));
+            overridden.add(regionName);
+        } else if (size <= IN_MEMORY_LIMIT) {
+            int memory = (int) size;
+
+            job.acquireMemory(memory);
+            var data = readFully(job, memory, in);
+            job.submitAcquired(memory, () -> job.write(name, data.length, lastModified, new ByteArrayInputStream(data)));
+            overridden.add(name);
+        } else {
+            job.write(name, size, lastModified, in);
+            overridden.add(name);
+        }
+    }
+
+    private void copyDirectory(@NotNull Job job, @NotNull Path source, @NotNull Set<String> overridden) throws IOException {
+        try (var scan = environment.getTreeScanner().scan(source)) {
+            for (var file : scan) {
+                var name = ZipArchiveWriter.toEntryName(source.relativize(file.path()));
+
+                if (file.attributes().isRegularFile() && !overridden.contains(name)) {
+                    long lastModified = file.attributes().lastModifiedTime().toMillis();
+                    job.submit(0, () -> job.copy(file.path(), name, lastModified));
+                }
+            }
+        }
+    }
+
+    private void extractSnapshot(@NotNull Job job, @NotNull Path source) throws IOException {
+        var openedStore = environment.getChunkStoreIfOpened();
+
+        try (var temporaryStore = openedStore == null ? ChunkStore.open(environment.getBackupDirectory().resolve(ChunkStore.DIRECTORY_NAME)) : null) {
+            var store = openedStore != null ? openedStore : temporaryStore;
+
+            for (var file : Snapshot.read(source).files()) {
+                job.submit(0, () -> {
+                    try (var in = store.openStream(file.chunks())) {
+                        job.write(file.path(), file.size(), file.lastModified(), in);
+                    }
+                });
+            }
+
+            job.await();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void writeRegion(@NotNull Job job, @NotNull String regionName, long lastModified,
+                                    @NotNull Path baseRegion, @NotNull InputStream delta) throws IOException {
+        var region = RegionDelta.rebuild(baseRegion, delta);
+        job.write(regionName, region.length, lastModified, new ByteArrayInputStream(region));
+    }
+
+    // the rebuilt region is held in memory with the delta, and is about as large as the region of the base
+    private static int estimateRegionSize(@NotNull Path baseRegion, long deltaSize) throws IOException {
+        long size = Files.isRegularFile(baseRegion) ? Files.size(baseRegion) : 0;
+        return (int) Math.min(MEMORY_LIMIT, size + deltaSize);
+    }
+
+    private static byte @NotNull [] readFully(@NotNull Job job, int memory, @NotNull InputStream in) throws IOException {
+        try {
+            return in.readAllBytes();
+        } catch (IOException | RuntimeException e) {
+            job.releaseMemory(memory);
+            throw e;
+        }
+    }
+
+    private static @NotNull String removeDeltaSuffix(@NotNull String name) {
+        return name.substring(0, name.length() - RegionDelta.ENTRY_SUFFIX.length());
+    }
+
+    private static @NotNull Path resolve(@NotNull Path directory, @NotNull String name) throws ZipException {
+        var root = directory.toAbsolutePath().normalize();
+        var file = root.resolve(name).normalize();
+
+        if (!file.startsWith(root) || file.equals(root)) {
+            throw new ZipException("Illegal entry name: " + name);
+        }
+
+        return file;
+    }
+
+    private static void deleteDirectory(@NotNull Path directory) throws IOException {
+        if (Files.notExists(directory)) {
+            return;
+        }
+
+        try (var walk = Files.walk(directory)) {
+            for (var path : (Iterable<Path>) walk.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface Task {
+        void run() throws IOException;
+    }
+
+    private static final class Job implements AutoCloseable {
+
+        private final Path directory;
+        private final ExecutorService executor;
+        private final Semaphore memory = new Semaphore(MEMORY_LIMIT);
+        private final List<CompletableFuture<Void>> futures = new ArrayList<>();
+        private final AtomicInteger count = new AtomicInteger();
+        private volatile @Nullable IOException failure;
+
+        private Job(@NotNull Path directory, int workers) {
+            this.directory = directory;
+            this.executor = Executors.newFixedThreadPool(Math.max(1, workers));
+        }
+
+        // the memory is acquired by the submitting thread, so that the workers never wait for each other
+        private void submit(int requiredMemory, @NotNull Task task) throws IOException {
+            checkFailure();
+            acquireMemory(requiredMemory);
+            submitAcquired(requiredMemory, task);
+        }
+
+        private void submitAcquired(int acquiredMemory, @NotNull Task task) {
+            futures.add(CompletableFuture.runAsync(() -> runAcquired(acquiredMemory, task), executor));
+        }
+
+        private void runAcquired(int acquiredMemory, @NotNull Task task) {
+            try {
+                if (failure == null) {
+                    task.run();
+                }
+            } catch (IOException e) {
+                fail(e);
+            } catch (UncheckedIOException e) {
+                fail(e.getCause());
+            } finally {
+                memory.release(acquiredMemory);
+            }
+        }
+
+        private void acquireMemory(int required) throws IOException {
+            try {
+                memory.acquire(required);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while restoring files");
+            }
+        }
+
+        private void releaseMemory(int acquired) {
+            memory.release(acquired);
+        }
+
+        private void fail(@NotNull IOException e) {
+            synchronized (this) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+
+        private void checkFailure() throws IOException {
+            var e = failure;
+
+            if (e != null) {
+                throw e;
+            }
+        }
+
+        private void await() throws IOException {
+            try {
+                CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+            } catch (CompletionException e) {
+                throw new IOException("Could not restore the files", e.getCause());
+            }
+
+            checkFailure();
+        }
+
+        private int getCount() {
+            return count.get();
+        }
+
+        private void write(@NotNull String name, long size, long lastModified, @NotNull InputStream in) throws IOException {
+            var file = resolve(directory, name);
+            var buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(1, size))];
+
+            Files.createDirectories(file.getParent());
+
+            try (var channel = open(file, size)) {
+                long position = 0;
+
+                for (int read; (read = in.read(buffer)) != -1; ) {
+                    var data = ByteBuffer.wrap(buffer, 0, read);
+
+                    while (data.hasRemaining()) {
+                        position += channel.write(data, position);
+                    }
+                }
+
+                if (position != size) {
+                    channel.truncate(position);
+                }
+            }
+
+            Files.setLastModifiedTime(file, FileTime.fromMillis(lastModified));
+            count.incrementAndGet();
+        }
+
+        // the data is copied by the file system where it can, without going through the heap
+        private void copy(@NotNull Path source, @NotNull String name, long lastModified) throws IOException {
+            var file = resolve(directory, name);
+
+            Files.createDirectories(file.getParent());
+
+            try (var in = FileChannel.open(source, StandardOpenOption.READ)) {
+                long size = in.size();
+
+                try (var out = open(file, size)) {
+                    for (long position = 0; position < size; ) {
+                        long transferred = in.transferTo(position, size - position, out.position(position));
+
+                        if (transferred <= 0) {
+                            throw new IOException("Unexpected end of file: " + source);
+                        }
+
+                        position += transferred;
+                    }
+                }
+            }
+
+            Files.setLastModifiedTime(file, FileTime.fromMillis(lastModified));
+            count.incrementAndGet();
+        }
+
+        // the file is sized up front and then filled by positional writes, instead of being grown by every write
+        private static @NotNull FileChannel open(@NotNull Path file, long size) throws IOException {
+            var channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+
+            try {
+                if (0 < size) {
+                    channel.write(ByteBuffer.allocate(1), size - 1);
+                }
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+
+            return channel;
+        }
+
+        @Override
+        public void close() throws IOException {
+            // the remaining tasks are skipped if the calling thread has failed before waiting for them
+            fail(new IOException("The restore has been aborted"));
+            executor.shutdown();
+
+            try {
+                // the workers must not write into the folder while it is deleted after a failure
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while restoring files");
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package net.okocraft.zipbackup.dedup;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+public final class ChunkId {
+
+    public static final int LENGTH = 32;
+
+    private final byte[] hash;
+    private final int hashCode;
+
+    private ChunkId(byte[] hash) {
+        this.hash = hash;
+        this.hashCode = ByteBuffer.wrap(hash).getInt();
+    }
+
+    public static @NotNull ChunkId of(byte @NotNull [] data, int length) {
+        MessageDigest digest;
+
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        digest.update(data, 0, length);
+        return new ChunkId(digest.digest());
+    }
+
+    public static @NotNull ChunkId read(@NotNull ByteBuffer buffer) {
+        var hash = new byte[LENGTH];
+        buffer.get(hash);
+        return new ChunkId(hash);
+    }
+
+    public void write(@NotNull ByteBuffer buffer) {
+        buffer.put(hash);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || (o instanceof ChunkId other && Arrays.equals(hash, other.hash));
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return HexFormat.of().formatHex(hash);
+    }
+}
@@ -0,0 +1,373 @@
+package net.okocraft.zipbackup.dedup;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * A content-addressed store that keeps each unique chunk once.
+ * <p>
+ * Chunks are appended to pack files of up to 64 MiB, and their locations are appended to an index that is
+ * loaded into memory when the store is opened. Backups hold a session while they write, and unreferenced
+ * packs are only removed when no session is open.
+ */
+public final class ChunkStore implements Closeable {
+
+    public static final String DIRECTORY_NAME = ".repository";
+
+    private static final String INDEX_FILE = "index";
+    private static final String PACK_DIRECTORY = "packs";
+    private static final String PACK_SUFFIX = ".pack";
+    private static final long PACK_SIZE_LIMIT = 64L * 1024 * 1024;
+    private static final int INDEX_RECORD_SIZE = ChunkId.LENGTH + 4 + 8 + 4 + 4 + 1;
+
+    private final Path directory;
+    private final Path packDirectory;
+    private final Map<ChunkId, Location> index = new HashMap<>();
+    private final ReentrantReadWriteLock sessionLock = new ReentrantReadWriteLock();
+    private FileChannel indexChannel;
+    private @Nullable FileChannel packChannel;
+    private int packId;
+
+    private ChunkStore(@NotNull Path directory) {
+        this.directory = directory;
+        this.packDirectory = directory.resolve(PACK_DIRECTORY);
+    }
+
+    public static @NotNull ChunkStore open(@NotNull Path directory) throws IOException {
+        var store = new ChunkStore(directory);
+
+        Files.createDirectories(store.packDirectory);
+        store.loadIndex();
+
+        try (var list = Files.list(store.packDirectory)) {
+            store.packId = list.mapToInt(ChunkStore::toPackId).max().orElse(0);
+        }
+
+        return store;
+    }
+
+    public @NotNull Lock openSession() {
+        var lock = sessionLock.readLock();
+        lock.lock();
+        return lock;
+    }
+
+    public synchronized boolean contains(@NotNull ChunkId id) {
+        return index.containsKey(id);
+    }
+
+    public void put(@NotNull ChunkId id, byte @NotNull [] data, int length, int level) throws IOException {
+        if (contains(id)) {
+            return;
+        }
+
+        byte[] stored = data;
+        int storedLength = length;
+        boolean compressed = false;
+
+        if (level != 0) {
+            var deflater = new Deflater(level, true);
+            var output = new byte[length];
+
+            try {
+                deflater.setInput(data, 0, length);
+                deflater.finish();
+                int deflatedLength = deflater.deflate(output);
+
+                if (deflater.finished() && deflatedLength < length) {
+                    stored = output;
+                    storedLength = deflatedLength;
+                    compressed = true;
+                }
+            } finally {
+                deflater.end();
+            }
+        }
+
+        append(id, ByteBuffer.wrap(stored, 0, storedLength), length, compressed);
+    }
+
+    public byte @NotNull [] read(@NotNull ChunkId id) throws IOException {
+        Location location;
+
+        synchronized (this) {
+            location = index.get(id);
+        }
+
+        if (location == null) {
+            throw new ZipException("Missing chunk " + id);
+        }
+
+        var stored = ByteBuffer.allocate(location.storedLength());
+
+        try (var channel = FileChannel.open(packFile(location.pack()), StandardOpenOption.READ)) {
+            while (stored.hasRemaining()) {
+                if (channel.read(stored, location.offset() + stored.position()) < 0) {
+                    throw new ZipException("Truncated pack file: " + packFile(location.pack()));
+                }
+            }
+        }
+
+        if (!location.compressed()) {
+            return stored.array();
+        }
+
+        var inflater = new Inflater(true);
+
+        try {
+            inflater.setInput(stored.array());
+            var data = new byte[location.rawLength()];
+
+            if (inflater.inflate(data) != data.length) {
+                throw new ZipException("Corrupted chunk " + id);
+            }
+
+            return data;
+        } catch (DataFormatException e) {
+            throw new ZipException("Corrupted chunk " + id + ": " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    public @NotNull InputStream openStream(@NotNull List<ChunkId> chunks) {
+        var iterator = chunks.iterator();
+
+        return new SequenceInputStream(new Enumeration<>() {
+            @Override
+            public boolean hasMoreElements() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                try {
+                    return new ByteArrayInputStream(read(iterator.next()));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+    }
+
+    public synchronized void flush() throws IOException {
+        if (packChannel != null) {
+            packChannel.force(false);
+        }
+
+        indexChannel.force(false);
+    }
+
+    /**
+     * Deletes the pack files that contain no chunk referenced by the snapshots.
+     * <p>
+     * Waits until no backup session is open, and collects the references after that, so that the chunks
+     * of a backup whose snapshot has just been written are kept. The pack being appended to is never deleted.
+     *
+     * @return the number of deleted pack files
+     */
+    public int deleteUnreferencedPacks(@NotNull ReferenceCollector collector) throws IOException {
+        var lock = sessionLock.writeLock();
+        lock.lock();
+
+        try {
+            var referenced = collector.collect();
+
+            synchronized (this) {
+                var livePacks = new HashSet<Integer>();
+                var allPacks = new HashSet<Integer>();
+
+                for (var entry : index.entrySet()) {
+                    allPacks.add(entry.getValue().pack());
+
+                    if (referenced.contains(entry.getKey())) {
+                        livePacks.add(entry.getValue().pack());
+                    }
+                }
+
+                allPacks.removeAll(livePacks);
+                allPacks.remove(packId);
+
+                if (allPacks.isEmpty()) {
+                    return 0;
+                }
+
+                index.values().removeIf(location -> allPacks.contains(location.pack()));
+                rewriteIndex();
+
+                for (int pack : allPacks) {
+                    Files.deleteIfExists(packFile(pack));
+                }
+
+                return allPacks.size();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            closePack();
+        } finally {
+            indexChannel.close();
+        }
+    }
+
+    private synchronized void append(@NotNull ChunkId id, @NotNull ByteBuffer data, int rawLength, boolean compressed) throws IOException {
+        if (index.containsKey(id)) {
+            return;
+        }
+
+        if (packChannel == null || PACK_SIZE_LIMIT <= packChannel.size()) {
+            closePack();
+            packId++;
+            packChannel = FileChannel.open(packFile(packId), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        }
+
+        long offset = packChannel.size();
+        var location = new Location(packId, offset, data.remaining(), rawLength, compressed);
+
+        while (data.hasRemaining()) {
+            packChannel.write(data, offset + data.position());
+        }
+
+        var record = ByteBuffer.allocate(INDEX_RECORD_SIZE);
+        writeRecord(record, id, location);
+        indexChannel.write(record.flip(), indexChannel.size());
+
+        index.put(id, location);
+    }
+
+    private void loadIndex() throws IOException {
+        indexChannel = FileChannel.open(directory.resolve(INDEX_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        long size = indexChannel.size();
+        long complete = size - size % INDEX_RECORD_SIZE;
+        var buffer = ByteBuffer.allocate(INDEX_RECORD_SIZE * 1024);
+
+        for (long position = 0; position < complete; ) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), complete - position));
+
+            while (buffer.hasRemaining()) {
+                indexChannel.read(buffer, position + buffer.position());
+            }
+
+            buffer.flip();
+            position += buffer.limit();
+
+            while (buffer.hasRemaining()) {
+                var id = ChunkId.read(buffer);
+                index.put(id, new Location(buffer.getInt(), buffer.getLong(), buffer.getInt(), buffer.getInt(), buffer.get() != 0));
+            }
+        }
+
+        if (complete != size) {
+            // a record was partially written when the server stopped
+            indexChannel.truncate(complete);
+        }
+    }
+
+    private void rewriteIndex() throws IOException {
+        var temp = directory.resolve(INDEX_FILE + ".tmp");
+        var entries = new ArrayList<>(index.entrySet());
+
+        try (var channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            var buffer = ByteBuffer.allocate(INDEX_RECORD_SIZE * 1024);
+
+            for (var entry : entries) {
+                if (!buffer.hasRemaining()) {
+                    writeFully(channel, buffer.flip());
+                    buffer.clear();
+                }
+                writeRecord(buffer, entry.getKey(), entry.getValue());
+            }
+
+            writeFully(channel, buffer.flip());
+            channel.force(false);
+        }
+
+        indexChannel.close();
+        Files.move(temp, directory.resolve(INDEX_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        indexChannel = FileChannel.open(directory.resolve(INDEX_FILE), StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private void closePack() throws IOException {
+        if (packChannel != null) {
+            packChannel.force(false);
+            packChannel.close();
+            packChannel = null;
+        }
+    }
+
+    private @NotNull Path packFile(int id) {
+        return packDirectory.resolve(String.format("%08d", id) + PACK_SUFFIX);
+    }
+
+    private static void writeRecord(@NotNull ByteBuffer buffer, @NotNull ChunkId id, @NotNull Location location) {
+        id.write(buffer);
+        buffer.putInt(location.pack());
+        buffer.putLong(location.offset());
+        buffer.putInt(location.storedLength());
+        buffer.putInt(location.rawLength());
+        buffer.put((byte) (location.compressed() ? 1 : 0));
+    }
+
+    private static void writeFully(@NotNull FileChannel channel, @NotNull ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static int toPackId(@NotNull Path file) {
+        var name = file.getFileName().toString();
+
+        if (!name.endsWith(PACK_SUFFIX)) {
+            return 0;
+        }
+
+        try {
+            return Integer.parseInt(name.substring(0, name.length() - PACK_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Collects the chunks referenced by the snapshots, while no backup session is open.
+     */
+    @FunctionalInterface
+    public interface ReferenceCollector {
+        @NotNull Set<ChunkId> collect() throws IOException;
+    }
+
+    private record Location(int pack, long offset, int storedLength, int rawLength, boolean compressed) {
+    }
+}
@@ -0,0 +1,62 @@
+package net.okocraft.zipbackup.dedup;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.SplittableRandom;
+
+/**
+ * Splits a stream into chunks whose boundaries depend on the content (gear hash), so that an insertion or
+ * a change in one part of a file does not shift the boundaries of the rest.
+ */
+public final class ContentDefinedChunker {
+
+    public static final int MIN_SIZE = 128 * 1024;
+    public static final int MAX_SIZE = 2 * 1024 * 1024;
+
+    // 19 of the high bits, which depend on the last 64 bytes: a boundary every 512 KiB on average after the minimum size
+    private static final long BOUNDARY_MASK = ((1L << 19) - 1) << 45;
+    private static final long[] GEAR = new long[256];
+
+    static {
+        var random = new SplittableRandom(0x5A4250L);
+
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    public static void split(@NotNull InputStream in, @NotNull ChunkConsumer consumer) throws IOException {
+        var chunk = new byte[MAX_SIZE];
+        var buffer = new byte[64 * 1024];
+        int length = 0;
+        long hash = 0;
+
+        for (int read; (read = in.read(buffer)) != -1; ) {
+            for (int i = 0; i < read; i++) {
+                chunk[length++] = buffer[i];
+                hash = (hash << 1) + GEAR[buffer[i] & 0xFF];
+
+                if ((MIN_SIZE <= length && (hash & BOUNDARY_MASK) == 0) || length == MAX_SIZE) {
+                    consumer.accept(chunk, length);
+                    length = 0;
+                    hash = 0;
+                }
+            }
+        }
+
+        if (length != 0) {
+            consumer.accept(chunk, length);
+        }
+    }
+
+    @FunctionalInterface
+    public interface ChunkConsumer {
+        void accept(byte @NotNull [] data, int length) throws IOException;
+    }
+
+    private ContentDefinedChunker() {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,100 @@
+package net.okocraft.zipbackup.dedup;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * The manifest of a deduplicated backup: the files it contains and the chunks that make up each file.
+ */
+public record Snapshot(@NotNull List<FileEntry> files) {
+
+    public static final String FILE_SUFFIX = ".snapshot";
+
+    private static final int MAGIC = 0x5A42534E; // "ZBSN"
+    private static final int VERSION = 1;
+
+    public static @NotNull Snapshot read(@NotNull Path file) throws IOException {
+        try (var in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(Files.newInputStream(file))))) {
+            if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+                throw new ZipException("Not a snapshot: " + file);
+            }
+
+            int count = in.readInt();
+            var files = new ArrayList<FileEntry>(count);
+            var hash = new byte[ChunkId.LENGTH];
+
+            for (int i = 0; i < count; i++) {
+                var path = in.readUTF();
+                long size = in.readLong();
+                long lastModified = in.readLong();
+                int chunkCount = in.readInt();
+                var chunks = new ArrayList<ChunkId>(chunkCount);
+
+                for (int j = 0; j < chunkCount; j++) {
+                    in.readFully(hash);
+                    chunks.add(ChunkId.read(ByteBuffer.wrap(hash)));
+                }
+
+                files.add(new FileEntry(path, size, lastModified, chunks));
+            }
+
+            return new Snapshot(files);
+        }
+    }
+
+    public static @Nullable Path findLatest(@NotNull Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return null;
+        }
+
+        try (var list = Files.list(directory)) {
+            return list.filter(path -> path.getFileName().toString().endsWith(FILE_SUFFIX))
+                    .max(Comparator.comparing(path -> path.getFileName().toString()))
+                    .orElse(null);
+        }
+    }
+
+    public void write(@NotNull Path file) throws IOException {
+        var temp = file.resolveSibling(file.getFileName() + ".tmp");
+        var hash = ByteBuffer.allocate(ChunkId.LENGTH);
+
+        try (var out = new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(Files.newOutputStream(temp))))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(files.size());
+
+            for (var entry : files) {
+                out.writeUTF(entry.path());
+                out.writeLong(entry.size());
+                out.writeLong(entry.lastModified());
+                out.writeInt(entry.chunks().size());
+
+                for (var chunk : entry.chunks()) {
+                    chunk.write(hash.clear());
+                    out.write(hash.array());
+                }
+            }
+        }
+
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public record FileEntry(@NotNull String path, long size, long lastModified, @NotNull List<ChunkId> chunks) {
+    }
+}
@@ -0,0 +1,125 @@
+package net.okocraft.zipbackup.manifest;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/**
+ * The algorithms that can be used to record the content of files in a {@link FileManifest}.
+ * <p>
+ * {@link #CRC32C} is hardware accelerated on most CPUs and is enough to detect changes made by the server.
+ * {@link #SHA_256} can be selected when collisions must be ruled out.
+ */
+public enum ContentDigest {
+
+    CRC32("crc32"),
+    CRC32C("crc32c"),
+    SHA_256("sha-256");
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final String name;
+
+    ContentDigest(@NotNull String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the algorithm of the name, ignoring the case.
+     *
+     * @return the algorithm, or {@code null} if the name is unknown
+     */
+    public static @Nullable ContentDigest fromName(@NotNull String name) {
+        var lowerCase = name.toLowerCase(Locale.ROOT);
+
+        for (var digest : values()) {
+            if (digest.name.equals(lowerCase)) {
+                return digest;
+            }
+        }
+
+        return null;
+    }
+
+    public @NotNull String getName() {
+        return name;
+    }
+
+    public @NotNull Hasher newHasher() {
+        return switch (this) {
+            case CRC32 -> new ChecksumHasher(new CRC32());
+            case CRC32C -> new ChecksumHasher(new CRC32C());
+            case SHA_256 -> {
+                try {
+                    var digest = MessageDigest.getInstance("SHA-256");
+                    yield new Hasher() {
+                        @Override
+                        public void update(@NotNull ByteBuffer buffer) {
+                            digest.update(buffer);
+                        }
+
+                        @Override
+                        public byte @NotNull [] finish() {
+                            return digest.digest();
+                        }
+                    };
+                } catch (NoSuchAlgorithmException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+    }
+
+    public byte @NotNull [] digest(@NotNull Path file) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return digest(channel);
+        }
+    }
+
+    public byte @NotNull [] digest(@NotNull ReadableByteChannel channel) throws IOException {
+        var hasher = newHasher();
+        var buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        while (channel.read(buffer) != -1) {
+            hasher.update(buffer.flip());
+            buffer.clear();
+        }
+
+        return hasher.finish();
+    }
+
+    public interface Hasher {
+
+        /**
+         * Consumes the remaining bytes of the buffer.
+         */
+        void update(@NotNull ByteBuffer buffer);
+
+        byte @NotNull [] finish();
+    }
+
+    private record ChecksumHasher(@NotNull Checksum checksum) implements Hasher {
+
+        @Override
+        public void update(@NotNull ByteBuffer buffer) {
+            checksum.update(buffer);
+        }
+
+        @Override
+        public byte @NotNull [] finish() {
+            return ByteBuffer.allocate(Long.BYTES).putLong(checksum.getValue()).array();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package net.okocraft.zipbackup.manifest;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * The size, modification time and content digest of every file in a differential base,
+ * keyed by the path relative to the backed up directory.
+ */
+public final class FileManifest {
+
+    public static final String FILE_SUFFIX = ".manifest";
+
+    private static final int MAGIC = 0x5A424D46; // "ZBMF"
+    private static final int VERSION = 1;
+
+    private final ContentDigest digest;
+    private final Map<String, Entry> entries;
+
+    private FileManifest(@NotNull ContentDigest digest, @NotNull Map<String, Entry> entries) {
+        this.digest = digest;
+        this.entries = entries;
+    }
+
+    public static @NotNull Path getPath(@NotNull Path baseDirectory) {
+        return baseDirectory.resolveSibling(baseDirectory.getFileName() + FILE_SUFFIX);
+    }
+
+    public static @Nullable FileManifest loadIfExists(@NotNull Path file) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+
+        try (var in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(Files.newInputStream(file))))) {
+            if (in.readInt() != MAGIC) {
+                throw new ZipException("Not a manifest: " + file);
+            }
+
+            int version = in.readUnsignedByte();
+
+            if (version != VERSION) {
+                throw new ZipException("Unsupported manifest version " + version + ": " + file);
+            }
+
+            var digestName = in.readUTF();
+            var digest = ContentDigest.fromName(digestName);
+
+            if (digest == null) {
+                throw new ZipException("Unknown content digest " + digestName + ": " + file);
+            }
+
+            int count = in.readInt();
+            var entries = new HashMap<String, Entry>(count * 4 / 3 + 1);
+
+            for (int i = 0; i < count; i++) {
+                var path = in.readUTF();
+                long size = in.readLong();
+                long lastModified = in.readLong();
+                var value = in.readNBytes(in.readUnsignedByte());
+
+                entries.put(path, new Entry(path, size, lastModified, value));
+            }
+
+            return new FileManifest(digest, entries);
+        }
+    }
+
+    public static void write(@NotNull Path file, @NotNull ContentDigest digest, @NotNull Collection<Entry> entries) throws IOException {
+        var sorted = new ArrayList<>(entries);
+        sorted.sort(Comparator.comparing(Entry::path));
+
+        var temp = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (var out = new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(Files.newOutputStream(temp))))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeUTF(digest.getName());
+            out.writeInt(sorted.size());
+
+            for (var entry : sorted) {
+                out.writeUTF(entry.path());
+                out.writeLong(entry.size());
+                out.writeLong(entry.lastModified());
+                out.writeByte(entry.digest().length);
+                out.write(entry.digest());
+            }
+        }
+
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public @NotNull ContentDigest getDigest() {
+        return digest;
+    }
+
+    public @Nullable Entry get(@NotNull String path) {
+        return entries.get(path);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * A file in the base.
+     *
+     * @param digest the content digest, which is empty for a clone that has not been hashed
+     */
+    public record Entry(@NotNull String path, long size, long lastModified, byte @NotNull [] digest) {
+    }
+}
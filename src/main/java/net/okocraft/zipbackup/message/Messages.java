@@ -2,6 +2,7 @@ package net.okocraft.zipbackup.message;
 
 import net.kyori.adventure.text.Component;
 
+import java.util.function.BiFunction;
 import java.util.function.Function;
 
 import static net.kyori.adventure.text.Component.empty;
@@ -23,6 +24,10 @@ public final class Messages {
             empty().toBuilder()
                     .append(text("/zipbackup backup <world/plugin> {world-name} - Run the backup task.", GRAY))
                     .append(newline())
+                    .append(text("/zipbackup restore <world/plugins> <backup> <path or glob>... {--in-place} - Restore only the files", GRAY))
+                    .append(newline())
+                    .append(text("/zipbackup rollback <world> <backup> - Replace the unloaded world with the backup", GRAY))
+                    .append(newline())
                     .append(text("/zipbackup purge - Delete expired backups", GRAY))
                     .append(newline())
                     .append(text("/zipbackup reload - Reload config.yml", GRAY))
@@ -67,6 +72,27 @@ public final class Messages {
     public static final Function<String, Component> COMMAND_COPY_BACKUP_FINISH =
             path -> text("The requested backup has been copied to " + path);
 
+    public static final Component COMMAND_RESTORE_START =
+            text("Restoring the files from the backup...", GRAY);
+
+    public static final Function<String, Component> COMMAND_RESTORE_WORLD_LOADED =
+            world -> text("The world is loaded, unload it or restore the files without --in-place: ", RED).append(text(world, AQUA));
+
+    public static final Function<String, Component> COMMAND_RESTORE_NO_MATCH =
+            patterns -> text("No files in the backup match: ", RED).append(text(patterns, AQUA));
+
+    public static final BiFunction<Integer, String, Component> COMMAND_RESTORE_FINISH =
+            (count, path) -> text(count + " files have been restored to " + path, AQUA);
+
+    public static final Component COMMAND_ROLLBACK_START =
+            text("Rolling back the world...", GRAY);
+
+    public static final Function<String, Component> COMMAND_ROLLBACK_WORLD_LOADED =
+            world -> text("The world is loaded, unload it before rolling it back: ", RED).append(text(world, AQUA));
+
+    public static final BiFunction<String, String, Component> COMMAND_ROLLBACK_FINISH =
+            (world, backup) -> text("The world " + world + " has been rolled back to " + backup, AQUA);
+
     public static final Component COMMAND_CURRENTLY_RUNNING =
             text("The command is currently running. Please try again later.", RED);
 
@@ -0,0 +1,208 @@
+package net.okocraft.zipbackup.metrics;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import java.util.function.ToDoubleFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Holds the metrics of each backup target and exposes them through JMX and in the Prometheus text format.
+ */
+public final class BackupMetrics implements BackupMetricsMXBean {
+
+    private static final String JMX_DOMAIN = "net.okocraft.zipbackup";
+
+    private final Logger logger;
+    private final Map<String, TargetMetrics> targets = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> queueDepths = new ConcurrentHashMap<>();
+    private volatile boolean jmxEnabled;
+
+    public BackupMetrics(@NotNull Logger logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * Starts recording a job of the target. {@link JobMetrics#finish(boolean)} must be called when the job has finished.
+     */
+    public @NotNull JobMetrics startJob(@NotNull String target) {
+        return new JobMetrics(targets.computeIfAbsent(target, this::createTarget));
+    }
+
+    public void setQueueDepth(@NotNull String queue, @NotNull LongSupplier depth) {
+        queueDepths.put(queue, depth);
+    }
+
+    public void removeQueueDepth(@NotNull String queue) {
+        queueDepths.remove(queue);
+    }
+
+    @Override
+    public Map<String, Long> getQueueDepths() {
+        var result = new TreeMap<String, Long>();
+        queueDepths.forEach((queue, depth) -> result.put(queue, depth.getAsLong()));
+        return result;
+    }
+
+    public synchronized void enableJmx() {
+        if (jmxEnabled) {
+            return;
+        }
+
+        jmxEnabled = true;
+        register(this, createObjectName("Backup", null));
+        targets.values().forEach(target -> register(target, createObjectName("Target", target.getTarget())));
+    }
+
+    public synchronized void disableJmx() {
+        if (!jmxEnabled) {
+            return;
+        }
+
+        jmxEnabled = false;
+
+        var server = ManagementFactory.getPlatformMBeanServer();
+        unregister(server, createObjectName("Backup", null));
+        targets.keySet().forEach(target -> unregister(server, createObjectName("Target", target)));
+    }
+
+    /**
+     * Writes all metrics in the Prometheus text exposition format.
+     */
+    public void writePrometheus(@NotNull Writer writer) throws IOException {
+        var sorted = new TreeMap<>(targets);
+
+        writeCounter(writer, sorted, "zipbackup_scanned_bytes_total", "Size of the files found while scanning", TargetMetrics::getBytesScanned);
+        writeCounter(writer, sorted, "zipbackup_read_bytes_total", "Bytes read by backups", TargetMetrics::getBytesRead);
+        writeCounter(writer, sorted, "zipbackup_written_bytes_total", "Bytes written by backups", TargetMetrics::getBytesWritten);
+        writeCounter(writer, sorted, "zipbackup_files_added_total", "Files added to backups", TargetMetrics::getFilesAdded);
+        writeCounter(writer, sorted, "zipbackup_files_skipped_total", "Files skipped because they have not changed", TargetMetrics::getFilesSkipped);
+        writeCounter(writer, sorted, "zipbackup_files_truncated_total", "Files truncated while they were backed up", TargetMetrics::getFilesTruncated);
+        writeGauge(writer, sorted, "zipbackup_compression_ratio", "Uncompressed size divided by compressed size", TargetMetrics::getCompressionRatio);
+
+        writer.write("# HELP zipbackup_stage_seconds_total Time spent in each stage of the backups\n");
+        writer.write("# TYPE zipbackup_stage_seconds_total counter\n");
+        for (var target : sorted.values()) {
+            for (var stage : JobMetrics.Stage.values()) {
+                writeSample(writer, "zipbackup_stage_seconds_total",
+                        "target=\"" + escape(target.getTarget()) + "\",stage=\"" + stage.getName() + "\"",
+                        target.getStageTimeMillis(stage) / 1000.0);
+            }
+        }
+
+        writeGauge(writer, sorted, "zipbackup_running_jobs", "Backups that are running", TargetMetrics::getRunningJobs);
+        writeCounter(writer, sorted, "zipbackup_jobs_succeeded_total", "Backups that have succeeded", TargetMetrics::getSucceededJobs);
+        writeCounter(writer, sorted, "zipbackup_jobs_failed_total", "Backups that have failed", TargetMetrics::getFailedJobs);
+
+        writer.write("# HELP zipbackup_job_duration_seconds Duration of backups\n");
+        writer.write("# TYPE zipbackup_job_duration_seconds histogram\n");
+        for (var target : sorted.values()) {
+            var label = "target=\"" + escape(target.getTarget()) + "\"";
+            var histogram = target.jobDuration;
+            var bounds = histogram.getBounds();
+            var counts = histogram.getCumulativeCounts();
+
+            for (int i = 0; i < bounds.length; i++) {
+                writeSample(writer, "zipbackup_job_duration_seconds_bucket", label + ",le=\"" + formatValue(bounds[i]) + "\"", counts[i]);
+            }
+
+            writeSample(writer, "zipbackup_job_duration_seconds_bucket", label + ",le=\"+Inf\"", histogram.getCount());
+            writeSample(writer, "zipbackup_job_duration_seconds_sum", label, histogram.getSum());
+            writeSample(writer, "zipbackup_job_duration_seconds_count", label, histogram.getCount());
+        }
+
+        writer.write("# HELP zipbackup_queue_depth Tasks waiting in the queue\n");
+        writer.write("# TYPE zipbackup_queue_depth gauge\n");
+        for (var queue : getQueueDepths().entrySet()) {
+            writeSample(writer, "zipbackup_queue_depth", "queue=\"" + escape(queue.getKey()) + "\"", queue.getValue());
+        }
+    }
+
+    private @NotNull TargetMetrics createTarget(@NotNull String name) {
+        var target = new TargetMetrics(name);
+
+        synchronized (this) {
+            if (jmxEnabled) {
+                register(target, createObjectName("Target", name));
+            }
+        }
+
+        return target;
+    }
+
+    private void register(@NotNull Object bean, @NotNull ObjectName name) {
+        try {
+            var server = ManagementFactory.getPlatformMBeanServer();
+
+            // left behind by a previous instance of the plugin that has not been disabled cleanly
+            unregister(server, name);
+            server.registerMBean(bean, name);
+        } catch (JMException e) {
+            logger.log(Level.WARNING, "Could not register the MBean " + name, e);
+        }
+    }
+
+    private void unregister(@NotNull MBeanServer server, @NotNull ObjectName name) {
+        try {
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            logger.log(Level.WARNING, "Could not unregister the MBean " + name, e);
+        }
+    }
+
+    private static @NotNull ObjectName createObjectName(@NotNull String type, @Nullable String target) {
+        try {
+            return new ObjectName(JMX_DOMAIN + ":type=" + type + (target != null ? ",target=" + ObjectName.quote(target) : ""));
+        } catch (JMException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static void writeCounter(@NotNull Writer writer, @NotNull Map<String, TargetMetrics> targets,
+                                     @NotNull String name, @NotNull String help,
+                                     @NotNull ToDoubleFunction<TargetMetrics> value) throws IOException {
+        writeMetric(writer, targets, name, help, "counter", value);
+    }
+
+    private static void writeGauge(@NotNull Writer writer, @NotNull Map<String, TargetMetrics> targets,
+                                   @NotNull String name, @NotNull String help,
+                                   @NotNull ToDoubleFunction<TargetMetrics> value) throws IOException {
+        writeMetric(writer, targets, name, help, "gauge", value);
+    }
+
+    private static void writeMetric(@NotNull Writer writer, @NotNull Map<String, TargetMetrics> targets,
+                                    @NotNull String name, @NotNull String help, @NotNull String type,
+                                    @NotNull ToDoubleFunction<TargetMetrics> value) throws IOException {
+        writer.write("# HELP " + name + " " + help + "\n");
+        writer.write("# TYPE " + name + " " + type + "\n");
+
+        for (var target : targets.values()) {
+            writeSample(writer, name, "target=\"" + escape(target.getTarget()) + "\"", value.applyAsDouble(target));
+        }
+    }
+
+    private static void writeSample(@NotNull Writer writer, @NotNull String name, @NotNull String labels, double value) throws IOException {
+        writer.write(name + "{" + labels + "} " + formatValue(value) + "\n");
+    }
+
+    private static @NotNull String formatValue(double value) {
+        return value == Math.rint(value) && !Double.isInfinite(value) ? Long.toString((long) value) : Double.toString(value);
+    }
+
+    private static @NotNull String escape(@NotNull String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
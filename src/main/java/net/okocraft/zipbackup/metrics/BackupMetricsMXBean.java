@@ -0,0 +1,11 @@
+package net.okocraft.zipbackup.metrics;
+
+import java.util.Map;
+
+public interface BackupMetricsMXBean {
+
+    /**
+     * Returns the number of tasks waiting in each queue.
+     */
+    Map<String, Long> getQueueDepths();
+}
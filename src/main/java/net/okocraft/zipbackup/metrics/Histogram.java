@@ -0,0 +1,62 @@
+package net.okocraft.zipbackup.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram with fixed upper bounds, in the shape of a Prometheus histogram.
+ */
+final class Histogram {
+
+    private final double[] bounds;
+    private final AtomicLongArray counts;
+    private final LongAdder count = new LongAdder();
+    private final DoubleAdder sum = new DoubleAdder();
+
+    Histogram(double @NotNull ... bounds) {
+        this.bounds = bounds.clone();
+        this.counts = new AtomicLongArray(bounds.length);
+    }
+
+    void observe(double value) {
+        for (int i = 0; i < bounds.length; i++) {
+            if (value <= bounds[i]) {
+                counts.incrementAndGet(i);
+                break;
+            }
+        }
+
+        count.increment();
+        sum.add(value);
+    }
+
+    double @NotNull [] getBounds() {
+        return bounds.clone();
+    }
+
+    /**
+     * Returns the cumulative count of each bucket, the number of observations less than or equal to its bound.
+     */
+    long @NotNull [] getCumulativeCounts() {
+        var result = new long[bounds.length];
+        long total = 0;
+
+        for (int i = 0; i < bounds.length; i++) {
+            total += counts.get(i);
+            result[i] = total;
+        }
+
+        return result;
+    }
+
+    long getCount() {
+        return count.sum();
+    }
+
+    double getSum() {
+        return sum.sum();
+    }
+}
@@ -0,0 +1,202 @@
+package net.okocraft.zipbackup.metrics;
+
+import net.okocraft.zipbackup.throttle.IoThrottle;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records a single backup job. The values are added to the totals of the target as they are recorded,
+ * so that a running job can be observed.
+ */
+public final class JobMetrics {
+
+    public enum Stage {
+        SCAN,
+        COMPRESS,
+        WRITE;
+
+        public @NotNull String getName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private final @Nullable TargetMetrics target;
+    private final long start = System.nanoTime();
+    private final LongAdder filesAdded = new LongAdder();
+    private final LongAdder filesSkipped = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final List<Path> truncatedFiles = new ArrayList<>();
+    private boolean finished;
+
+    JobMetrics(@Nullable TargetMetrics target) {
+        this.target = target;
+
+        if (target != null) {
+            target.runningJobs.incrementAndGet();
+        }
+    }
+
+    /**
+     * Creates the metrics of a job that is not part of any target, such as copying a backup by a command.
+     */
+    public static @NotNull JobMetrics untracked() {
+        return new JobMetrics(null);
+    }
+
+    public void recordScanned(long size) {
+        if (target != null) {
+            target.bytesScanned.add(size);
+        }
+    }
+
+    public void recordAdded() {
+        filesAdded.increment();
+
+        if (target != null) {
+            target.filesAdded.increment();
+        }
+    }
+
+    public void recordSkipped() {
+        filesSkipped.increment();
+
+        if (target != null) {
+            target.filesSkipped.increment();
+        }
+    }
+
+    /**
+     * Records a file that has been truncated while it was read, so the rest of it has been filled with zeros in the backup.
+     */
+    public void recordTruncated(@NotNull Path file) {
+        synchronized (truncatedFiles) {
+            truncatedFiles.add(file);
+        }
+
+        if (target != null) {
+            target.filesTruncated.increment();
+        }
+    }
+
+    public @NotNull List<Path> getTruncatedFiles() {
+        synchronized (truncatedFiles) {
+            return List.copyOf(truncatedFiles);
+        }
+    }
+
+    public void recordCompressed(long uncompressedSize, long compressedSize) {
+        if (target != null) {
+            target.uncompressedBytes.add(uncompressedSize);
+            target.compressedBytes.add(compressedSize);
+        }
+    }
+
+    public void addTime(@NotNull Stage stage, long nanos) {
+        if (target != null) {
+            target.stageNanos[stage.ordinal()].add(nanos);
+        }
+    }
+
+    /**
+     * Wraps the throttle to count the bytes that the job reads and writes.
+     */
+    public @NotNull IoThrottle meter(@NotNull IoThrottle throttle) {
+        return new IoThrottle() {
+            @Override
+            public void acquireRead(long bytes) throws InterruptedIOException {
+                throttle.acquireRead(bytes);
+                bytesRead.add(bytes);
+
+                if (target != null) {
+                    target.bytesRead.add(bytes);
+                }
+            }
+
+            @Override
+            public void acquireWrite(long bytes) throws InterruptedIOException {
+                throttle.acquireWrite(bytes);
+                bytesWritten.add(bytes);
+
+                if (target != null) {
+                    target.bytesWritten.add(bytes);
+                }
+            }
+        };
+    }
+
+    /**
+     * Wraps the scan to count the time spent waiting for the scanner as the {@link Stage#SCAN} stage.
+     */
+    public <T> @NotNull Iterable<T> timeScan(@NotNull Iterable<T> scan) {
+        return () -> {
+            var iterator = scan.iterator();
+
+            return new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    long start = System.nanoTime();
+
+                    try {
+                        return iterator.hasNext();
+                    } finally {
+                        addTime(Stage.SCAN, System.nanoTime() - start);
+                    }
+                }
+
+                @Override
+                public T next() {
+                    long start = System.nanoTime();
+
+                    try {
+                        return iterator.next();
+                    } finally {
+                        addTime(Stage.SCAN, System.nanoTime() - start);
+                    }
+                }
+            };
+        };
+    }
+
+    public synchronized void finish(boolean succeeded) {
+        if (finished) {
+            return;
+        }
+
+        finished = true;
+
+        if (target == null) {
+            return;
+        }
+
+        long duration = System.nanoTime() - start;
+
+        target.runningJobs.decrementAndGet();
+        (succeeded ? target.succeededJobs : target.failedJobs).increment();
+        target.lastJobDurationMillis.set(TimeUnit.NANOSECONDS.toMillis(duration));
+        target.jobDuration.observe((double) duration / TimeUnit.SECONDS.toNanos(1));
+    }
+
+    /**
+     * Describes the job for the log.
+     */
+    public @NotNull String getSummary() {
+        int truncated = getTruncatedFiles().size();
+
+        return ", " + filesAdded.sum() + " files added, " + filesSkipped.sum() + " skipped, " +
+                (truncated != 0 ? truncated + " truncated, " : "") + toMebibytes(bytesRead.sum()) + " MiB read, " + toMebibytes(bytesWritten.sum()) + " MiB written";
+    }
+
+    private static @NotNull String toMebibytes(long bytes) {
+        return String.format(Locale.ROOT, "%.1f", bytes / (1024.0 * 1024.0));
+    }
+}
@@ -0,0 +1,128 @@
+package net.okocraft.zipbackup.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+public final class TargetMetrics implements TargetMetricsMXBean {
+
+    private static final double[] JOB_DURATION_BUCKETS = {1, 5, 10, 30, 60, 120, 300, 600, 1800, 3600, 7200};
+
+    private final String target;
+
+    final LongAdder bytesScanned = new LongAdder();
+    final LongAdder bytesRead = new LongAdder();
+    final LongAdder bytesWritten = new LongAdder();
+    final LongAdder filesAdded = new LongAdder();
+    final LongAdder filesSkipped = new LongAdder();
+    final LongAdder filesTruncated = new LongAdder();
+    final LongAdder uncompressedBytes = new LongAdder();
+    final LongAdder compressedBytes = new LongAdder();
+    final LongAdder[] stageNanos = new LongAdder[JobMetrics.Stage.values().length];
+    final AtomicInteger runningJobs = new AtomicInteger();
+    final LongAdder succeededJobs = new LongAdder();
+    final LongAdder failedJobs = new LongAdder();
+    final AtomicLong lastJobDurationMillis = new AtomicLong();
+    final Histogram jobDuration = new Histogram(JOB_DURATION_BUCKETS);
+
+    TargetMetrics(@NotNull String target) {
+        this.target = target;
+
+        for (int i = 0; i < stageNanos.length; i++) {
+            stageNanos[i] = new LongAdder();
+        }
+    }
+
+    @Override
+    public String getTarget() {
+        return target;
+    }
+
+    @Override
+    public long getBytesScanned() {
+        return bytesScanned.sum();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public long getFilesAdded() {
+        return filesAdded.sum();
+    }
+
+    @Override
+    public long getFilesSkipped() {
+        return filesSkipped.sum();
+    }
+
+    @Override
+    public long getFilesTruncated() {
+        return filesTruncated.sum();
+    }
+
+    @Override
+    public double getCompressionRatio() {
+        long compressed = compressedBytes.sum();
+        return compressed == 0 ? 0 : (double) uncompressedBytes.sum() / compressed;
+    }
+
+    @Override
+    public long getScanTimeMillis() {
+        return getStageTimeMillis(JobMetrics.Stage.SCAN);
+    }
+
+    @Override
+    public long getCompressTimeMillis() {
+        return getStageTimeMillis(JobMetrics.Stage.COMPRESS);
+    }
+
+    @Override
+    public long getWriteTimeMillis() {
+        return getStageTimeMillis(JobMetrics.Stage.WRITE);
+    }
+
+    @Override
+    public int getRunningJobs() {
+        return runningJobs.get();
+    }
+
+    @Override
+    public long getSucceededJobs() {
+        return succeededJobs.sum();
+    }
+
+    @Override
+    public long getFailedJobs() {
+        return failedJobs.sum();
+    }
+
+    @Override
+    public long getLastJobDurationMillis() {
+        return lastJobDurationMillis.get();
+    }
+
+    @Override
+    public double[] getJobDurationBucketSeconds() {
+        return jobDuration.getBounds();
+    }
+
+    @Override
+    public long[] getJobDurationBucketCounts() {
+        return jobDuration.getCumulativeCounts();
+    }
+
+    public long getStageTimeMillis(@NotNull JobMetrics.Stage stage) {
+        return TimeUnit.NANOSECONDS.toMillis(stageNanos[stage.ordinal()].sum());
+    }
+}
@@ -0,0 +1,47 @@
+package net.okocraft.zipbackup.metrics;
+
+/**
+ * The totals of the backups of a single target, such as a world, since the server has been started.
+ */
+public interface TargetMetricsMXBean {
+
+    String getTarget();
+
+    long getBytesScanned();
+
+    long getBytesRead();
+
+    long getBytesWritten();
+
+    long getFilesAdded();
+
+    long getFilesSkipped();
+
+    /**
+     * Returns the number of files that have been truncated while they were read, whose rest is filled with zeros in the backups.
+     */
+    long getFilesTruncated();
+
+    /**
+     * Returns the size of the compressed data divided by its size in the archive, or 0 if nothing has been compressed.
+     */
+    double getCompressionRatio();
+
+    long getScanTimeMillis();
+
+    long getCompressTimeMillis();
+
+    long getWriteTimeMillis();
+
+    int getRunningJobs();
+
+    long getSucceededJobs();
+
+    long getFailedJobs();
+
+    long getLastJobDurationMillis();
+
+    double[] getJobDurationBucketSeconds();
+
+    long[] getJobDurationBucketCounts();
+}
@@ -0,0 +1,17 @@
+package net.okocraft.zipbackup.monitor;
+
+/**
+ * The recent load of the server, read by the backup threads.
+ */
+public interface ServerLoad {
+
+    /**
+     * Returns the average duration of recent ticks in milliseconds.
+     */
+    double getRecentTickDuration();
+
+    /**
+     * Returns the number of ticks per second measured over recent ticks.
+     */
+    double getRecentTps();
+}
@@ -0,0 +1,59 @@
+package net.okocraft.zipbackup.monitor;
+
+import com.destroystokyo.paper.event.server.ServerTickEndEvent;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the duration of recent server ticks on the main thread so that backup threads can read them.
+ */
+public class TickMonitor implements Listener, ServerLoad {
+
+    private static final int SAMPLE_TICKS = 20;
+    private static final double MAX_TPS = 20.0;
+
+    private final double[] durations = new double[SAMPLE_TICKS];
+    private long windowStart = System.nanoTime();
+    private volatile double recentTickDuration;
+    private volatile double recentTps = MAX_TPS;
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onTickEnd(@NotNull ServerTickEndEvent event) {
+        int index = Math.floorMod(event.getTickNumber(), SAMPLE_TICKS);
+        durations[index] = event.getTickDuration();
+
+        if (index == SAMPLE_TICKS - 1) {
+            double sum = 0;
+
+            for (double duration : durations) {
+                sum += duration;
+            }
+
+            recentTickDuration = sum / SAMPLE_TICKS;
+
+            long now = System.nanoTime();
+            recentTps = Math.min(MAX_TPS, SAMPLE_TICKS * (double) TimeUnit.SECONDS.toNanos(1) / Math.max(1, now - windowStart));
+            windowStart = now;
+        }
+    }
+
+    /**
+     * Returns the average duration of the last second of ticks in milliseconds.
+     */
+    @Override
+    public double getRecentTickDuration() {
+        return recentTickDuration;
+    }
+
+    /**
+     * Returns the number of ticks per second measured over the last {@value #SAMPLE_TICKS} ticks, at most 20.
+     */
+    @Override
+    public double getRecentTps() {
+        return recentTps;
+    }
+}
@@ -0,0 +1,229 @@
+package net.okocraft.zipbackup.region;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.ZipException;
+
+/**
+ * Creates and applies chunk-level deltas between two versions of an Anvil region file.
+ * <p>
+ * A region file starts with a location table and a timestamp table (1024 entries each). Minecraft updates
+ * the timestamp of a chunk every time it is written, so only chunks whose timestamp or presence differs
+ * from the base are stored in the delta.
+ */
+public final class RegionDelta {
+
+    public static final String ENTRY_SUFFIX = ".zbdelta";
+
+    private static final int MAGIC = 0x5A425244; // "ZBRD"
+    private static final int VERSION = 1;
+
+    private static final int SECTOR_SIZE = 4096;
+    private static final int CHUNK_COUNT = 1024;
+    private static final int HEADER_SIZE = SECTOR_SIZE * 2;
+    private static final int MAX_SECTOR_COUNT = 255;
+
+    public static boolean isRegionFile(@NotNull Path file) {
+        return file.getFileName().toString().endsWith(".mca");
+    }
+
+    /**
+     * Creates the delta from {@code base} to {@code current}.
+     *
+     * @return the delta, an empty array if no chunk has changed, or {@code null} if the delta would not be
+     * smaller than the current file or either file cannot be read as a region file
+     */
+    public static byte @Nullable [] create(@NotNull Path base, @NotNull Path current) throws IOException {
+        try (var baseChannel = FileChannel.open(base, StandardOpenOption.READ);
+             var currentChannel = FileChannel.open(current, StandardOpenOption.READ)) {
+            var baseHeader = readHeader(baseChannel);
+            var currentHeader = readHeader(currentChannel);
+
+            if (baseHeader == null || currentHeader == null) {
+                return null;
+            }
+
+            long currentSize = currentChannel.size();
+            var output = new ByteArrayOutputStream();
+            var data = new DataOutputStream(output);
+            int changed = 0;
+
+            for (int i = 0; i < CHUNK_COUNT; i++) {
+                int currentLocation = currentHeader.getInt(i * 4);
+                int currentTimestamp = currentHeader.getInt(SECTOR_SIZE + i * 4);
+
+                if (isPresent(baseHeader.getInt(i * 4)) == isPresent(currentLocation) &&
+                        baseHeader.getInt(SECTOR_SIZE + i * 4) == currentTimestamp) {
+                    continue;
+                }
+
+                byte[] chunk = isPresent(currentLocation) ? readChunk(currentChannel, currentLocation) : new byte[0];
+
+                if (chunk == null) {
+                    return null;
+                }
+
+                data.writeShort(i);
+                data.writeInt(currentTimestamp);
+                data.writeInt(chunk.length);
+                data.write(chunk);
+                changed++;
+
+                if (currentSize <= output.size()) {
+                    return null;
+                }
+            }
+
+            if (changed == 0) {
+                return new byte[0];
+            }
+
+            var result = new ByteArrayOutputStream(output.size() + 9);
+            var header = new DataOutputStream(result);
+            header.writeInt(MAGIC);
+            header.writeByte(VERSION);
+            header.writeInt(changed);
+            output.writeTo(result);
+
+            return result.toByteArray();
+        }
+    }
+
+    /**
+     * Rebuilds a region file from {@code base} and the delta read from {@code delta}, writing it to {@code target}.
+     */
+    public static void apply(@NotNull Path base, @NotNull InputStream delta, @NotNull Path target) throws IOException {
+        Files.write(target, rebuild(base, delta));
+    }
+
+    /**
+     * Rebuilds a region file from {@code base} and the delta read from {@code delta}.
+     * The region is built in memory, which is at most a few megabytes, so that it can be streamed into an archive.
+     */
+    public static byte @NotNull [] rebuild(@NotNull Path base, @NotNull InputStream delta) throws IOException {
+        var input = new DataInputStream(delta);
+
+        if (input.readInt() != MAGIC || input.readUnsignedByte() != VERSION) {
+            throw new ZipException("Not a region delta");
+        }
+
+        var chunks = new byte[CHUNK_COUNT][];
+        var timestamps = new int[CHUNK_COUNT];
+
+        try (var baseChannel = FileChannel.open(base, StandardOpenOption.READ)) {
+            var baseHeader = readHeader(baseChannel);
+
+            if (baseHeader == null) {
+                throw new ZipException("Invalid region file: " + base);
+            }
+
+            for (int i = 0, count = input.readInt(); i < count; i++) {
+                int index = input.readUnsignedShort();
+                timestamps[index] = input.readInt();
+                chunks[index] = input.readNBytes(input.readInt());
+            }
+
+            for (int i = 0; i < CHUNK_COUNT; i++) {
+                if (chunks[i] == null) {
+                    int location = baseHeader.getInt(i * 4);
+                    timestamps[i] = baseHeader.getInt(SECTOR_SIZE + i * 4);
+                    chunks[i] = isPresent(location) ? readChunk(baseChannel, location) : new byte[0];
+
+                    if (chunks[i] == null) {
+                        throw new ZipException("Invalid chunk " + i + " in " + base);
+                    }
+                }
+            }
+        }
+
+        return write(chunks, timestamps);
+    }
+
+    private static byte @NotNull [] write(byte[][] chunks, int[] timestamps) {
+        int totalSectors = HEADER_SIZE / SECTOR_SIZE;
+
+        for (var chunk : chunks) {
+            totalSectors += (chunk.length + SECTOR_SIZE - 1) / SECTOR_SIZE;
+        }
+
+        var region = ByteBuffer.allocate(totalSectors * SECTOR_SIZE);
+        int sector = HEADER_SIZE / SECTOR_SIZE;
+
+        for (int i = 0; i < CHUNK_COUNT; i++) {
+            var chunk = chunks[i];
+
+            if (chunk.length == 0) {
+                continue;
+            }
+
+            int sectors = (chunk.length + SECTOR_SIZE - 1) / SECTOR_SIZE;
+
+            region.putInt(i * 4, sector << 8 | Math.min(sectors, MAX_SECTOR_COUNT));
+            region.putInt(SECTOR_SIZE + i * 4, timestamps[i]);
+            region.put(sector * SECTOR_SIZE, chunk);
+
+            sector += sectors;
+        }
+
+        return region.array();
+    }
+
+    private static @Nullable ByteBuffer readHeader(@NotNull FileChannel channel) throws IOException {
+        if (channel.size() < HEADER_SIZE) {
+            return null;
+        }
+
+        var header = ByteBuffer.allocate(HEADER_SIZE);
+        return readFully(channel, header, 0) ? header.clear() : null;
+    }
+
+    private static byte @Nullable [] readChunk(@NotNull FileChannel channel, int location) throws IOException {
+        long offset = (long) (location >>> 8) * SECTOR_SIZE;
+        var lengthBuffer = ByteBuffer.allocate(4);
+
+        if (!readFully(channel, lengthBuffer, offset)) {
+            return null;
+        }
+
+        int length = lengthBuffer.getInt(0);
+
+        // the length field covers the compression type byte and the data; the field itself is kept in the delta
+        if (length <= 0 || channel.size() < offset + 4 + length) {
+            return null;
+        }
+
+        var chunk = ByteBuffer.allocate(4 + length);
+        return readFully(channel, chunk, offset) ? chunk.array() : null;
+    }
+
+    private static boolean isPresent(int location) {
+        return location != 0;
+    }
+
+    private static boolean readFully(@NotNull FileChannel channel, @NotNull ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, offset + buffer.position());
+
+            if (read < 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private RegionDelta() {
+        throw new UnsupportedOperationException();
+    }
+}
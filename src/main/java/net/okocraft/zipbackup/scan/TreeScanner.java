@@ -0,0 +1,271 @@
+package net.okocraft.zipbackup.scan;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Serial;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Walks directory trees on a fork-join pool, one task per directory.
+ * <p>
+ * The files are handed to the consumer through a bounded queue while the walk is still running, so that
+ * the consumer can start compressing before the whole tree has been listed. A directory is always returned
+ * before its contents, and the files of each directory are returned in the order of their names,
+ * but the files of different directories may be interleaved.
+ * <p>
+ * The tasks wait for the consumer through {@link ForkJoinPool#managedBlock}, so that the pool can keep other
+ * directories scanned while the queue is full.
+ */
+public final class TreeScanner {
+
+    private static final int QUEUE_CAPACITY = 4096;
+    private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+    private final ForkJoinPool pool;
+
+    public TreeScanner(@NotNull ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Starts scanning the directory. The returned {@link Scan} must be closed to stop the walk
+     * when the files are not consumed to the end.
+     */
+    public @NotNull Scan scan(@NotNull Path root) throws IOException {
+        var rootAttributes = readAttributes(root);
+        var scan = new Scan(new ScannedFile(root, rootAttributes));
+
+        scan.emit(new ScannedFile(root, rootAttributes));
+
+        if (rootAttributes.isDirectory()) {
+            pool.execute(() -> {
+                try {
+                    new DirectoryTask(scan, root).invoke();
+                } catch (CancellationException ignored) {
+                } catch (RuntimeException e) {
+                    scan.failure = e;
+                } finally {
+                    scan.finish();
+                }
+            });
+        } else {
+            scan.finish();
+        }
+
+        return scan;
+    }
+
+    private static @NotNull BasicFileAttributes readAttributes(@NotNull Path path) throws IOException {
+        var attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+
+        if (attributes.isSymbolicLink()) {
+            // like Files.walk and Files.isRegularFile, links to files are read as the file but links to directories are not followed
+            try {
+                var target = Files.readAttributes(path, BasicFileAttributes.class);
+
+                if (target.isRegularFile()) {
+                    return target;
+                }
+            } catch (IOException ignored) {
+            }
+        }
+
+        return attributes;
+    }
+
+    public record ScannedFile(@NotNull Path path, @NotNull BasicFileAttributes attributes) {
+    }
+
+    public static final class Scan implements Iterable<ScannedFile>, Closeable {
+
+        private final BlockingQueue<ScannedFile> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private final ScannedFile end;
+        private volatile boolean closed;
+        private volatile @Nullable RuntimeException failure;
+
+        private Scan(@NotNull ScannedFile root) {
+            // a distinct instance that marks the end of the queue
+            this.end = new ScannedFile(root.path(), root.attributes());
+        }
+
+        @Override
+        public @NotNull Iterator<ScannedFile> iterator() {
+            return new Iterator<>() {
+                private @Nullable ScannedFile next;
+                private boolean finished;
+
+                @Override
+                public boolean hasNext() {
+                    if (next == null && !finished) {
+                        next = take();
+
+                        if (next == end) {
+                            next = null;
+                            finished = true;
+
+                            var exception = failure;
+
+                            if (exception != null) {
+                                throw exception;
+                            }
+                        }
+                    }
+
+                    return next != null;
+                }
+
+                @Override
+                public @NotNull ScannedFile next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+
+                    var result = next;
+                    next = null;
+                    return result;
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            queue.clear();
+        }
+
+        private @NotNull ScannedFile take() {
+            try {
+                return queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+                throw new CancellationException("Interrupted while scanning files");
+            }
+        }
+
+        private void emit(@NotNull ScannedFile file) {
+            try {
+                ForkJoinPool.managedBlock(new Offer(file));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException();
+            }
+        }
+
+        private final class Offer implements ForkJoinPool.ManagedBlocker {
+
+            private final ScannedFile file;
+            private boolean offered;
+
+            private Offer(@NotNull ScannedFile file) {
+                this.file = file;
+            }
+
+            @Override
+            public boolean block() throws InterruptedException {
+                while (!offered) {
+                    if (closed) {
+                        throw new CancellationException();
+                    }
+
+                    offered = queue.offer(file, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                }
+
+                return true;
+            }
+
+            @Override
+            public boolean isReleasable() {
+                return offered || (offered = queue.offer(file));
+            }
+        }
+
+        private void finish() {
+            try {
+                while (!closed && !queue.offer(end, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    // wait for the consumer
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static final class DirectoryTask extends RecursiveAction {
+
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final Scan scan;
+        private final Path directory;
+
+        private DirectoryTask(@NotNull Scan scan, @NotNull Path directory) {
+            this.scan = scan;
+            this.directory = directory;
+        }
+
+        @Override
+        protected void compute() {
+            var children = new ArrayList<ScannedFile>();
+            var subdirectories = new ArrayList<DirectoryTask>();
+
+            try {
+                // the walk takes the attributes from the directory listing where the file system returns them with it,
+                // such as on Windows, instead of reading them file by file
+                Files.walkFileTree(directory, Set.of(), 1, new SimpleFileVisitor<>() {
+                    @Override
+                    public @NotNull FileVisitResult visitFile(@NotNull Path file,
+                                                              @NotNull BasicFileAttributes attributes) throws IOException {
+                        var followed = attributes.isSymbolicLink() ? readAttributes(file) : attributes;
+                        children.add(new ScannedFile(file, followed));
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            // the directory is listed in the order of the file system
+            children.sort(Comparator.comparing(ScannedFile::path));
+
+            for (var file : children) {
+                if (scan.closed) {
+                    throw new CancellationException();
+                }
+
+                // emitted before the task is forked, so the directory is queued ahead of its contents
+                scan.emit(file);
+
+                if (file.attributes().isDirectory()) {
+                    var task = new DirectoryTask(scan, file.path());
+                    task.fork();
+                    subdirectories.add(task);
+                }
+            }
+
+            for (var task : subdirectories) {
+                task.join();
+            }
+        }
+    }
+}
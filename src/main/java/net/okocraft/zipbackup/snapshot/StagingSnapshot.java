@@ -0,0 +1,144 @@
+package net.okocraft.zipbackup.snapshot;
+
+import net.okocraft.zipbackup.scan.TreeScanner;
+import net.okocraft.zipbackup.util.Reflink;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * A point-in-time copy of a directory in a staging area, so that the backup can be created from files
+ * that the server no longer writes to.
+ * <p>
+ * Files are cloned with reflinks where the filesystem supports them, which only takes as long as copying the metadata.
+ * Otherwise, they are copied without compression. Hardlinks are not used because the server writes region files in place,
+ * which would change the linked files as well.
+ */
+public final class StagingSnapshot implements Closeable {
+
+    private static final int MAX_CLONE_BATCH = 256;
+
+    private final Path directory;
+    private boolean reflinkSupported = true;
+
+    private StagingSnapshot(@NotNull Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Creates the snapshot of the source directory in the staging directory, replacing a snapshot that has been left behind.
+     */
+    public static @NotNull StagingSnapshot create(@NotNull TreeScanner scanner, @NotNull Path source, @NotNull Path stagingDir,
+                                                  @NotNull Predicate<Path> shouldIgnore) throws IOException {
+        var snapshot = new StagingSnapshot(stagingDir);
+
+        try {
+            if (Files.exists(stagingDir)) {
+                snapshot.close();
+            }
+
+            snapshot.copy(scanner, source, shouldIgnore);
+        } catch (IOException | RuntimeException e) {
+            try {
+                snapshot.close();
+            } catch (IOException | UncheckedIOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+
+        return snapshot;
+    }
+
+    public @NotNull Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns whether the files have been cloned with reflinks instead of being copied.
+     */
+    public boolean isCloned() {
+        return reflinkSupported;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+
+        try (var walk = Files.walk(directory)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void copy(@NotNull TreeScanner scanner, @NotNull Path source, @NotNull Predicate<Path> shouldIgnore) throws IOException {
+        // the scanner does not return files grouped by directory, so clones are batched per target directory
+        var pendingClones = new HashMap<Path, List<Path>>();
+
+        try (var scan = scanner.scan(source)) {
+            for (var file : scan) {
+                var sourceFile = file.path();
+
+                if (shouldIgnore.test(sourceFile)) {
+                    continue;
+                }
+
+                var targetFile = directory.resolve(source.relativize(sourceFile).toString());
+
+                if (file.attributes().isDirectory()) {
+                    Files.createDirectories(targetFile);
+                    continue;
+                }
+
+                if (!reflinkSupported || !file.attributes().isRegularFile()) {
+                    Files.copy(sourceFile, targetFile, StandardCopyOption.COPY_ATTRIBUTES);
+                    continue;
+                }
+
+                var targetDir = targetFile.getParent();
+                var batch = pendingClones.computeIfAbsent(targetDir, ignored -> new ArrayList<>());
+                batch.add(sourceFile);
+
+                if (MAX_CLONE_BATCH <= batch.size()) {
+                    flushClones(targetDir, pendingClones.remove(targetDir));
+                }
+            }
+        }
+
+        for (var batch : pendingClones.entrySet()) {
+            flushClones(batch.getKey(), batch.getValue());
+        }
+    }
+
+    private void flushClones(@NotNull Path targetDir, @NotNull List<Path> batch) throws IOException {
+        if (reflinkSupported && Reflink.cloneInto(batch, targetDir)) {
+            return;
+        }
+
+        reflinkSupported = false;
+
+        for (var sourceFile : batch) {
+            var targetFile = targetDir.resolve(sourceFile.getFileName().toString());
+            Files.copy(sourceFile, targetFile, StandardCopyOption.COPY_ATTRIBUTES, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package net.okocraft.zipbackup.task;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs backup tasks in order of priority, limiting how many of them write to the same disk at once.
+ * <p>
+ * The tasks mostly wait for disk I/O and for the compression workers, so they can run on virtual threads
+ * when the server runs on Java 21 or later.
+ */
+public final class BackupExecutor {
+
+    private final ThreadPoolExecutor pool;
+    private final int maxTasksPerDisk;
+    private final Map<Object, DiskQueue> disks = new HashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final boolean virtualThreads;
+
+    /**
+     * @param threads         the number of tasks that can run at once
+     * @param maxTasksPerDisk the number of tasks that can write to the same disk at once, 0 or less for no limit
+     * @param virtualThreads  whether to run the tasks on virtual threads if they are available
+     */
+    public BackupExecutor(int threads, int maxTasksPerDisk, boolean virtualThreads) {
+        var virtualThreadFactory = virtualThreads ? createVirtualThreadFactory() : null;
+
+        this.pool = new ThreadPoolExecutor(
+                threads, threads,
+                0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(),
+                virtualThreadFactory != null ? virtualThreadFactory : Executors.defaultThreadFactory()
+        );
+        this.maxTasksPerDisk = maxTasksPerDisk;
+        this.virtualThreads = virtualThreadFactory != null;
+    }
+
+    /**
+     * Submits the task. Tasks with a lower priority value run first, and tasks of the same priority run in submission order.
+     *
+     * @param destination the directory the task writes to, used to find the disk
+     */
+    public @NotNull CompletableFuture<Void> submit(@NotNull Runnable task, int priority, @NotNull Path destination) {
+        var future = new CompletableFuture<Void>();
+        var disk = 0 < maxTasksPerDisk ? getDisk(destination) : null;
+        var prioritized = new PrioritizedTask(priority, sequence.getAndIncrement(), future, () -> {
+            try {
+                task.run();
+                future.complete(null);
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            } finally {
+                if (disk != null) {
+                    releaseDisk(disk);
+                }
+            }
+        });
+
+        if (disk != null) {
+            dispatch(disk, prioritized);
+        } else {
+            pool.execute(prioritized);
+        }
+
+        return future;
+    }
+
+    public synchronized int getQueueSize() {
+        int size = pool.getQueue().size();
+
+        for (var disk : disks.values()) {
+            size += disk.waiting.size();
+        }
+
+        return size;
+    }
+
+    public boolean isUsingVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public boolean isShutdown() {
+        return pool.isShutdown();
+    }
+
+    /**
+     * Interrupts the running tasks and cancels the futures of the tasks that have not started yet.
+     */
+    public synchronized void shutdownNow() {
+        for (var task : pool.shutdownNow()) {
+            ((PrioritizedTask) task).future().cancel(false);
+        }
+
+        for (var disk : disks.values()) {
+            disk.waiting.forEach(task -> task.future().cancel(false));
+            disk.waiting.clear();
+        }
+    }
+
+    /**
+     * Hands the task to the pool if its disk has a free slot, or keeps it until a task on the same disk finishes,
+     * so that tasks waiting for a busy disk do not hold the threads that tasks for other disks could run on.
+     */
+    private synchronized void dispatch(@NotNull Object disk, @NotNull PrioritizedTask task) {
+        var queue = disks.computeIfAbsent(disk, ignored -> new DiskQueue());
+
+        if (queue.running < maxTasksPerDisk) {
+            pool.execute(task);
+            queue.running++;
+        } else {
+            queue.waiting.add(task);
+        }
+    }
+
+    private synchronized void releaseDisk(@NotNull Object disk) {
+        var queue = disks.get(disk);
+        var next = queue.waiting.poll();
+
+        if (next != null) {
+            pool.execute(next);
+            return;
+        }
+
+        if (--queue.running == 0) {
+            disks.remove(disk);
+        }
+    }
+
+    private static @NotNull Object getDisk(@NotNull Path destination) {
+        var existing = destination.toAbsolutePath();
+
+        while (existing != null && !Files.exists(existing)) {
+            existing = existing.getParent();
+        }
+
+        if (existing != null) {
+            try {
+                return Files.getFileStore(existing);
+            } catch (IOException ignored) {
+            }
+        }
+
+        // the disk is unknown, so every such destination is treated as its own disk
+        return destination.toAbsolutePath();
+    }
+
+    private static @Nullable ThreadFactory createVirtualThreadFactory() {
+        // the plugin is compiled for Java 17, so virtual threads are looked up at runtime
+        try {
+            var builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static final class DiskQueue {
+
+        private final PriorityQueue<PrioritizedTask> waiting = new PriorityQueue<>();
+        private int running;
+    }
+
+    private record PrioritizedTask(int priority, long sequence, @NotNull CompletableFuture<Void> future,
+                                   @NotNull Runnable task) implements Runnable, Comparable<PrioritizedTask> {
+
+        @Override
+        public void run() {
+            task.run();
+        }
+
+        @Override
+        public int compareTo(@NotNull PrioritizedTask other) {
+            int result = Integer.compare(priority, other.priority);
+            return result != 0 ? result : Long.compare(sequence, other.sequence);
+        }
+    }
+}
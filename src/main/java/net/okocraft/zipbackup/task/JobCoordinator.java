@@ -0,0 +1,136 @@
+package net.okocraft.zipbackup.task;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Keeps at most one running and one queued job per target, so that backups of the same target never overlap.
+ * <p>
+ * A request for a target whose job has not started yet is merged into that job. A request for a target whose job
+ * is already running is merged into a single follow-up job that starts once the running one has finished,
+ * so that the changes made during the running job are still backed up.
+ */
+public final class JobCoordinator {
+
+    private final Map<String, Job> jobs = new HashMap<>();
+
+    /**
+     * Submits the job for the target, or returns the future of the job it has been merged into.
+     *
+     * @param key      the target of the job, such as the name of the world
+     * @param task     the task to run
+     * @param launcher submits the task to the executor and returns its future
+     */
+    public synchronized @NotNull CompletableFuture<Void> submit(@NotNull String key, @NotNull Runnable task,
+                                                                 @NotNull Function<Runnable, CompletableFuture<Void>> launcher) {
+        var current = jobs.get(key);
+
+        if (current == null) {
+            var job = new Job(key, task, launcher);
+            launch(job);
+            return job.future;
+        }
+
+        if (!current.started) {
+            return current.future;
+        }
+
+        if (current.followUp == null) {
+            current.followUp = new Job(key, task, launcher);
+        }
+
+        return current.followUp.future;
+    }
+
+    public synchronized boolean isRunning(@NotNull String key) {
+        return jobs.containsKey(key);
+    }
+
+    /**
+     * Cancels the futures of all jobs, used when the executor has been shut down and the jobs will never finish.
+     */
+    public void cancelAll() {
+        var cancelled = new ArrayList<Job>();
+
+        synchronized (this) {
+            for (var job : jobs.values()) {
+                cancelled.add(job);
+
+                if (job.followUp != null) {
+                    cancelled.add(job.followUp);
+                }
+            }
+
+            jobs.clear();
+        }
+
+        cancelled.forEach(job -> job.future.completeExceptionally(new CancellationException("The job has been cancelled")));
+    }
+
+    private void launch(@NotNull Job job) {
+        jobs.put(job.key, job);
+
+        CompletableFuture<Void> execution;
+
+        try {
+            execution = job.launcher.apply(() -> {
+                start(job);
+                job.task.run();
+            });
+        } catch (RuntimeException e) {
+            execution = CompletableFuture.failedFuture(e);
+        }
+
+        execution.whenComplete((result, throwable) -> finish(job, throwable));
+    }
+
+    /**
+     * Marks the job as started under the same lock as {@link #submit}, so that a request either is merged into the job
+     * before it starts or becomes its follow-up job.
+     */
+    private synchronized void start(@NotNull Job job) {
+        job.started = true;
+    }
+
+    private void finish(@NotNull Job job, @Nullable Throwable throwable) {
+        synchronized (this) {
+            // the job may have been cancelled and replaced in the meantime
+            if (jobs.get(job.key) == job) {
+                if (job.followUp != null) {
+                    launch(job.followUp);
+                } else {
+                    jobs.remove(job.key);
+                }
+            }
+        }
+
+        if (throwable != null) {
+            job.future.completeExceptionally(throwable);
+        } else {
+            job.future.complete(null);
+        }
+    }
+
+    private static final class Job {
+
+        private final String key;
+        private final Runnable task;
+        private final Function<Runnable, CompletableFuture<Void>> launcher;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private boolean started;
+        private @Nullable Job followUp;
+
+        private Job(@NotNull String key, @NotNull Runnable task, @NotNull Function<Runnable, CompletableFuture<Void>> launcher) {
+            this.key = key;
+            this.task = task;
+            this.launcher = launcher;
+        }
+    }
+}
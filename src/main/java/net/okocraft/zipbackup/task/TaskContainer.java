@@ -8,34 +8,71 @@ import net.okocraft.zipbackup.task.purge.BackupPurgeTask;
 import org.bukkit.World;
 import org.jetbrains.annotations.NotNull;
 
+import java.nio.file.Path;
+import java.util.Comparator;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
 
 public class TaskContainer {
 
+    // worlds are backed up first, in the configured order and then by environment (overworld, nether, the end)
+    private static final int PLUGIN_BACKUP_PRIORITY = 1_000_000;
+    private static final int PURGE_PRIORITY = 2_000_000;
+
     private final ZipBackupPlugin plugin;
+    private final JobCoordinator jobs = new JobCoordinator();
     private ScheduledExecutorService scheduler;
-    private ExecutorService backupExecutors;
+    private BackupExecutor backupExecutor;
+    private ThreadPoolExecutor compressionExecutor;
+    private ForkJoinPool scanPool;
 
     public TaskContainer(@NotNull ZipBackupPlugin plugin) {
         this.plugin = plugin;
     }
 
     public void scheduleTasks() {
-        if (backupExecutors == null) {
-            backupExecutors = Executors.newFixedThreadPool(4);
+        if (backupExecutor == null) {
+            backupExecutor = new BackupExecutor(
+                    plugin.getConfiguration().get(Settings.BACKUP_THREADS),
+                    plugin.getConfiguration().get(Settings.MAX_BACKUPS_PER_DISK),
+                    plugin.getConfiguration().get(Settings.BACKUP_VIRTUAL_THREADS)
+            );
+
+            if (plugin.getConfiguration().get(Settings.BACKUP_VIRTUAL_THREADS) && !backupExecutor.isUsingVirtualThreads()) {
+                plugin.getLogger().warning("Virtual threads are not available on this Java version, using platform threads instead.");
+            }
+        }
+
+        if (compressionExecutor == null) {
+            int workers = plugin.getConfiguration().get(Settings.COMPRESSION_WORKERS);
+            compressionExecutor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+        }
+
+        if (scanPool == null) {
+            scanPool = new ForkJoinPool(plugin.getConfiguration().get(Settings.SCAN_WORKERS));
         }
 
         if (scheduler == null) {
             scheduler = Executors.newSingleThreadScheduledExecutor();
         }
 
+        var metrics = plugin.getMetrics();
+        var backups = backupExecutor;
+        var compression = compressionExecutor;
+        var scan = scanPool;
+        metrics.setQueueDepth("backup", backups::getQueueSize);
+        metrics.setQueueDepth("compression", () -> compression.getQueue().size());
+        metrics.setQueueDepth("scan", scan::getQueuedTaskCount);
+
         int purgeInterval = plugin.getConfiguration().get(Settings.BACKUP_PURGE_INTERVAL);
 
         if (0 < purgeInterval) {
@@ -72,25 +109,62 @@ public class TaskContainer {
     }
 
     public @NotNull CompletableFuture<Void> runPurgeTask() {
-        return runBackupTask(new BackupPurgeTask(plugin));
+        return runBackupTask("purge", new BackupPurgeTask(plugin), PURGE_PRIORITY, plugin.getBackupDirectory());
     }
 
     public @NotNull CompletableFuture<Void> runPluginBackupTask() {
-        return runBackupTask(new PluginBackupTask(plugin));
+        return runBackupTask("plugins", new PluginBackupTask(plugin), PLUGIN_BACKUP_PRIORITY, plugin.getBackupDirectory().resolve("plugins"));
     }
 
+    /**
+     * Submits the backup tasks of all worlds in order of priority. The tasks are submitted before this method returns.
+     */
     public @NotNull Stream<CompletableFuture<Void>> runWorldBackupTask() {
-        return createBackupTaskForAllWorlds().map(this::runBackupTask);
+        var priorities = plugin.getConfiguration().get(Settings.BACKUP_WORLD_PRIORITY);
+
+        return getWorldsToBackup()
+                .sorted(Comparator.comparingInt(world -> getPriority(priorities, world)))
+                .map(world -> runWorldBackupTask(world, priorities))
+                .toList()
+                .stream();
     }
 
     public @NotNull CompletableFuture<Void> runWorldBackupTask(@NotNull World world) {
-        return runBackupTask(new WorldBackupTask(plugin, world));
+        return runWorldBackupTask(world, plugin.getConfiguration().get(Settings.BACKUP_WORLD_PRIORITY));
+    }
+
+    public @NotNull ExecutorService getCompressionExecutor() {
+        if (compressionExecutor == null) {
+            throw new IllegalStateException("The compression executor is not running.");
+        }
+
+        return compressionExecutor;
+    }
+
+    public @NotNull ForkJoinPool getScanPool() {
+        if (scanPool == null) {
+            throw new IllegalStateException("The scan pool is not running.");
+        }
+
+        return scanPool;
     }
 
     public void shutdownIfRunning() {
-        if (backupExecutors != null && !backupExecutors.isShutdown()) {
-            backupExecutors.shutdownNow();
-            backupExecutors = null;
+        if (backupExecutor != null && !backupExecutor.isShutdown()) {
+            backupExecutor.shutdownNow();
+            backupExecutor = null;
+        }
+
+        jobs.cancelAll();
+
+        if (compressionExecutor != null && !compressionExecutor.isShutdown()) {
+            compressionExecutor.shutdownNow();
+            compressionExecutor = null;
+        }
+
+        if (scanPool != null && !scanPool.isShutdown()) {
+            scanPool.shutdownNow();
+            scanPool = null;
         }
 
         if (scheduler != null && !scheduler.isShutdown()) {
@@ -99,17 +173,38 @@ public class TaskContainer {
         }
     }
 
-    private @NotNull Stream<WorldBackupTask> createBackupTaskForAllWorlds() {
+    private @NotNull Stream<World> getWorldsToBackup() {
         var excludedWorlds = plugin.getConfiguration().get(Settings.BACKUP_WORLD_EXCLUDE);
 
         return plugin.getServer().getWorlds()
                 .stream()
-                .filter(Predicate.not(world -> isBackupDisabledWorld(excludedWorlds, world.getName())))
-                .map(world -> new WorldBackupTask(plugin, world));
+                .filter(Predicate.not(world -> isBackupDisabledWorld(excludedWorlds, world.getName())));
+    }
+
+    private @NotNull CompletableFuture<Void> runWorldBackupTask(@NotNull World world, @NotNull List<String> priorities) {
+        return runBackupTask(
+                "world:" + world.getName(),
+                new WorldBackupTask(plugin, world),
+                getPriority(priorities, world),
+                plugin.getBackupDirectory().resolve(world.getName())
+        );
+    }
+
+    // requests for a target that is already being backed up are merged by the coordinator and share the same future
+    private @NotNull CompletableFuture<Void> runBackupTask(@NotNull String key, @NotNull Runnable task,
+                                                           int priority, @NotNull Path destination) {
+        var executor = backupExecutor;
+
+        if (executor == null) {
+            throw new IllegalStateException("The backup executor is not running.");
+        }
+
+        return jobs.submit(key, task, runnable -> executor.submit(runnable, priority, destination));
     }
 
-    private @NotNull CompletableFuture<Void> runBackupTask(@NotNull Runnable task) {
-        return CompletableFuture.runAsync(task, backupExecutors);
+    private static int getPriority(@NotNull List<String> priorities, @NotNull World world) {
+        int index = priorities.indexOf(world.getName());
+        return index != -1 ? index : priorities.size() + world.getEnvironment().ordinal();
     }
 
     private boolean isBackupDisabledWorld(@NotNull List<String> disabledWorldNameList, @NotNull String worldName) {
@@ -0,0 +1,145 @@
+package net.okocraft.zipbackup.throttle;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Limits reads and writes to the configured number of bytes per second.
+ * <p>
+ * In adaptive mode, the limits are halved every second while recent ticks take longer than the threshold,
+ * and are raised again step by step once the ticks are back under it. A limit that is not configured starts
+ * from the throughput of the last second when the ticks first get slow, and is removed once they have recovered.
+ */
+public final class BandwidthThrottle implements IoThrottle {
+
+    private static final long ADJUST_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+    private static final double MIN_SCALE = 0.05;
+    private static final double RECOVERY_STEP = 0.1;
+    private static final double RECOVERY_RATIO = 0.75;
+    private static final long MIN_MEASURED_RATE = 1024 * 1024;
+
+    private final long readRate;
+    private final long writeRate;
+    private final TokenBucket readBucket;
+    private final TokenBucket writeBucket;
+    private final LongAdder readBytes = new LongAdder();
+    private final LongAdder writeBytes = new LongAdder();
+
+    private final @Nullable DoubleSupplier recentTickDuration;
+    private final double tickDurationThreshold;
+    private double scale = 1.0;
+    private long readCeiling;
+    private long writeCeiling;
+    private long lastAdjustment = System.nanoTime();
+
+    /**
+     * @param readRate              bytes per second that can be read, 0 or less for no limit unless the ticks are slow
+     * @param writeRate             bytes per second that can be written, 0 or less for no limit unless the ticks are slow
+     * @param recentTickDuration    the recent tick duration in milliseconds, or {@code null} to keep the limits fixed
+     * @param tickDurationThreshold the tick duration above which the limits are lowered
+     */
+    public BandwidthThrottle(long readRate, long writeRate,
+                             @Nullable DoubleSupplier recentTickDuration, double tickDurationThreshold) {
+        this.readRate = readRate;
+        this.writeRate = writeRate;
+        this.readCeiling = readRate;
+        this.writeCeiling = writeRate;
+        this.readBucket = new TokenBucket(readRate);
+        this.writeBucket = new TokenBucket(writeRate);
+        this.recentTickDuration = recentTickDuration;
+        this.tickDurationThreshold = tickDurationThreshold;
+    }
+
+    @Override
+    public void acquireRead(long bytes) throws InterruptedIOException {
+        adjustIfNeeded();
+        readBytes.add(bytes);
+        readBucket.acquire(bytes);
+    }
+
+    @Override
+    public void acquireWrite(long bytes) throws InterruptedIOException {
+        adjustIfNeeded();
+        writeBytes.add(bytes);
+        writeBucket.acquire(bytes);
+    }
+
+    public synchronized double getScale() {
+        return scale;
+    }
+
+    private void adjustIfNeeded() {
+        if (recentTickDuration == null) {
+            return;
+        }
+
+        double newScale;
+        long newReadRate;
+        long newWriteRate;
+
+        synchronized (this) {
+            long now = System.nanoTime();
+            long elapsed = now - lastAdjustment;
+
+            if (elapsed < ADJUST_INTERVAL) {
+                return;
+            }
+
+            lastAdjustment = now;
+
+            // nothing has been read or written for a while, such as between backups, so the throughput is not known
+            if (ADJUST_INTERVAL * 2 < elapsed) {
+                readBytes.reset();
+                writeBytes.reset();
+                return;
+            }
+
+            long measuredReadRate = measure(readBytes.sumThenReset(), elapsed);
+            long measuredWriteRate = measure(writeBytes.sumThenReset(), elapsed);
+            double tickDuration = recentTickDuration.getAsDouble();
+
+            if (tickDurationThreshold < tickDuration) {
+                newScale = Math.max(MIN_SCALE, scale / 2);
+            } else if (tickDuration < tickDurationThreshold * RECOVERY_RATIO) {
+                newScale = Math.min(1.0, scale + RECOVERY_STEP);
+            } else {
+                return;
+            }
+
+            if (newScale == scale) {
+                return;
+            }
+
+            if (scale == 1.0) {
+                // the limits that are not configured start from the current throughput
+                readCeiling = 0 < readRate ? readRate : measuredReadRate;
+                writeCeiling = 0 < writeRate ? writeRate : measuredWriteRate;
+            }
+
+            scale = newScale;
+
+            if (scale == 1.0) {
+                readCeiling = readRate;
+                writeCeiling = writeRate;
+            }
+
+            newReadRate = scaled(readCeiling, scale);
+            newWriteRate = scaled(writeCeiling, scale);
+        }
+
+        readBucket.setRate(newReadRate);
+        writeBucket.setRate(newWriteRate);
+    }
+
+    private static long measure(long bytes, long elapsed) {
+        return Math.max(MIN_MEASURED_RATE, (long) (bytes * (double) TimeUnit.SECONDS.toNanos(1) / elapsed));
+    }
+
+    private static long scaled(long rate, double scale) {
+        return rate <= 0 ? rate : Math.max(1, (long) (rate * scale));
+    }
+}
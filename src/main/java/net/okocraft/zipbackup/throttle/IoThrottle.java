@@ -0,0 +1,84 @@
+package net.okocraft.zipbackup.throttle;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Limits the disk bandwidth used by backups. The acquire methods block until the bytes may be read or written.
+ */
+public interface IoThrottle {
+
+    IoThrottle UNLIMITED = new IoThrottle() {
+        @Override
+        public void acquireRead(long bytes) {
+        }
+
+        @Override
+        public void acquireWrite(long bytes) {
+        }
+    };
+
+    void acquireRead(long bytes) throws InterruptedIOException;
+
+    void acquireWrite(long bytes) throws InterruptedIOException;
+
+    default @NotNull InputStream throttleRead(@NotNull InputStream in) {
+        if (this == UNLIMITED) {
+            return in;
+        }
+
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                acquireRead(1);
+                return super.read();
+            }
+
+            @Override
+            public int read(byte @NotNull [] b, int off, int len) throws IOException {
+                int read = super.read(b, off, len);
+
+                if (0 < read) {
+                    acquireRead(read);
+                }
+
+                return read;
+            }
+        };
+    }
+
+    default @NotNull ReadableByteChannel throttleRead(@NotNull ReadableByteChannel channel) {
+        if (this == UNLIMITED) {
+            return channel;
+        }
+
+        return new ReadableByteChannel() {
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                int read = channel.read(dst);
+
+                if (0 < read) {
+                    acquireRead(read);
+                }
+
+                return read;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return channel.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+}
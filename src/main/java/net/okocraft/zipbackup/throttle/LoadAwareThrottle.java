@@ -0,0 +1,163 @@
+package net.okocraft.zipbackup.throttle;
+
+import net.okocraft.zipbackup.monitor.ServerLoad;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pauses the I/O of a single backup task while the server is under load.
+ * <p>
+ * Once paused, the task resumes after the load has stayed under the thresholds for {@link #RESUME_DELAY},
+ * so that a short dip does not make the backup stop and start every second.
+ * The total pause time of a task is limited so that a backup still finishes on a server that is always busy.
+ */
+public final class LoadAwareThrottle implements IoThrottle {
+
+    private static final long RESUME_DELAY = TimeUnit.SECONDS.toNanos(5);
+    private static final long POLL_INTERVAL_MILLIS = 250;
+
+    private final IoThrottle delegate;
+    private final @Nullable ServerLoad monitor;
+    private final double maxTickDuration;
+    private final double minTps;
+    private final long maxPauseNanos;
+
+    private volatile boolean paused;
+    private long pauseStart;
+    private long calmSince;
+    private long waitNanos;
+    private long pauseNanos;
+    private int pauseCount;
+
+    /**
+     * @param delegate        the throttle that limits the bandwidth
+     * @param monitor         the server load to read, or {@code null} to never pause
+     * @param maxTickDuration the tick duration in milliseconds above which the task is paused, 0 or less to ignore
+     * @param minTps          the TPS below which the task is paused, 0 or less to ignore
+     * @param maxPauseNanos   the total time the task can be paused, 0 or less for no limit
+     */
+    public LoadAwareThrottle(@NotNull IoThrottle delegate, @Nullable ServerLoad monitor,
+                             double maxTickDuration, double minTps, long maxPauseNanos) {
+        this.delegate = delegate;
+        this.monitor = monitor;
+        this.maxTickDuration = maxTickDuration;
+        this.minTps = minTps;
+        this.maxPauseNanos = maxPauseNanos;
+    }
+
+    @Override
+    public void acquireRead(long bytes) throws InterruptedIOException {
+        awaitLoad(false);
+        delegate.acquireRead(bytes);
+    }
+
+    @Override
+    public void acquireWrite(long bytes) throws InterruptedIOException {
+        awaitLoad(false);
+        delegate.acquireWrite(bytes);
+    }
+
+    /**
+     * Blocks until the server load allows the task to start. The time spent here is reported as wait time.
+     */
+    public void awaitStart() throws InterruptedIOException {
+        awaitLoad(true);
+    }
+
+    public synchronized long getWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(waitNanos);
+    }
+
+    public synchronized long getPauseMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(pauseNanos);
+    }
+
+    public synchronized int getPauseCount() {
+        return pauseCount;
+    }
+
+    /**
+     * Describes the wait and pause time for the log, or returns an empty string if the task never had to wait.
+     */
+    public synchronized @NotNull String getSummary() {
+        var builder = new StringBuilder();
+
+        if (0 < waitNanos) {
+            builder.append(", waited ").append(getWaitMillis()).append("ms to start");
+        }
+
+        if (0 < pauseCount) {
+            builder.append(", paused ").append(pauseCount).append(pauseCount == 1 ? " time" : " times")
+                    .append(" for ").append(getPauseMillis()).append("ms");
+        }
+
+        return builder.toString();
+    }
+
+    private void awaitLoad(boolean start) throws InterruptedIOException {
+        if (monitor == null || (!paused && !isOverloaded(monitor))) {
+            return;
+        }
+
+        synchronized (this) {
+            if (!paused) {
+                if (!isOverloaded(monitor) || (!start && isPauseLimitReached(0))) {
+                    return;
+                }
+
+                paused = true;
+                pauseStart = System.nanoTime();
+                calmSince = 0;
+
+                if (!start) {
+                    pauseCount++;
+                }
+            }
+
+            // the threads that are blocked here wake up in turn and check whether the task can be resumed
+            while (paused) {
+                long now = System.nanoTime();
+
+                if (isOverloaded(monitor)) {
+                    calmSince = 0;
+                } else if (calmSince == 0) {
+                    calmSince = now;
+                }
+
+                long elapsed = now - pauseStart;
+
+                if ((calmSince != 0 && RESUME_DELAY <= now - calmSince) || isPauseLimitReached(elapsed)) {
+                    paused = false;
+
+                    if (start) {
+                        waitNanos += elapsed;
+                    } else {
+                        pauseNanos += elapsed;
+                    }
+
+                    notifyAll();
+                    break;
+                }
+
+                try {
+                    wait(POLL_INTERVAL_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the server load to go down");
+                }
+            }
+        }
+    }
+
+    private boolean isOverloaded(@NotNull ServerLoad monitor) {
+        return (0 < maxTickDuration && maxTickDuration < monitor.getRecentTickDuration()) ||
+                (0 < minTps && monitor.getRecentTps() < minTps);
+    }
+
+    private boolean isPauseLimitReached(long currentPause) {
+        return 0 < maxPauseNanos && maxPauseNanos <= waitNanos + pauseNanos + currentPause;
+    }
+}
@@ -0,0 +1,59 @@
+package net.okocraft.zipbackup.throttle;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket that holds up to one second of tokens.
+ * <p>
+ * Callers may take more tokens than are available; the bucket goes into debt and each caller sleeps
+ * until its share of the debt has been refilled, so concurrent callers are limited to the rate together.
+ */
+final class TokenBucket {
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private long rate;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    TokenBucket(long rate) {
+        this.rate = rate;
+        this.tokens = rate;
+    }
+
+    synchronized void setRate(long rate) {
+        refill();
+        this.rate = rate;
+        tokens = Math.min(tokens, rate);
+    }
+
+    void acquire(long amount) throws InterruptedIOException {
+        long waitNanos;
+
+        synchronized (this) {
+            if (rate <= 0) {
+                return;
+            }
+
+            refill();
+            tokens -= amount;
+            waitNanos = tokens < 0 ? (long) (-tokens * NANOS_PER_SECOND / rate) : 0;
+        }
+
+        if (0 < waitNanos) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the bandwidth limit");
+            }
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(rate, tokens + (double) (now - lastRefill) * rate / NANOS_PER_SECOND);
+        lastRefill = now;
+    }
+}
@@ -1,24 +1,53 @@
 package net.okocraft.zipbackup.type;
 
-import net.lingala.zip4j.model.ZipParameters;
+import net.okocraft.zipbackup.archive.ArchiveFactory;
+import net.okocraft.zipbackup.archive.CompressionPolicy;
+import net.okocraft.zipbackup.catalog.BackupRecord;
+import net.okocraft.zipbackup.dedup.ChunkStore;
+import net.okocraft.zipbackup.manifest.ContentDigest;
+import net.okocraft.zipbackup.metrics.JobMetrics;
+import net.okocraft.zipbackup.scan.TreeScanner;
+import net.okocraft.zipbackup.throttle.IoThrottle;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.nio.file.Path;
 import java.util.function.Predicate;
-import java.util.function.Supplier;
 
 public interface BackupType {
 
-    static @NotNull BackupType full(@NotNull Supplier<ZipParameters> zipParametersSupplier,
-                                    @NotNull Predicate<Path> shouldIgnore) {
-        return new FullZipBackup(zipParametersSupplier, shouldIgnore);
+    static @NotNull BackupType full(@NotNull ArchiveFactory archiveFactory,
+                                    @NotNull TreeScanner scanner,
+                                    @NotNull Predicate<Path> shouldIgnore,
+                                    @NotNull JobMetrics metrics) {
+        return new FullZipBackup(archiveFactory, scanner, shouldIgnore, metrics);
     }
 
-    static @NotNull BackupType differential(@NotNull Supplier<ZipParameters> zipParametersSupplier,
+    static @NotNull BackupType differential(@NotNull ArchiveFactory archiveFactory,
+                                            @NotNull TreeScanner scanner,
                                             @NotNull Predicate<Path> shouldIgnore,
-                                            boolean checkFileContent) {
-        return new DifferentialBackup(zipParametersSupplier, shouldIgnore, checkFileContent);
+                                            boolean checkFileContent,
+                                            boolean regionDelta,
+                                            @NotNull ContentDigest contentDigest,
+                                            @NotNull BaseCopyMode baseCopyMode,
+                                            @NotNull IoThrottle throttle,
+                                            @NotNull JobMetrics metrics) {
+        return new DifferentialBackup(archiveFactory, scanner, shouldIgnore, checkFileContent, regionDelta, contentDigest, baseCopyMode, throttle, metrics);
     }
 
-    void backup(@NotNull Path sourceDir, @NotNull Path backupDir) throws Exception;
+    static @NotNull BackupType deduplicated(@NotNull ChunkStore store,
+                                            @NotNull CompressionPolicy compressionPolicy,
+                                            @NotNull TreeScanner scanner,
+                                            @NotNull Predicate<Path> shouldIgnore,
+                                            @NotNull IoThrottle throttle,
+                                            @NotNull JobMetrics metrics) {
+        return new DeduplicatingBackup(store, compressionPolicy, scanner, shouldIgnore, throttle, metrics);
+    }
+
+    /**
+     * Backs up the source directory into the backup directory, which is named after the target of the backup.
+     *
+     * @return the backup that has been written, or {@code null} if nothing has changed since the base
+     */
+    @Nullable BackupRecord backup(@NotNull Path sourceDir, @NotNull Path backupDir) throws Exception;
 }
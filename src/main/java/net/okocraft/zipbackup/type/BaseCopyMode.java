@@ -0,0 +1,38 @@
+package net.okocraft.zipbackup.type;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Locale;
+
+/**
+ * How the daily base of a differential backup is created.
+ */
+public enum BaseCopyMode {
+
+    /**
+     * Copies every file.
+     */
+    COPY,
+
+    /**
+     * Hardlinks files that are unchanged since the previous base and copies the others.
+     */
+    HARDLINK,
+
+    /**
+     * Clones every file with a reflink, falling back to {@link #COPY} if the filesystem does not support it.
+     */
+    REFLINK;
+
+    public static @NotNull BaseCopyMode fromName(@Nullable String name) {
+        if (name != null) {
+            try {
+                return valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
+
+        return COPY;
+    }
+}
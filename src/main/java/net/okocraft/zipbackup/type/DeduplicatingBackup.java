@@ -0,0 +1,131 @@
+package net.okocraft.zipbackup.type;
+
+import com.github.siroshun09.configapi.api.util.FileUtils;
+import net.okocraft.zipbackup.archive.CompressionPolicy;
+import net.okocraft.zipbackup.archive.ZipArchiveWriter;
+import net.okocraft.zipbackup.catalog.BackupRecord;
+import net.okocraft.zipbackup.dedup.ChunkId;
+import net.okocraft.zipbackup.dedup.ChunkStore;
+import net.okocraft.zipbackup.dedup.ContentDefinedChunker;
+import net.okocraft.zipbackup.dedup.Snapshot;
+import net.okocraft.zipbackup.metrics.JobMetrics;
+import net.okocraft.zipbackup.scan.TreeScanner;
+import net.okocraft.zipbackup.throttle.IoThrottle;
+import net.okocraft.zipbackup.util.FilePathFactory;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+class DeduplicatingBackup implements BackupType {
+
+    private final ChunkStore store;
+    private final CompressionPolicy compressionPolicy;
+    private final TreeScanner scanner;
+    private final IoThrottle throttle;
+    private final JobMetrics metrics;
+    private final Predicate<Path> shouldIgnore;
+
+    DeduplicatingBackup(@NotNull ChunkStore store,
+                        @NotNull CompressionPolicy compressionPolicy,
+                        @NotNull TreeScanner scanner,
+                        @NotNull Predicate<Path> shouldIgnore,
+                        @NotNull IoThrottle throttle,
+                        @NotNull JobMetrics metrics) {
+        this.store = store;
+        this.compressionPolicy = compressionPolicy;
+        this.scanner = scanner;
+        this.shouldIgnore = shouldIgnore;
+        this.throttle = throttle;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public @NotNull BackupRecord backup(@NotNull Path sourceDir, @NotNull Path backupDir) throws Exception {
+        FileUtils.createDirectoriesIfNotExists(backupDir);
+
+        var previous = loadPreviousSnapshot(backupDir);
+        var files = new ArrayList<Snapshot.FileEntry>();
+        var snapshotFile = FilePathFactory.newBackupFile(backupDir, Snapshot.FILE_SUFFIX);
+        var session = store.openSession();
+
+        // the session is held until the snapshot is written, so that its chunks are never seen as unreferenced
+        try (var scan = scanner.scan(sourceDir)) {
+            for (var file : metrics.timeScan(scan)) {
+                processFile(sourceDir, file, previous, files);
+            }
+            store.flush();
+            new Snapshot(files).write(snapshotFile);
+        } finally {
+            session.unlock();
+        }
+
+        return new BackupRecord(
+                backupDir.getFileName().toString(), BackupRecord.Kind.SNAPSHOT, snapshotFile.getFileName().toString(), null,
+                System.currentTimeMillis(), Files.size(snapshotFile), files.size()
+        );
+    }
+
+    private void processFile(@NotNull Path root, @NotNull TreeScanner.ScannedFile file,
+                             @NotNull Map<String, Snapshot.FileEntry> previous, @NotNull List<Snapshot.FileEntry> files) throws IOException {
+        var path = file.path();
+        var attributes = file.attributes();
+
+        if (shouldIgnore.test(path) || !attributes.isRegularFile()) {
+            return;
+        }
+
+        metrics.recordScanned(attributes.size());
+
+        var name = ZipArchiveWriter.toEntryName(root.relativize(path));
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        var previousEntry = previous.get(name);
+
+        if (previousEntry != null &&
+                previousEntry.size() == attributes.size() &&
+                previousEntry.lastModified() == lastModified &&
+                previousEntry.chunks().stream().allMatch(store::contains)) {
+            files.add(previousEntry);
+            metrics.recordSkipped();
+            return;
+        }
+
+        int level = compressionPolicy.selectLevel(path, attributes.size());
+        var chunks = new ArrayList<ChunkId>();
+
+        try (var in = throttle.throttleRead(Files.newInputStream(path))) {
+            ContentDefinedChunker.split(in, (data, length) -> {
+                var id = ChunkId.of(data, length);
+
+                if (!store.contains(id)) {
+                    throttle.acquireWrite(length);
+                }
+
+                store.put(id, data, length, level);
+                chunks.add(id);
+            });
+        }
+
+        files.add(new Snapshot.FileEntry(name, attributes.size(), lastModified, chunks));
+        metrics.recordAdded();
+    }
+
+    private @NotNull Map<String, Snapshot.FileEntry> loadPreviousSnapshot(@NotNull Path backupDir) throws IOException {
+        var latest = Snapshot.findLatest(backupDir);
+
+        if (latest == null) {
+            return Collections.emptyMap();
+        }
+
+        return Snapshot.read(latest).files().stream()
+                .collect(Collectors.toMap(Snapshot.FileEntry::path, Function.identity()));
+    }
+}
@@ -1,94 +1,254 @@
 package net.okocraft.zipbackup.type;
 
 import com.github.siroshun09.configapi.api.util.FileUtils;
-import net.lingala.zip4j.ZipFile;
-import net.lingala.zip4j.model.ZipParameters;
-import net.okocraft.zipbackup.util.FilePathFactory;
+import net.okocraft.zipbackup.archive.ArchiveFactory;
+import net.okocraft.zipbackup.archive.ArchiveWriter;
+import net.okocraft.zipbackup.archive.ZipArchiveWriter;
+import net.okocraft.zipbackup.catalog.BackupRecord;
+import net.okocraft.zipbackup.manifest.ContentDigest;
+import net.okocraft.zipbackup.manifest.FileManifest;
+import net.okocraft.zipbackup.metrics.JobMetrics;
+import net.okocraft.zipbackup.region.RegionDelta;
+import net.okocraft.zipbackup.scan.TreeScanner;
+import net.okocraft.zipbackup.throttle.IoThrottle;
+import net.okocraft.zipbackup.util.Reflink;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
-import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.function.Predicate;
-import java.util.function.Supplier;
 
 class DifferentialBackup implements BackupType {
 
+    // the digest of a clone that has not been hashed, since cloning is meant to be metadata work only
+    private static final byte[] NOT_HASHED = new byte[0];
+
     private final Predicate<Path> shouldIgnore;
     private final boolean checkFileContent;
-    private final Supplier<ZipParameters> zipParametersSupplier;
+    private final boolean regionDelta;
+    private final ContentDigest contentDigest;
+    private final BaseCopyMode baseCopyMode;
+    private final ArchiveFactory archiveFactory;
+    private final TreeScanner scanner;
+    private final IoThrottle throttle;
+    private final JobMetrics metrics;
 
-    DifferentialBackup(@NotNull Supplier<ZipParameters> zipParametersSupplier,
+    DifferentialBackup(@NotNull ArchiveFactory archiveFactory,
+                       @NotNull TreeScanner scanner,
                        @NotNull Predicate<Path> shouldIgnore,
-                       boolean checkFileContent) {
-        this.zipParametersSupplier = zipParametersSupplier;
+                       boolean checkFileContent,
+                       boolean regionDelta,
+                       @NotNull ContentDigest contentDigest,
+                       @NotNull BaseCopyMode baseCopyMode,
+                       @NotNull IoThrottle throttle,
+                       @NotNull JobMetrics metrics) {
+        this.archiveFactory = archiveFactory;
+        this.scanner = scanner;
         this.shouldIgnore = shouldIgnore;
         this.checkFileContent = checkFileContent;
+        this.regionDelta = regionDelta;
+        this.contentDigest = contentDigest;
+        this.baseCopyMode = baseCopyMode;
+        this.throttle = throttle;
+        this.metrics = metrics;
     }
 
     @Override
-    public void backup(@NotNull Path sourceDir, @NotNull Path backupDir) throws Exception {
+    public @Nullable BackupRecord backup(@NotNull Path sourceDir, @NotNull Path backupDir) throws Exception {
         FileUtils.createDirectoriesIfNotExists(backupDir);
 
         var fullBackupDir = backupDir.resolve("full-backup-" + DateTimeFormatter.ISO_LOCAL_DATE.format(LocalDate.now()));
 
         if (Files.isDirectory(fullBackupDir)) {
-            diffBackup(sourceDir, backupDir, fullBackupDir);
+            return diffBackup(sourceDir, backupDir, fullBackupDir, FileManifest.loadIfExists(FileManifest.getPath(fullBackupDir)));
         } else {
-            fullBackup(sourceDir, fullBackupDir);
+            return fullBackup(sourceDir, backupDir, fullBackupDir);
+        }
+    }
+
+    private @NotNull BackupRecord fullBackup(@NotNull Path source, @NotNull Path backupDir, @NotNull Path fullBackupDir) throws IOException {
+        var builder = new BaseBuilder(source, fullBackupDir);
+
+        if (baseCopyMode != BaseCopyMode.COPY) {
+            builder.previousBaseDir = findPreviousBase(backupDir, fullBackupDir);
+
+            if (builder.previousBaseDir != null) {
+                var previousManifest = FileManifest.loadIfExists(FileManifest.getPath(builder.previousBaseDir));
+                // digests cannot be reused if the previous base was recorded with another algorithm
+                builder.previousManifest = previousManifest != null && previousManifest.getDigest() == contentDigest ? previousManifest : null;
+            }
         }
+
+        try (var scan = scanner.scan(source)) {
+            for (var file : metrics.timeScan(scan)) {
+                builder.add(file);
+            }
+        }
+
+        builder.flushAllClones();
+
+        FileManifest.write(FileManifest.getPath(fullBackupDir), contentDigest, builder.manifestEntries);
+
+        long size = builder.manifestEntries.stream().mapToLong(FileManifest.Entry::size).sum();
+        // the quota counts the linked files once from these sizes, instead of walking the bases before every backup
+        var linkedBase = builder.linkedSize != 0 && builder.previousBaseDir != null ? builder.previousBaseDir.getFileName().toString() : null;
+        return new BackupRecord(
+                backupDir.getFileName().toString(), BackupRecord.Kind.BASE, fullBackupDir.getFileName().toString(), null,
+                System.currentTimeMillis(), size, builder.manifestEntries.size(), linkedBase, builder.linkedSize
+        );
     }
 
-    private void fullBackup(@NotNull Path source, @NotNull Path fullBackupDir) throws IOException {
-        try (var walk = Files.walk(source)) {
-            walk.forEach(file -> copyFile(file, fullBackupDir.resolve(source.relativize(file))));
+    private static @Nullable Path findPreviousBase(@NotNull Path backupDir, @NotNull Path fullBackupDir) throws IOException {
+        try (var list = Files.list(backupDir)) {
+            return list.filter(path -> path.getFileName().toString().startsWith("full-backup-"))
+                    .filter(path -> !path.equals(fullBackupDir))
+                    .filter(Files::isDirectory)
+                    .filter(path -> Files.isRegularFile(FileManifest.getPath(path)))
+                    .max(Comparator.comparing(path -> path.getFileName().toString()))
+                    .orElse(null);
         }
     }
 
-    private void copyFile(@NotNull Path sourceFile, @NotNull Path targetFile) {
-        if (shouldIgnore.test(sourceFile)) {
-            return;
+    private byte @NotNull [] copyAndDigest(@NotNull Path source, @NotNull Path target, @NotNull ContentDigest.Hasher hasher) throws IOException {
+        var buffer = ByteBuffer.allocateDirect(1 << 16);
+
+        try (var in = FileChannel.open(source, StandardOpenOption.READ);
+             var out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            while (in.read(buffer) != -1) {
+                buffer.flip();
+                throttle.acquireRead(buffer.remaining());
+                throttle.acquireWrite(buffer.remaining());
+                hasher.update(buffer.duplicate());
+
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+
+                buffer.clear();
+            }
         }
 
-        try {
-            Files.copy(sourceFile, targetFile);
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
+        return hasher.finish();
+    }
+
+    private byte @NotNull [] digest(@NotNull ContentDigest algorithm, @NotNull Path file) throws IOException {
+        try (var channel = throttle.throttleRead(FileChannel.open(file, StandardOpenOption.READ))) {
+            return algorithm.digest(channel);
         }
     }
 
-    private void diffBackup(@NotNull Path root, @NotNull Path backupDir, @NotNull Path fullBackupDir) throws IOException {
-        try (var zip = new ZipFile(FilePathFactory.newBackupFile(backupDir).toFile());
-             var walk = Files.walk(root)) {
-            walk.forEach(file -> processFile(zip, root, file, fullBackupDir));
+    private @Nullable BackupRecord diffBackup(@NotNull Path root, @NotNull Path backupDir, @NotNull Path fullBackupDir,
+                                              @Nullable FileManifest manifest) throws IOException {
+        Path archiveFile;
+        int fileCount = 0;
+
+        try (var archive = new LazyArchive(backupDir)) {
+            try (var scan = scanner.scan(root)) {
+                for (var file : metrics.timeScan(scan)) {
+                    if (processFile(archive, root, file, fullBackupDir, manifest)) {
+                        fileCount++;
+                    }
+                }
+            } catch (Throwable e) {
+                archive.abort(e);
+                throw e;
+            }
+
+            archiveFile = archive.writer != null ? archive.writer.getFile() : null;
+        }
+
+        if (archiveFile == null) {
+            return null;
         }
+
+        return new BackupRecord(
+                backupDir.getFileName().toString(), BackupRecord.Kind.DIFFERENTIAL, archiveFile.getFileName().toString(),
+                fullBackupDir.getFileName().toString(), System.currentTimeMillis(), Files.size(archiveFile), fileCount
+        );
     }
 
-    private void processFile(@NotNull ZipFile zipFile, @NotNull Path root, @NotNull Path path, @NotNull Path fullBackupDir) {
-        if (shouldIgnore.test(path) || !Files.isRegularFile(path)) {
-            return;
+    // returns whether the file has been added to the archive
+    private boolean processFile(@NotNull LazyArchive archive, @NotNull Path root, @NotNull TreeScanner.ScannedFile file,
+                             @NotNull Path fullBackupDir, @Nullable FileManifest manifest) throws IOException {
+        var path = file.path();
+        var attributes = file.attributes();
+
+        if (shouldIgnore.test(path) || !attributes.isRegularFile()) {
+            return false;
         }
 
+        metrics.recordScanned(attributes.size());
+
         var relative = root.relativize(path);
         var fullBackupFile = fullBackupDir.resolve(relative);
 
-        try {
-            if (shouldBackup(path, fullBackupFile)) {
-                storeFileToZip(zipFile, path, relative.toString());
+        boolean changed =
+                manifest != null ?
+                        isChanged(attributes, manifest, ZipArchiveWriter.toEntryName(relative), path, fullBackupFile) :
+                        shouldBackup(path, fullBackupFile);
+
+        if (!changed) {
+            metrics.recordSkipped();
+            return false;
+        }
+
+        if (regionDelta && RegionDelta.isRegionFile(path) && Files.isRegularFile(fullBackupFile)) {
+            // the delta reads the changed chunks of both files, which is at most the size of the current file for each
+            throttle.acquireRead(attributes.size());
+            var delta = RegionDelta.create(fullBackupFile, path);
+
+            if (delta != null) {
+                if (delta.length != 0) {
+                    var deltaName = relative.resolveSibling(relative.getFileName() + RegionDelta.ENTRY_SUFFIX);
+                    archive.get().addBytes(deltaName, delta, attributes.lastModifiedTime().toMillis());
+                    metrics.recordAdded();
+                    return true;
+                }
+
+                metrics.recordSkipped();
+                return false;
             }
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
         }
+
+        archive.get().addFile(path, relative, attributes);
+        metrics.recordAdded();
+        return true;
     }
 
-    private void storeFileToZip(@NotNull ZipFile zipFile, @NotNull Path path, @NotNull String relative) throws IOException {
-        var zipParameters = zipParametersSupplier.get();
-        zipParameters.setFileNameInZip(relative);
-        zipFile.addFile(path.toFile(), zipParameters);
+    private boolean isChanged(@NotNull BasicFileAttributes current, @NotNull FileManifest manifest, @NotNull String name,
+                              @NotNull Path currentFile, @NotNull Path baseFile) throws IOException {
+        var base = manifest.get(name);
+
+        if (base == null) {
+            return true;
+        }
+
+        if (base.lastModified() < current.lastModifiedTime().toMillis() || base.size() != current.size()) {
+            return true;
+        }
+
+        if (!checkFileContent) {
+            return false;
+        }
+
+        // only the live file is read if the digest of the base was recorded when the base was created
+        return base.digest().length == 0 ?
+                Files.mismatch(currentFile, baseFile) != -1 :
+                !Arrays.equals(base.digest(), digest(manifest.getDigest(), currentFile));
     }
 
     private boolean shouldBackup(@NotNull Path current, @NotNull Path fullBackup) throws IOException {
@@ -103,4 +263,166 @@ class DifferentialBackup implements BackupType {
                 currentAttribute.size() != fullbackBackupAttribute.size() ||
                 (checkFileContent && Files.mismatch(current, fullBackup) != -1);
     }
+
+    private final class BaseBuilder {
+
+        private static final int MAX_CLONE_BATCH = 256;
+
+        private final Path source;
+        private final Path fullBackupDir;
+        private final List<FileManifest.Entry> manifestEntries = new ArrayList<>();
+        private @Nullable Path previousBaseDir;
+        private @Nullable FileManifest previousManifest;
+        private long linkedSize;
+
+        // the scanner does not return files grouped by directory, so clones are batched per target directory
+        private final Map<Path, List<PendingClone>> pendingClones = new HashMap<>();
+        private boolean reflinkSupported = true;
+
+        private BaseBuilder(@NotNull Path source, @NotNull Path fullBackupDir) {
+            this.source = source;
+            this.fullBackupDir = fullBackupDir;
+        }
+
+        private void add(@NotNull TreeScanner.ScannedFile file) throws IOException {
+            var sourceFile = file.path();
+            var attributes = file.attributes();
+
+            if (shouldIgnore.test(sourceFile)) {
+                return;
+            }
+
+            var relative = source.relativize(sourceFile);
+            var targetFile = fullBackupDir.resolve(relative);
+
+            if (!attributes.isRegularFile()) {
+                Files.copy(sourceFile, targetFile);
+                return;
+            }
+
+            var name = ZipArchiveWriter.toEntryName(relative);
+            long size = attributes.size();
+
+            metrics.recordScanned(size);
+            metrics.recordAdded();
+
+            long lastModified = attributes.lastModifiedTime().toMillis();
+            var unchangedDigest = getUnchangedDigest(name, size, lastModified);
+
+            if (baseCopyMode == BaseCopyMode.HARDLINK && unchangedDigest != null && previousBaseDir != null &&
+                    tryLink(targetFile, previousBaseDir.resolve(relative))) {
+                manifestEntries.add(new FileManifest.Entry(name, size, lastModified, unchangedDigest));
+                linkedSize += size;
+                return;
+            }
+
+            if (baseCopyMode == BaseCopyMode.REFLINK && reflinkSupported) {
+                var targetDir = targetFile.getParent();
+                var batch = pendingClones.computeIfAbsent(targetDir, ignored -> new ArrayList<>());
+
+                batch.add(new PendingClone(sourceFile, targetFile, name, size, lastModified, unchangedDigest));
+
+                if (MAX_CLONE_BATCH <= batch.size()) {
+                    flushClones(targetDir, pendingClones.remove(targetDir));
+                }
+                return;
+            }
+
+            var digest = copyAndDigest(sourceFile, targetFile, contentDigest.newHasher());
+            manifestEntries.add(new FileManifest.Entry(name, size, lastModified, digest));
+        }
+
+        private byte @Nullable [] getUnchangedDigest(@NotNull String name, long size, long lastModified) {
+            var previous = previousManifest != null ? previousManifest.get(name) : null;
+            return previous != null && previous.size() == size && previous.lastModified() == lastModified ? previous.digest() : null;
+        }
+
+        private boolean tryLink(@NotNull Path link, @NotNull Path existing) {
+            try {
+                Files.createLink(link, existing);
+                return true;
+            } catch (IOException | UnsupportedOperationException e) {
+                // the previous base may be on another filesystem or have been purged; the file is copied instead
+                return false;
+            }
+        }
+
+        private void flushAllClones() throws IOException {
+            for (var batch : pendingClones.entrySet()) {
+                flushClones(batch.getKey(), batch.getValue());
+            }
+
+            pendingClones.clear();
+        }
+
+        private void flushClones(@NotNull Path targetDir, @NotNull List<PendingClone> batch) throws IOException {
+            var sources = batch.stream().map(PendingClone::source).toList();
+            boolean cloned = reflinkSupported && Reflink.cloneInto(sources, targetDir);
+
+            if (!cloned) {
+                reflinkSupported = false;
+            }
+
+            for (var clone : batch) {
+                byte[] digest;
+
+                if (!cloned) {
+                    Files.deleteIfExists(clone.target());
+                    digest = copyAndDigest(clone.source(), clone.target(), contentDigest.newHasher());
+                } else if (clone.unchangedDigest() != null) {
+                    digest = clone.unchangedDigest();
+                } else if (checkFileContent) {
+                    digest = digest(contentDigest, clone.target());
+                } else {
+                    // the content is compared with the clone in the base if check-file-content is enabled later
+                    digest = NOT_HASHED;
+                }
+
+                manifestEntries.add(new FileManifest.Entry(clone.name(), clone.size(), clone.lastModified(), digest));
+            }
+        }
+    }
+
+    // unchangedDigest is taken from the previous base, or null if the clone has not been hashed yet
+    private record PendingClone(@NotNull Path source, @NotNull Path target, @NotNull String name,
+                                long size, long lastModified, byte @Nullable [] unchangedDigest) {
+    }
+
+    // the archive is created when the first changed file is found, so that no empty archive is left behind
+    private final class LazyArchive implements AutoCloseable {
+
+        private final Path directory;
+        private @Nullable ArchiveWriter writer;
+
+        private LazyArchive(@NotNull Path directory) {
+            this.directory = directory;
+        }
+
+        private @NotNull ArchiveWriter get() throws IOException {
+            if (writer == null) {
+                writer = archiveFactory.create(directory);
+            }
+            return writer;
+        }
+
+        // the archive would look complete without the rest of the changed files
+        private void abort(@NotNull Throwable cause) {
+            if (writer == null) {
+                return;
+            }
+
+            try {
+                writer.abort();
+            } catch (IOException suppressed) {
+                cause.addSuppressed(suppressed);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+    }
 }
@@ -1,56 +1,77 @@
 package net.okocraft.zipbackup.type;
 
 import com.github.siroshun09.configapi.api.util.FileUtils;
-import net.lingala.zip4j.ZipFile;
-import net.lingala.zip4j.model.ZipParameters;
-import net.okocraft.zipbackup.util.FilePathFactory;
+import net.okocraft.zipbackup.archive.ArchiveFactory;
+import net.okocraft.zipbackup.archive.ArchiveWriter;
+import net.okocraft.zipbackup.catalog.BackupRecord;
+import net.okocraft.zipbackup.metrics.JobMetrics;
+import net.okocraft.zipbackup.scan.TreeScanner;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
-import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.function.Predicate;
-import java.util.function.Supplier;
 
 class FullZipBackup implements BackupType {
 
-    private final Supplier<ZipParameters> zipParametersSupplier;
+    private final ArchiveFactory archiveFactory;
+    private final TreeScanner scanner;
     private final Predicate<Path> shouldIgnore;
+    private final JobMetrics metrics;
 
-    FullZipBackup(@NotNull Supplier<ZipParameters> zipParametersSupplier,
-                  @NotNull Predicate<Path> shouldIgnore) {
-        this.zipParametersSupplier = zipParametersSupplier;
+    FullZipBackup(@NotNull ArchiveFactory archiveFactory,
+                  @NotNull TreeScanner scanner,
+                  @NotNull Predicate<Path> shouldIgnore,
+                  @NotNull JobMetrics metrics) {
+        this.archiveFactory = archiveFactory;
+        this.scanner = scanner;
         this.shouldIgnore = shouldIgnore;
+        this.metrics = metrics;
     }
 
     @Override
-    public void backup(@NotNull Path sourceDir, @NotNull Path backupDir) throws Exception {
+    public @NotNull BackupRecord backup(@NotNull Path sourceDir, @NotNull Path backupDir) throws Exception {
         FileUtils.createDirectoriesIfNotExists(backupDir);
 
-        var zipPath = FilePathFactory.newBackupFile(backupDir);
+        Path archiveFile;
+        int fileCount = 0;
 
-        try (var zip = new ZipFile(zipPath.toFile());
-             var walk = Files.walk(sourceDir)) {
-            walk.forEach(path -> processPath(zip, sourceDir, path));
-        }
-    }
+        try (var archive = archiveFactory.create(backupDir)) {
+            archiveFile = archive.getFile();
 
-    private void processPath(@NotNull ZipFile zipFile, @NotNull Path root, @NotNull Path path) {
-        if (shouldIgnore.test(path) || !Files.isRegularFile(path)) {
-            return;
-        }
+            try (var scan = scanner.scan(sourceDir)) {
+                for (var file : metrics.timeScan(scan)) {
+                    if (processFile(archive, sourceDir, file)) {
+                        fileCount++;
+                    }
+                }
+            } catch (Throwable e) {
+                // the archive would look complete without the rest of the files
+                try {
+                    archive.abort();
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
 
-        try {
-            storeFileToZip(zipFile, path, root.relativize(path).toString());
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
+                throw e;
+            }
         }
+
+        return new BackupRecord(
+                backupDir.getFileName().toString(), BackupRecord.Kind.FULL, archiveFile.getFileName().toString(), null,
+                System.currentTimeMillis(), Files.size(archiveFile), fileCount
+        );
     }
 
-    private void storeFileToZip(@NotNull ZipFile zipFile, @NotNull Path file, @NotNull String relative) throws IOException {
-        var parameters = zipParametersSupplier.get();
-        parameters.setFileNameInZip(relative);
-        zipFile.addFile(file.toFile(), parameters);
+    private boolean processFile(@NotNull ArchiveWriter archive, @NotNull Path root, @NotNull TreeScanner.ScannedFile file) throws IOException {
+        if (shouldIgnore.test(file.path()) || !file.attributes().isRegularFile()) {
+            return false;
+        }
+
+        metrics.recordScanned(file.attributes().size());
+        archive.addFile(file.path(), root.relativize(file.path()), file.attributes());
+        metrics.recordAdded();
+        return true;
     }
 }
@@ -11,6 +11,10 @@ public final class FilePathFactory {
     public static final DateTimeFormatter FILENAME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd-HH-mm-ss");
 
     public static @NotNull Path newBackupFile(@NotNull Path directory) {
-        return directory.resolve(FILENAME_FORMAT.format(LocalDateTime.now()) + ".zip");
+        return newBackupFile(directory, ".zip");
+    }
+
+    public static @NotNull Path newBackupFile(@NotNull Path directory, @NotNull String suffix) {
+        return directory.resolve(FILENAME_FORMAT.format(LocalDateTime.now()) + suffix);
     }
 }
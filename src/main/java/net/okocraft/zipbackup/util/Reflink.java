@@ -0,0 +1,55 @@
+package net.okocraft.zipbackup.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Clones files with {@code cp --reflink=always}, which shares the data blocks between the source and the clone
+ * on filesystems that support it (btrfs, XFS, ...) and fails instead of copying on the others.
+ */
+public final class Reflink {
+
+    /**
+     * Clones the files into the directory, keeping their file names and modification times.
+     *
+     * @return {@code false} if the files could not be cloned, in which case some of them may already exist in the directory
+     */
+    public static boolean cloneInto(@NotNull List<Path> files, @NotNull Path directory) throws IOException {
+        var command = new ArrayList<String>(files.size() + 4);
+        command.add("cp");
+        command.add("--reflink=always");
+        command.add("--preserve=timestamps");
+        command.add("--");
+        files.forEach(file -> command.add(file.toString()));
+        command.add(directory.toString());
+
+        Process process;
+
+        try {
+            process = new ProcessBuilder(command)
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+        } catch (IOException e) {
+            // cp is not available on this platform
+            return false;
+        }
+
+        try {
+            return process.waitFor() == 0;
+        } catch (InterruptedException e) {
+            process.destroy();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while cloning files");
+        }
+    }
+
+    private Reflink() {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,81 @@
+package net.okocraft.zipbackup.cli;
+
+import com.github.siroshun09.configapi.yaml.YamlConfiguration;
+import net.okocraft.zipbackup.catalog.BackupRecord;
+import net.okocraft.zipbackup.core.SelectiveRestorer;
+import net.okocraft.zipbackup.core.WorldBackup;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HeadlessEnvironmentTest {
+
+    private static final Logger LOGGER = Logger.getLogger("ZipBackup");
+
+    @TempDir
+    Path root;
+
+    @Test
+    void testBackupAndList() throws IOException {
+        var dataFolder = Files.createDirectories(root.resolve("plugins").resolve("ZipBackup"));
+
+        try (var defaultConfig = Objects.requireNonNull(getClass().getResourceAsStream("/config.yml"))) {
+            Files.copy(defaultConfig, dataFolder.resolve("config.yml"));
+        }
+
+        var world = createWorld(root.resolve("world"));
+
+        try (var environment = createEnvironment(dataFolder)) {
+            assertTrue(new WorldBackup(environment, "world", world, null).run());
+            assertEquals(1, environment.getCatalog().list("world").size());
+        }
+
+        // the catalog is read again from the backup folder
+        try (var environment = createEnvironment(dataFolder)) {
+            var records = environment.getCatalog().list("world");
+            assertEquals(1, records.size());
+
+            var record = records.get(0);
+            assertEquals(BackupRecord.Kind.FULL, record.kind());
+            assertEquals(3, record.fileCount());
+
+            var restoredDir = root.resolve("restored");
+            var restored = new SelectiveRestorer(environment).restore(record, List.of("level.dat", "region/*.mca", "data/*"), restoredDir);
+            assertEquals(3, restored.size());
+
+            for (var file : List.of("level.dat", "region/r.0.0.mca", "data/raids.dat")) {
+                assertArrayEquals(Files.readAllBytes(world.resolve(file)), Files.readAllBytes(restoredDir.resolve(file)), file);
+            }
+        }
+    }
+
+    private static HeadlessEnvironment createEnvironment(Path dataFolder) throws IOException {
+        var configuration = YamlConfiguration.create(dataFolder.resolve("config.yml"));
+        configuration.reload();
+        return new HeadlessEnvironment(LOGGER, dataFolder, configuration);
+    }
+
+    private static Path createWorld(Path world) throws IOException {
+        var random = new Random(0);
+        var region = new byte[64 * 1024];
+        random.nextBytes(region);
+
+        Files.createDirectories(world.resolve("region"));
+        Files.createDirectories(world.resolve("data"));
+        Files.writeString(world.resolve("level.dat"), "level");
+        Files.write(world.resolve("region").resolve("r.0.0.mca"), region);
+        Files.writeString(world.resolve("data").resolve("raids.dat"), "raids");
+        return world;
+    }
+}